@@ -0,0 +1,109 @@
+package com.twu.loadgen;
+
+
+/**
+ * A latency histogram with log-linear buckets: values below 128 have a
+ * bucket each, and every power of two above is split into 64 buckets, so
+ * any recorded value is reported within 1.6% of its true value using a
+ * fixed array. It is written by a single thread, and merged afterwards
+ */
+class Histogram {
+
+
+    private static final int SUB_BUCKET_BITS = 6;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+
+    private final long[] counts = new long[BUCKETS];
+
+    private long total;
+
+    private long max;
+
+
+    /**
+     * Record a value
+     *
+     * @param value a value that is not negative, such as a latency in nanoseconds
+     */
+    void record(long value) {
+        counts[indexOf(value)]++;
+        total++;
+        max = Math.max(max, value);
+    }
+
+
+    /**
+     * Add the values recorded by another histogram to this one
+     */
+    void add(Histogram other) {
+
+        for (int i = 0; i < BUCKETS; i++)
+            counts[i] += other.counts[i];
+
+        total += other.total;
+        max = Math.max(max, other.max);
+    }
+
+
+    long getTotal() {
+        return total;
+    }
+
+
+    long getMax() {
+        return max;
+    }
+
+
+    /**
+     * Get the value at a percentile
+     *
+     * @param percentile the percentile from 0 to 100
+     * @return the highest value in the bucket of the percentile, or 0 if
+     *         nothing has been recorded
+     */
+    long getValueAtPercentile(double percentile) {
+
+        if (total == 0)
+            return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long count = 0;
+
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts[i];
+            if (count >= rank)
+                return Math.min(max, highestValueOf(i));
+        }
+
+        return max;
+    }
+
+
+    private static int indexOf(long value) {
+
+        if (value < 2 * SUB_BUCKETS)
+            return (int) value;
+
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+
+        return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+    }
+
+
+    private static long highestValueOf(int index) {
+
+        if (index < 2 * SUB_BUCKETS)
+            return index;
+
+        int shift = (index >> SUB_BUCKET_BITS) - 1;
+        long mantissa = index - ((long) shift << SUB_BUCKET_BITS);
+
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+}
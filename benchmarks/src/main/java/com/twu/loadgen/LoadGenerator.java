@@ -0,0 +1,473 @@
+package com.twu.loadgen;
+
+import com.twu.controller.HotSearchController;
+import com.twu.controller.UserController;
+import com.twu.entity.RegularUser;
+import com.twu.service.HotSearchService;
+import com.twu.service.SessionManager;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+
+/**
+ * The LoadGenerator replays synthetic traffic against the controllers to
+ * reproduce production load offline.
+ *
+ * It registers regular users through the UserController, logs each of them
+ * in through the SessionManager, adds the initial hot searches, and then
+ * lets worker threads issue a mix of operations. Vote and purchase targets
+ * follow a Zipf distribution over the initial hot searches. At the end it
+ * reports the throughput and the latency percentiles of every operation.
+ *
+ * Every worker draws its operations from its own random generator seeded
+ * from the given seed, so a run with the same seed issues the same stream
+ * of requests, although the threads interleave differently. Users get 10
+ * votes in production, which a long run would use up within the warmup,
+ * leaving almost nothing but rejected votes to measure. So every user is
+ * topped up to a quota sized to the votes of the whole run, with headroom
+ * for the users that are drawn more often than others. Votes are then
+ * only rejected when a purchase has replaced their hot search on the
+ * board, and the "ok" column tells how many operations succeeded. Run with
+ *
+ *   mvn -B package
+ *   java -cp benchmarks/target/benchmarks.jar com.twu.loadgen.LoadGenerator --seed 42
+ *
+ * Options, with their defaults:
+ *
+ *   --users 10000             the number of regular users
+ *   --votes 0                 the votes every user starts with, or 0 to size
+ *                             the quota to the run
+ *   --hot-searches 10000      the number of initial hot searches
+ *   --threads 4               the number of worker threads
+ *   --operations 1000000      the number of measured operations of all workers
+ *   --warmup 100000           the number of operations before measuring
+ *   --mix vote=80,buy=2,add=3,view=14,list=1
+ *                             the relative weights of the operations
+ *   --zipf 0.99               the exponent of the Zipf distribution
+ *   --seed 42                 the seed of all random choices
+ *   --shards 0                the number of shards to partition the hot
+ *                             searches across, or 0 to keep them on one board.
+ *                             Purchases aren't supported across shards, so
+ *                             the mix must not include buy
+ */
+public class LoadGenerator {
+
+
+    /**
+     * The operations issued against the controllers
+     */
+    enum Operation {
+
+        /**
+         * Vote a hot search as a random user
+         */
+        VOTE,
+
+        /**
+         * Buy a random position for a hot search
+         */
+        BUY,
+
+        /**
+         * Add a new hot search
+         */
+        ADD,
+
+        /**
+         * View the first page of the ranking list
+         */
+        VIEW,
+
+        /**
+         * List the whole ranking list
+         */
+        LIST
+    }
+
+
+    /**
+     * The size of the page of the ranking list shown to users
+     */
+    private static final int PAGE_SIZE = 10;
+
+
+    private final HotSearchController hotSearchController = HotSearchController.getInstance();
+
+    private final UserController userController = UserController.getInstance();
+
+
+    private final int users;
+
+    private final int votes;
+
+    private final int hotSearches;
+
+    private final int threads;
+
+    private final long operations;
+
+    private final long warmup;
+
+    private final Map<Operation, Integer> mix;
+
+    private final double zipfExponent;
+
+    private final long seed;
+
+    private final int shards;
+
+
+    private final String[] usernames;
+
+    private final String[] names;
+
+
+    LoadGenerator(Map<String, String> options) {
+
+        users = Integer.parseInt(options.getOrDefault("users", "10000"));
+        votes = Integer.parseInt(options.getOrDefault("votes", "0"));
+        hotSearches = Integer.parseInt(options.getOrDefault("hot-searches", "10000"));
+        threads = Integer.parseInt(options.getOrDefault("threads", "4"));
+        operations = Long.parseLong(options.getOrDefault("operations", "1000000"));
+        warmup = Long.parseLong(options.getOrDefault("warmup", "100000"));
+        mix = parseMix(options.getOrDefault("mix", "vote=80,buy=2,add=3,view=14,list=1"));
+        zipfExponent = Double.parseDouble(options.getOrDefault("zipf", "0.99"));
+        seed = Long.parseLong(options.getOrDefault("seed", "42"));
+        shards = Integer.parseInt(options.getOrDefault("shards", "0"));
+
+        if (users < 1 || votes < 0 || hotSearches < 1 || threads < 1 || operations < 0 || warmup < 0 || shards < 0)
+            throw new IllegalArgumentException("invalid options");
+
+        if (shards > 0 && mix.getOrDefault(Operation.BUY, 0) > 0)
+            throw new IllegalArgumentException("buy is not supported in partitioned mode, remove it from --mix");
+
+        usernames = new String[users];
+        names = new String[hotSearches];
+    }
+
+
+    public static void main(String[] args) throws InterruptedException {
+
+        Map<String, String> options = new LinkedHashMap<>();
+
+        for (int i = 0; i + 1 < args.length; i += 2) {
+
+            if (!args[i].startsWith("--"))
+                throw new IllegalArgumentException("unexpected argument: " + args[i]);
+
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+
+        LoadGenerator generator = new LoadGenerator(options);
+
+        generator.setUp();
+        generator.run();
+    }
+
+
+    /**
+     * Register, top up and log in the users, partition the hot searches if
+     * asked, and add the initial hot searches
+     */
+    void setUp() {
+
+        long start = System.nanoTime();
+
+        if (shards > 0)
+            HotSearchService.getInstance().enablePartitioning(shards);
+
+        int quota = votes > 0 ? votes : quota();
+
+        for (int i = 0; i < users; i++) {
+
+            usernames[i] = "load user " + i;
+
+            RegularUser user = (RegularUser) userController.addRegularUser(usernames[i]);
+
+            // useVotes doesn't validate its argument, so using a negative
+            // number of votes tops the user up
+            user.useVotes(user.getVotes() - quota);
+
+            SessionManager.getInstance().createSession(user);
+        }
+
+        for (int i = 0; i < hotSearches; i++) {
+            names[i] = "load hot search " + i;
+            hotSearchController.addHotSearch(names[i]);
+        }
+
+        System.out.printf("Set up %d users with %d votes each and %d hot searches in %d ms%n",
+                users, quota, hotSearches, (System.nanoTime() - start) / 1_000_000);
+    }
+
+
+    /**
+     * Run the workers and report the results
+     */
+    void run() throws InterruptedException {
+
+        List<Worker> workers = new ArrayList<>(threads);
+        List<Thread> workerThreads = new ArrayList<>(threads);
+
+        for (int i = 0; i < threads; i++) {
+
+            long count = operations / threads + (i < operations % threads ? 1 : 0);
+            long warmupCount = warmup / threads + (i < warmup % threads ? 1 : 0);
+
+            Worker worker = new Worker(i, count, warmupCount);
+
+            workers.add(worker);
+            workerThreads.add(new Thread(worker, "load-worker-" + i));
+        }
+
+        for (Thread thread : workerThreads)
+            thread.start();
+
+        for (Thread thread : workerThreads)
+            thread.join();
+
+        report(workers);
+    }
+
+
+    /**
+     * Print the throughput and latency percentiles of every operation,
+     * merged over all workers
+     */
+    private void report(List<Worker> workers) {
+
+        long elapsedNanos = 0;
+
+        Map<Operation, Histogram> latencies = new EnumMap<>(Operation.class);
+        Map<Operation, Long> succeeded = new EnumMap<>(Operation.class);
+
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, new Histogram());
+            succeeded.put(operation, 0L);
+        }
+
+        for (Worker worker : workers) {
+
+            elapsedNanos = Math.max(elapsedNanos, worker.elapsedNanos);
+
+            for (Operation operation : Operation.values()) {
+                latencies.get(operation).add(worker.latencies.get(operation));
+                succeeded.merge(operation, worker.succeeded.get(operation), Long::sum);
+            }
+        }
+
+        double seconds = elapsedNanos / 1e9;
+        long total = 0;
+
+        System.out.printf("%n%-6s %10s %10s %12s %10s %10s %10s %10s %10s%n",
+                "op", "count", "ok", "ops/s", "p50 us", "p90 us", "p99 us", "p999 us", "max us");
+
+        for (Operation operation : Operation.values()) {
+
+            Histogram histogram = latencies.get(operation);
+
+            if (histogram.getTotal() == 0)
+                continue;
+
+            total += histogram.getTotal();
+
+            System.out.printf("%-6s %10d %10d %12.0f %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+                    operation.name().toLowerCase(),
+                    histogram.getTotal(),
+                    succeeded.get(operation),
+                    histogram.getTotal() / seconds,
+                    histogram.getValueAtPercentile(50) / 1e3,
+                    histogram.getValueAtPercentile(90) / 1e3,
+                    histogram.getValueAtPercentile(99) / 1e3,
+                    histogram.getValueAtPercentile(99.9) / 1e3,
+                    histogram.getMax() / 1e3);
+        }
+
+        System.out.printf("%nTotal: %d operations in %.2f s, %.0f ops/s, %d threads, seed %d%n",
+                total, seconds, total / seconds, threads, seed);
+    }
+
+
+    /**
+     * Size the votes of every user to the votes of the whole run. Every
+     * vote is cast by a user drawn uniformly, so the votes of a user follow
+     * a binomial distribution, and six standard deviations above the mean
+     * leave practically no user short
+     */
+    private int quota() {
+
+        double share = (double) mix.getOrDefault(Operation.VOTE, 0)
+                / mix.values().stream().mapToInt(Integer::intValue).sum();
+
+        double mean = (operations + warmup) * share / users;
+
+        return (int) Math.min(Integer.MAX_VALUE / 2, Math.ceil(mean + 6 * Math.sqrt(mean)) + 10);
+    }
+
+
+    /**
+     * Parse the weights of the operations, such as "vote=80,buy=2"
+     */
+    private static Map<Operation, Integer> parseMix(String mix) {
+
+        Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+
+        for (String part : mix.split(",")) {
+
+            String[] pair = part.split("=");
+
+            if (pair.length != 2)
+                throw new IllegalArgumentException("invalid mix: " + mix);
+
+            int weight = Integer.parseInt(pair[1].trim());
+
+            if (weight < 0)
+                throw new IllegalArgumentException("invalid mix: " + mix);
+
+            weights.put(Operation.valueOf(pair[0].trim().toUpperCase()), weight);
+        }
+
+        if (weights.values().stream().mapToInt(Integer::intValue).sum() == 0)
+            throw new IllegalArgumentException("invalid mix: " + mix);
+
+        return weights;
+    }
+
+
+    /**
+     * Issues operations on a thread and records their latencies
+     */
+    private class Worker implements Runnable {
+
+
+        private final int id;
+
+        private final long count;
+
+        private final long warmupCount;
+
+        private final SplittableRandom random;
+
+        private final ZipfDistribution targets = new ZipfDistribution(hotSearches, zipfExponent);
+
+        /**
+         * The operations in proportion to their weights, so that one can
+         * be drawn with a single random int
+         */
+        private final Operation[] choices;
+
+
+        private final Map<Operation, Histogram> latencies = new EnumMap<>(Operation.class);
+
+        private final Map<Operation, Long> succeeded = new EnumMap<>(Operation.class);
+
+        private long elapsedNanos;
+
+        private int added;
+
+
+        Worker(int id, long count, long warmupCount) {
+
+            this.id = id;
+            this.count = count;
+            this.warmupCount = warmupCount;
+
+            random = new SplittableRandom(seed * 31 + id);
+
+            List<Operation> list = new ArrayList<>();
+
+            for (Map.Entry<Operation, Integer> entry : mix.entrySet()) {
+                for (int i = 0; i < entry.getValue(); i++)
+                    list.add(entry.getKey());
+            }
+
+            choices = list.toArray(new Operation[0]);
+
+            for (Operation operation : Operation.values()) {
+                latencies.put(operation, new Histogram());
+                succeeded.put(operation, 0L);
+            }
+        }
+
+
+        @Override
+        public void run() {
+
+            for (long i = 0; i < warmupCount; i++)
+                issue(choices[random.nextInt(choices.length)], false);
+
+            long start = System.nanoTime();
+
+            for (long i = 0; i < count; i++)
+                issue(choices[random.nextInt(choices.length)], true);
+
+            elapsedNanos = System.nanoTime() - start;
+        }
+
+
+        /**
+         * Draw the arguments of an operation, and time only the call to the
+         * controller
+         */
+        private void issue(Operation operation, boolean measured) {
+
+            boolean ok;
+            long start;
+
+            switch (operation) {
+
+                case VOTE: {
+                    String name = names[targets.sample(random) - 1];
+                    String username = usernames[random.nextInt(users)];
+                    start = System.nanoTime();
+                    ok = hotSearchController.voteHotSearch(name, username, 1);
+                    break;
+                }
+
+                case BUY: {
+                    String name = names[targets.sample(random) - 1];
+                    int rank = 1 + random.nextInt(hotSearches);
+                    int amount = 1 + random.nextInt(100);
+                    start = System.nanoTime();
+                    ok = hotSearchController.buyHotSearch(name, rank, amount) == 1;
+                    break;
+                }
+
+                case ADD: {
+                    String name = "load added " + id + "-" + added++;
+                    start = System.nanoTime();
+                    ok = hotSearchController.addHotSearch(name);
+                    break;
+                }
+
+                case VIEW:
+                    start = System.nanoTime();
+                    ok = !hotSearchController.findTop(PAGE_SIZE).isEmpty();
+                    break;
+
+                case LIST:
+                    start = System.nanoTime();
+                    ok = !hotSearchController.findAll().isEmpty();
+                    break;
+
+                default:
+                    throw new IllegalStateException("unknown operation: " + operation);
+            }
+
+            long latency = System.nanoTime() - start;
+
+            if (measured) {
+                latencies.get(operation).record(latency);
+                if (ok)
+                    succeeded.merge(operation, 1L, Long::sum);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,112 @@
+package com.twu.loadgen;
+
+import java.util.SplittableRandom;
+
+
+/**
+ * Samples ranks from 1 to n following a Zipf distribution, where the
+ * probability of rank k is proportional to 1 / k^exponent, so that a few
+ * hot searches receive most of the traffic.
+ *
+ * Uses rejection-inversion sampling (W. Hörmann and G. Derflinger, 1996),
+ * which takes constant time and memory per sample whatever n is
+ */
+class ZipfDistribution {
+
+
+    private final int n;
+
+    private final double exponent;
+
+    private final double hIntegralX1;
+
+    private final double hIntegralN;
+
+    private final double s;
+
+
+    /**
+     * @param n the number of ranks
+     * @param exponent the exponent of the distribution, which must be positive
+     */
+    ZipfDistribution(int n, double exponent) {
+
+        if (n < 1 || exponent <= 0)
+            throw new IllegalArgumentException("invalid number of ranks or exponent");
+
+        this.n = n;
+        this.exponent = exponent;
+
+        hIntegralX1 = hIntegral(1.5) - 1;
+        hIntegralN = hIntegral(n + 0.5);
+        s = 2 - hIntegralInverse(hIntegral(2.5) - h(2));
+    }
+
+
+    /**
+     * Draw a rank
+     *
+     * @param random the source of randomness
+     * @return a rank from 1 to n
+     */
+    int sample(SplittableRandom random) {
+
+        while (true) {
+
+            double u = hIntegralN + random.nextDouble() * (hIntegralX1 - hIntegralN);
+            double x = hIntegralInverse(u);
+
+            int k = (int) (x + 0.5);
+
+            if (k < 1)
+                k = 1;
+            else if (k > n)
+                k = n;
+
+            if (k - x <= s || u >= hIntegral(k + 0.5) - h(k))
+                return k;
+        }
+    }
+
+
+    /**
+     * The integral of h from 1 to x, shifted by a constant
+     */
+    private double hIntegral(double x) {
+        double logX = Math.log(x);
+        return expm1OverX((1 - exponent) * logX) * logX;
+    }
+
+
+    private double h(double x) {
+        return Math.exp(-exponent * Math.log(x));
+    }
+
+
+    private double hIntegralInverse(double x) {
+
+        double t = x * (1 - exponent);
+
+        if (t < -1)
+            t = -1;
+
+        return Math.exp(log1pOverX(t) * x);
+    }
+
+
+    /**
+     * log(1 + x) / x, accurate near 0
+     */
+    private static double log1pOverX(double x) {
+        return Math.abs(x) > 1e-8 ? Math.log1p(x) / x : 1 - x * (0.5 - x * (1.0 / 3 - 0.25 * x));
+    }
+
+
+    /**
+     * (e^x - 1) / x, accurate near 0
+     */
+    private static double expm1OverX(double x) {
+        return Math.abs(x) > 1e-8 ? Math.expm1(x) / x : 1 + x * 0.5 * (1 + x * (1.0 / 3) * (1 + 0.25 * x));
+    }
+
+}
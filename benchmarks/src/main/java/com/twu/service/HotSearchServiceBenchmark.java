@@ -0,0 +1,197 @@
+package com.twu.service;
+
+import com.twu.entity.ArrayCounterStore;
+import com.twu.entity.CounterStore;
+import com.twu.entity.HotSearch;
+import com.twu.entity.OffHeapCounterStore;
+import com.twu.entity.StripedCounterStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Measures how the operations of the HotSearchService scale with the number
+ * of hot searches on the board, for each counter store, on a single thread
+ * and on 4 threads.
+ *
+ * Every benchmark method runs in a fresh JVM, so the singleton service is
+ * filled once per method and parameter combination. Build and run with
+ *
+ *   mvn -B package
+ *   java -jar benchmarks/target/benchmarks.jar HotSearchServiceBenchmark -p size=1000,1000000
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HotSearchServiceBenchmark {
+
+
+    @Param({ "1000", "10000", "100000", "1000000" })
+    int size;
+
+
+    /**
+     * The counter store that keeps the votes and amounts
+     */
+    @Param({ "striped", "array", "offheap" })
+    String store;
+
+
+    /**
+     * One in how many hot searches the buy benchmarks buy. A purchase pins
+     * its hot search, so buying from the whole board would pin nearly all of
+     * it within an iteration and measure a board that no longer exists in
+     * production
+     */
+    private static final int BOUGHT_RATIO = 100;
+
+
+    HotSearchService service;
+
+    String[] names;
+
+    /**
+     * The hot searches that the buy benchmarks buy, spread evenly over the board
+     */
+    String[] bought;
+
+
+    /**
+     * Add the hot searches with votes spread over a range, so that votes
+     * actually reorder the ranking
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+
+        service = HotSearchService.getInstance();
+        service.useCounterStore(newCounterStore(store));
+
+        SplittableRandom random = new SplittableRandom(42);
+
+        names = new String[size];
+
+        for (int i = 0; i < size; i++) {
+            names[i] = "hot search " + i;
+            service.addHotSearch(names[i]);
+            service.voteHotSearch(names[i], random.nextInt(1000));
+        }
+
+        bought = new String[(size + BOUGHT_RATIO - 1) / BOUGHT_RATIO];
+
+        for (int i = 0; i < bought.length; i++)
+            bought[i] = names[i * BOUGHT_RATIO];
+    }
+
+
+    /**
+     * The random choices of a benchmark thread
+     */
+    @State(Scope.Thread)
+    public static class Chooser {
+
+        final SplittableRandom random = new SplittableRandom();
+
+    }
+
+
+    @Benchmark
+    public boolean voteHotSearch(Chooser chooser) {
+        return vote(chooser);
+    }
+
+
+    @Benchmark
+    @Threads(4)
+    public boolean voteHotSearchContended(Chooser chooser) {
+        return vote(chooser);
+    }
+
+
+    /**
+     * Buy the position that a hot search already holds, so that the board
+     * keeps its size instead of shrinking by an eviction on every purchase.
+     * Only one in BOUGHT_RATIO hot searches is bought, so at most that share
+     * of the board is ever pinned
+     */
+    @Benchmark
+    public int buyHotSearch(Chooser chooser) {
+        return buy(chooser);
+    }
+
+
+    @Benchmark
+    @Threads(4)
+    public int buyHotSearchContended(Chooser chooser) {
+        return buy(chooser);
+    }
+
+
+    @Benchmark
+    public HotSearch findOneByName(Chooser chooser) {
+        return service.findOneByName(names[chooser.random.nextInt(size)]);
+    }
+
+
+    @Benchmark
+    @Threads(4)
+    public HotSearch findOneByNameContended(Chooser chooser) {
+        return service.findOneByName(names[chooser.random.nextInt(size)]);
+    }
+
+
+    @Benchmark
+    public List<HotSearch> findAll() {
+        return service.findAll();
+    }
+
+
+    @Benchmark
+    @Threads(4)
+    public List<HotSearch> findAllContended() {
+        return service.findAll();
+    }
+
+
+    private boolean vote(Chooser chooser) {
+        return service.voteHotSearch(names[chooser.random.nextInt(size)], 1);
+    }
+
+
+    private int buy(Chooser chooser) {
+        String name = bought[chooser.random.nextInt(bought.length)];
+        return service.buyHotSearch(name, service.getIndexByName(name) + 1, 1);
+    }
+
+
+    private static CounterStore newCounterStore(String store) {
+        switch (store) {
+            case "striped":
+                return new StripedCounterStore();
+            case "array":
+                return new ArrayCounterStore();
+            case "offheap":
+                return new OffHeapCounterStore();
+            default:
+                throw new IllegalArgumentException("unknown counter store: " + store);
+        }
+    }
+
+}
@@ -0,0 +1,94 @@
+package com.twu.service;
+
+import com.twu.entity.RegularUser;
+import com.twu.entity.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Field;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Measures how checking for an active session scales with the number of
+ * active sessions, on a single thread and on 4 threads.
+ *
+ * The sessions are put into the session list directly, since creating a
+ * session scans all active sessions and would make filling a large list
+ * quadratic
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SessionManagerBenchmark {
+
+
+    @Param({ "1000", "10000", "100000", "1000000" })
+    int size;
+
+
+    SessionManager sessionManager;
+
+    User[] users;
+
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setUp() throws ReflectiveOperationException {
+
+        sessionManager = SessionManager.getInstance();
+
+        Field field = SessionManager.class.getDeclaredField("activeSessions");
+        field.setAccessible(true);
+
+        List<Session> activeSessions = (List<Session>) field.get(sessionManager);
+
+        users = new User[size];
+
+        for (int i = 0; i < size; i++) {
+            users[i] = new RegularUser("user" + i);
+            activeSessions.add(new Session(users[i]));
+        }
+    }
+
+
+    /**
+     * The random choices of a benchmark thread
+     */
+    @State(Scope.Thread)
+    public static class Chooser {
+
+        final SplittableRandom random = new SplittableRandom();
+
+    }
+
+
+    @Benchmark
+    public boolean exists(Chooser chooser) {
+        return sessionManager.exists(users[chooser.random.nextInt(size)]);
+    }
+
+
+    @Benchmark
+    @Threads(4)
+    public boolean existsContended(Chooser chooser) {
+        return sessionManager.exists(users[chooser.random.nextInt(size)]);
+    }
+
+}
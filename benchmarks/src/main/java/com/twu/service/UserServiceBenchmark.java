@@ -0,0 +1,91 @@
+package com.twu.service;
+
+import com.twu.entity.RegularUser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Measures how looking up regular users scales with the number of
+ * registered users, on a single thread and on 4 threads.
+ *
+ * The users are restored from a snapshot instead of being registered one
+ * by one, since registration scans all users and would make filling a
+ * large board quadratic
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UserServiceBenchmark {
+
+
+    @Param({ "1000", "10000", "100000", "1000000" })
+    int size;
+
+
+    UserService service;
+
+    String[] usernames;
+
+
+    @Setup(Level.Trial)
+    public void setUp() {
+
+        service = UserService.getInstance();
+
+        usernames = new String[size];
+
+        for (int i = 0; i < size; i++)
+            usernames[i] = "user" + i;
+
+        Snapshot snapshot = new Snapshot();
+        snapshot.usernames = usernames;
+        snapshot.balances = new int[size];
+        Arrays.fill(snapshot.balances, 10);
+
+        service.restore(snapshot);
+    }
+
+
+    /**
+     * The random choices of a benchmark thread
+     */
+    @State(Scope.Thread)
+    public static class Chooser {
+
+        final SplittableRandom random = new SplittableRandom();
+
+    }
+
+
+    @Benchmark
+    public RegularUser findOneRegularUserByUsername(Chooser chooser) {
+        return service.findOneRegularUserByUsername(usernames[chooser.random.nextInt(size)]);
+    }
+
+
+    @Benchmark
+    @Threads(4)
+    public RegularUser findOneRegularUserByUsernameContended(Chooser chooser) {
+        return service.findOneRegularUserByUsername(usernames[chooser.random.nextInt(size)]);
+    }
+
+}
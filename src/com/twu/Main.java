@@ -1,12 +1,175 @@
 package com.twu;
 
 import com.twu.client.App;
+import com.twu.entity.Leaderboard;
+import com.twu.server.NioServer;
+import com.twu.server.SessionServer;
+import com.twu.service.Checkpointer;
+import com.twu.service.HotSearchService;
+import com.twu.service.Replica;
+import com.twu.service.ReplicationServer;
+import com.twu.service.WriteAheadLog;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 public class Main {
 
-    public static void main(String[] args) {
-        App app = new App();
-        app.start();
+    /**
+     * The system property of the directory that the data is persisted in.
+     * If it isn't set, the data only lives in memory
+     */
+    private static final String DATA_DIR = "hotsearch.dataDir";
+
+    /**
+     * The system property of the loopback port that replicas connect to.
+     * It only takes effect if the data is persisted
+     */
+    private static final String REPLICATION_PORT = "hotsearch.replicationPort";
+
+    /**
+     * The system property of the loopback port of a primary to follow. If
+     * it is set, this process is a replica that serves reads on a read-only
+     * network server, on the server port or else any free port, and reports
+     * its lag and the top of the ranking list on stderr periodically
+     */
+    private static final String REPLICA_OF = "hotsearch.replicaOf";
+
+    /**
+     * The system property of the port of the network server. If it is set,
+     * this process serves clients over the network instead of running the
+     * console app
+     */
+    private static final String SERVER_PORT = "hotsearch.serverPort";
+
+    /**
+     * The system property of the number of workers of the network server
+     */
+    private static final String SERVER_WORKERS = "hotsearch.serverWorkers";
+
+    /**
+     * The system property of the port of the console server. If it is set,
+     * this process runs the console app for every client that connects
+     * instead of on its own console
+     */
+    private static final String CONSOLE_PORT = "hotsearch.consolePort";
+
+    private static final long CHECKPOINT_PERIOD_MILLIS = 60_000;
+
+    private static final long REPLICA_REPORT_MILLIS = 5_000;
+
+    private static final int REPLICA_REPORT_SIZE = 10;
+
+    public static void main(String[] args) throws IOException {
+
+        String dataDir = System.getProperty(DATA_DIR);
+        String replicaOf = System.getProperty(REPLICA_OF);
+
+        if (replicaOf != null) {
+            follow(Integer.parseInt(replicaOf), Paths.get(dataDir != null ? dataDir : System.getProperty("java.io.tmpdir")));
+            return;
+        }
+
+        if (dataDir == null) {
+            serve();
+            return;
+        }
+
+        Path directory = Paths.get(dataDir);
+        String replicationPort = System.getProperty(REPLICATION_PORT);
+
+        try (WriteAheadLog log = new WriteAheadLog(directory.resolve("wal"), WriteAheadLog.FsyncPolicy.GROUP_COMMIT);
+             Checkpointer checkpointer = new Checkpointer(directory.resolve("snapshots"), log);
+             ReplicationServer replication = replicationPort == null ? null
+                     : new ReplicationServer(log, checkpointer, Integer.parseInt(replicationPort))) {
+
+            checkpointer.recover();
+            checkpointer.start(CHECKPOINT_PERIOD_MILLIS);
+
+            if (replication != null)
+                System.out.println("Replicating on port " + replication.getPort());
+
+            serve();
+        }
+    }
+
+    /**
+     * Run the network server or the console server if its port is set, or
+     * the console app otherwise
+     */
+    private static void serve() throws IOException {
+
+        String serverPort = System.getProperty(SERVER_PORT);
+        String consolePort = System.getProperty(CONSOLE_PORT);
+
+        if (serverPort != null) {
+
+            try (NioServer server = new NioServer(Integer.parseInt(serverPort), workerCount())) {
+                System.out.println("Serving on port " + server.getPort());
+                server.run();
+            }
+
+        } else if (consolePort != null) {
+
+            try (SessionServer server = new SessionServer(Integer.parseInt(consolePort))) {
+                System.out.println("Serving consoles on port " + server.getPort());
+                server.run();
+            }
+
+        } else {
+            new App().start();
+        }
+    }
+
+    /**
+     * Follow a primary and serve reads of its data on a read-only network
+     * server until the process is stopped, reporting the lag and the top of
+     * the ranking list on stderr
+     */
+    private static void follow(int port, Path directory) throws IOException {
+
+        try (Replica replica = new Replica(port, directory.resolve("replica"));
+             NioServer server = new NioServer(Integer.getInteger(SERVER_PORT, 0), workerCount(), true)) {
+
+            Thread reporter = new Thread(() -> report(replica), "replica-report");
+            reporter.setDaemon(true);
+            reporter.start();
+
+            System.out.println("Serving read-only on port " + server.getPort());
+            server.run();
+        }
+    }
+
+    /**
+     * Print the lag of a replica and the top of the ranking list on stderr
+     * periodically, until the thread is interrupted
+     */
+    private static void report(Replica replica) {
+
+        try {
+            while (true) {
+
+                Thread.sleep(REPLICA_REPORT_MILLIS);
+
+                System.err.println((replica.isConnected() ? "Connected" : "Disconnected")
+                        + ", applied " + replica.getAppliedSequence() + ", lag " + replica.getLag());
+
+                int rank = 1;
+
+                for (Leaderboard.Row row : HotSearchService.getInstance().findRange(0, REPLICA_REPORT_SIZE))
+                    System.err.println(rank++ + " " + row.getName() + " " + row.getHotness());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Get the number of workers of the network server
+     */
+    private static int workerCount() {
+        return Integer.getInteger(SERVER_WORKERS, Runtime.getRuntime().availableProcessors() * 4);
     }
 
 }
@@ -3,6 +3,10 @@ package com.twu.client;
 import com.twu.service.Session;
 import com.twu.service.SessionManager;
 
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
 
 /**
  * The "index" of the application responsible for keeping track of
@@ -13,6 +17,12 @@ import com.twu.service.SessionManager;
 public class App {
 
 
+    /**
+     * The terminal that the user of this app reads from and inputs into
+     */
+    private Terminal terminal;
+
+
     /**
      * A client's copy of the session established with the server
      */
@@ -38,23 +48,51 @@ public class App {
 
 
     /**
-     * Start the app
+     * Create an app that runs on the console of this process
+     */
+    public App() {
+        terminal = Terminal.system();
+    }
+
+
+    /**
+     * Create an app that runs on the streams of a client, such as the
+     * streams of a network connection, so that many apps can run at the
+     * same time with a session each
+     *
+     * @param in the stream that the user inputs into
+     * @param out the stream that the app prints to
+     * @param charset the charset of both streams
+     */
+    public App(InputStream in, OutputStream out, Charset charset) {
+        terminal = new Terminal(in, out, charset);
+    }
+
+
+    /**
+     * Start the app, which runs until the user disconnects, and then
+     * destroy the session of the user if he/she hasn't logged out
+     *
+     * @throws IllegalStateException if the user has disconnected
      */
     public void start() {
+        try {
+
+            int res = displayHomePage();
 
-        int res = displayHomePage();
+            while (res == 0) {
 
-        while (res == 0) {
+                logout();
 
-            if (session != null && session.getUser() != null)
-                SessionManager.getInstance().destroySession(session);
+                homePage = null;
+                userPage = null;
+                hotSearchPage = null;
 
-            session = null;
-            homePage = null;
-            userPage = null;
-            hotSearchPage = null;
+                res = displayHomePage();
+            }
 
-            res = displayHomePage();
+        } finally {
+            logout();
         }
     }
 
@@ -71,6 +109,14 @@ public class App {
     }
 
 
+    /**
+     * Provide an interface within the client to get the terminal of the user
+     */
+    Terminal getTerminal() {
+        return terminal;
+    }
+
+
     /**
      * Provide an interface within the client to get the session
      *
@@ -92,7 +138,7 @@ public class App {
     private int displayHomePage() {
 
         if (homePage == null)
-            homePage = new HomePage();
+            homePage = new HomePage(terminal);
 
         HomeOption homeOption = homePage.askUserType();
 
@@ -156,6 +202,10 @@ public class App {
                 hotSearchPage.listAllHotSearches();
                 return 1;
 
+            case SEARCH_HOT_SEARCHES:
+                hotSearchPage.searchHotSearches();
+                return 1;
+
             case ADD_HOT_SEARCH:
                 hotSearchPage.addHotSearch();
                 return 1;
@@ -180,4 +230,16 @@ public class App {
         }
     }
 
+
+    /**
+     * Destroy the session of the user, if he/she has logged in
+     */
+    private void logout() {
+
+        if (session != null && session.getUser() != null)
+            SessionManager.getInstance().destroySession(session);
+
+        session = null;
+    }
+
 }
@@ -18,10 +18,17 @@ class HomePage {
     private HomeOption[] homeOptions;
 
 
+    /**
+     * The terminal of the user
+     */
+    private Terminal terminal;
+
+
     /**
      * Initialize the HomePage by getting values from the HomeOption enum
      */
-    HomePage() {
+    HomePage(Terminal terminal) {
+        this.terminal = terminal;
         homeOptions = HomeOption.values();
     }
 
@@ -37,10 +44,10 @@ class HomePage {
         String title = "欢迎来到热搜排行榜，请选择您的用户类型：";
         String optionName = "您的用户类型";
 
-        HomeOption option = Prompt.getCorrectOption(homeOptions, title, optionName);
+        HomeOption option = Prompt.getCorrectOption(terminal, homeOptions, title, optionName);
 
         while (option == HomeOption.EXIT)
-            option = Prompt.getCorrectOption(homeOptions, title, optionName);
+            option = Prompt.getCorrectOption(terminal, homeOptions, title, optionName);
 
         return option;
     }
@@ -2,10 +2,12 @@ package com.twu.client;
 
 import com.twu.controller.HotSearchController;
 import com.twu.entity.HotSearch;
+import com.twu.entity.Leaderboard;
 import com.twu.entity.RegularUser;
 import com.twu.entity.User;
 import com.twu.service.Session;
 
+import java.util.Arrays;
 import java.util.List;
 
 
@@ -21,6 +23,12 @@ class HotSearchPage {
     private App context;
 
 
+    /**
+     * The terminal of the user
+     */
+    private Terminal terminal;
+
+
     /**
      * The HotSearchController that handles user requests
      */
@@ -39,8 +47,22 @@ class HotSearchPage {
     private static final String VOTE_HOT_SEARCH = "VOTE_HOT_SEARCH";
 
 
+    /**
+     * The number of hot searches displayed on each page of the ranking list
+     */
+    private static final int PAGE_SIZE = 10;
+
+
+    /**
+     * The maximum number of names suggested when a hot search name entered
+     * by the user doesn't exist
+     */
+    private static final int SUGGESTIONS = 5;
+
+
     HotSearchPage(App context) {
         this.context = context;
+        this.terminal = context.getTerminal();
         hotSearchController = HotSearchController.getInstance();
     }
 
@@ -50,6 +72,14 @@ class HotSearchPage {
      */
     void buyHotSearch() {
 
+        if (!hotSearchController.canBuyHotSearches()) {
+
+            terminal.println("分区模式下不支持购买热搜");
+            terminal.println();
+
+            return;
+        }
+
         if (!requireNonEmptyHotSearch())
             return;
 
@@ -68,8 +98,8 @@ class HotSearchPage {
 
         session.deleteRequest(BUY_HOT_SEARCH);
 
-        System.out.println("热搜购买成功");
-        System.out.println();
+        terminal.println("热搜购买成功");
+        terminal.println();
     }
 
 
@@ -92,8 +122,8 @@ class HotSearchPage {
 
         int remaining = regularUser.getVotes();
         if (remaining < 1) {
-            System.out.println("当前余票为%d，无法投票");
-            System.out.println();
+            terminal.println("当前余票为%d，无法投票");
+            terminal.println();
         }
 
         if (session.getRequestParams(VOTE_HOT_SEARCH) == null)
@@ -112,29 +142,95 @@ class HotSearchPage {
 
         session.deleteRequest(VOTE_HOT_SEARCH);
 
-        System.out.println("热搜投票成功");
-        System.out.println();
+        terminal.println("热搜投票成功");
+        terminal.println();
     }
 
 
     /**
-     * List all hot searches
+     * List all hot searches page by page, and let the user move between
+     * the pages until he/she chooses to return
      */
     void listAllHotSearches() {
 
-        List<HotSearch> hotSearches = hotSearchController.findAll();
+        int offset = 0;
+
+        while (true) {
+
+            List<Leaderboard.Row> rows = hotSearchController.findRange(offset, PAGE_SIZE);
+
+            if (rows.size() == 0 && offset == 0) {
+                terminal.println("热搜列表为空");
+                terminal.println();
+                return;
+            }
+
+            StringBuilder sb = new StringBuilder();
+
+            for (int i = 0; i < rows.size(); i++)
+                sb.append(offset + i + 1).append(". ").append(rows.get(i)).append(System.lineSeparator());
 
-        if (hotSearches == null || hotSearches.size() == 0) {
+            terminal.println(sb);
 
-            System.out.println("热搜列表为空");
+            int count = hotSearchController.getCount();
 
-        } else {
+            boolean hasPrevious = offset > 0;
+            boolean hasNext = offset + PAGE_SIZE < count;
 
-            for (int i = 0; i < hotSearches.size(); i++)
-                System.out.println(String.format("%d. %s", i + 1, hotSearches.get(i).toString()));
+            if (!hasPrevious && !hasNext)
+                return;
+
+            PageOption[] options = Arrays.stream(PageOption.values())
+                    .filter(o -> (o != PageOption.PREVIOUS_PAGE || hasPrevious) && (o != PageOption.NEXT_PAGE || hasNext))
+                    .toArray(PageOption[]::new);
+
+            String title = String.format("第%d/%d页，您可以：", offset / PAGE_SIZE + 1, (count + PAGE_SIZE - 1) / PAGE_SIZE);
+
+            switch (Prompt.getCorrectOption(terminal, options, title, "翻页选项")) {
+
+                case PREVIOUS_PAGE:
+                    offset = Math.max(0, offset - PAGE_SIZE);
+                    break;
+
+                case NEXT_PAGE:
+                    offset += PAGE_SIZE;
+                    break;
+
+                default:
+                    return;
+            }
         }
+    }
+
+
+    /**
+     * Prompt the user for a term, and list the top ranked hot searches whose
+     * names contain it
+     */
+    void searchHotSearches() {
 
-        System.out.println();
+        terminal.println("请输入您要搜索的内容：");
+        terminal.println();
+
+        String term = null;
+
+        while (term == null)
+            term = Prompt.getNonEmptyString(terminal, "搜索内容不能为空，请重新输入：");
+
+        List<Leaderboard.Row> rows = hotSearchController.findContaining(term, PAGE_SIZE);
+
+        if (rows.isEmpty()) {
+            terminal.println("没有找到相关热搜");
+            terminal.println();
+            return;
+        }
+
+        StringBuilder sb = new StringBuilder();
+
+        for (int i = 0; i < rows.size(); i++)
+            sb.append(i + 1).append(". ").append(rows.get(i)).append(System.lineSeparator());
+
+        terminal.println(sb);
     }
 
 
@@ -143,8 +239,8 @@ class HotSearchPage {
      */
     void addSuperHotSearch() {
 
-        System.out.println("请输入您要添加的超级热搜名：");
-        System.out.println();
+        terminal.println("请输入您要添加的超级热搜名：");
+        terminal.println();
 
         String name = null;
 
@@ -153,8 +249,8 @@ class HotSearchPage {
 
         hotSearchController.addSuperHotSearch(name);
 
-        System.out.println("超级热搜添加成功");
-        System.out.println();
+        terminal.println("超级热搜添加成功");
+        terminal.println();
     }
 
 
@@ -163,8 +259,8 @@ class HotSearchPage {
      */
     void addHotSearch() {
 
-        System.out.println("请输入您要添加的热搜名：");
-        System.out.println();
+        terminal.println("请输入您要添加的热搜名：");
+        terminal.println();
 
         String name = null;
 
@@ -173,8 +269,8 @@ class HotSearchPage {
 
         hotSearchController.addHotSearch(name);
 
-        System.out.println("热搜添加成功");
-        System.out.println();
+        terminal.println("热搜添加成功");
+        terminal.println();
     }
 
 
@@ -188,23 +284,23 @@ class HotSearchPage {
         Session session = context.getSession();
         HotSearch hs = (HotSearch) session.getRequestParams(BUY_HOT_SEARCH)[0];
 
-        System.out.println("请输入您要购买的排名：");
-        System.out.println();
+        terminal.println("请输入您要购买的排名：");
+        terminal.println();
 
         while (true) {
 
-            int rank = Prompt.getPositiveInteger("您要购买的排名");
+            int rank = Prompt.getPositiveInteger(terminal, "您要购买的排名");
 
             if (rank > hotSearchController.getCount()) {
-                System.out.println("您要购买的热搜排名超过热搜数量，请重新输入：");
-                System.out.println();
+                terminal.println("您要购买的热搜排名超过热搜数量，请重新输入：");
+                terminal.println();
                 continue;
             }
 
             int oldIndex = hotSearchController.getIndexByName(hs.getName());
             if (hs.getAmount() > 0 && rank > oldIndex + 1) {
-                System.out.println(String.format("您要购买的热搜排比当前排名靠后，当前排名%d，请重新输入：", oldIndex + 1));
-                System.out.println();
+                terminal.println(String.format("您要购买的热搜排比当前排名靠后，当前排名%d，请重新输入：", oldIndex + 1));
+                terminal.println();
                 continue;
             }
 
@@ -222,15 +318,15 @@ class HotSearchPage {
      */
     private void askAmountThenSubmitRequest() {
 
-        System.out.println("请输入您要购买的金额：");
-        System.out.println();
+        terminal.println("请输入您要购买的金额：");
+        terminal.println();
 
         Session session = context.getSession();
         Object[] params = session.getRequestParams(BUY_HOT_SEARCH);
 
         while (true) {
 
-            int amount = Prompt.getPositiveInteger("您要购买的金额");
+            int amount = Prompt.getPositiveInteger(terminal, "您要购买的金额");
             session.setParam(BUY_HOT_SEARCH, 2, amount);
 
             int res = hotSearchController.buyHotSearch(
@@ -242,11 +338,11 @@ class HotSearchPage {
                 return;
 
             if (res == 0)
-                System.out.println("您所购买的热搜排名已被占用，请提高出价：");
+                terminal.println("您所购买的热搜排名已被占用，请提高出价：");
             else if (res == -1)
-                System.out.println("内部服务器错误，请重新输入价格：");
+                terminal.println("内部服务器错误，请重新输入价格：");
 
-            System.out.println();
+            terminal.println();
         }
     }
 
@@ -263,16 +359,16 @@ class HotSearchPage {
 
         String msg = String.format("您要投票的数量（当前剩余%d票）", remaining);
 
-        System.out.println(String.format("请输入%s：", msg));
-        System.out.println();
+        terminal.println(String.format("请输入%s：", msg));
+        terminal.println();
 
         while (true) {
 
-            int votes = Prompt.getPositiveInteger(msg);
+            int votes = Prompt.getPositiveInteger(terminal, msg);
 
             if (votes > remaining) {
-                System.out.println(String.format("余票不足，请重新输入%s：", msg));
-                System.out.println();
+                terminal.println(String.format("余票不足，请重新输入%s：", msg));
+                terminal.println();
                 continue;
             }
 
@@ -283,19 +379,21 @@ class HotSearchPage {
 
     /**
      * Ask the user for a hot search by prompting the user to enter a hot search name.
-     * The process repeats until the user has entered a name that exists
+     * The process repeats until the user has entered a name that exists, and
+     * the top ranked names that start with what has been entered are suggested
+     * in between
      *
      * @param msg the message to prompt the user of what the hot search is for
      * @return the hot search matching the name entered by user input that exists
      */
     private HotSearch findHotSearch(String msg) {
 
-        System.out.println(msg);
-        System.out.println();
+        terminal.println(msg);
+        terminal.println();
 
         while (true) {
 
-            String name = Prompt.getNonEmptyString("热搜名不能为空，请重新输入：");
+            String name = Prompt.getNonEmptyString(terminal, "热搜名不能为空，请重新输入：");
 
             if (name == null)
                 continue;
@@ -303,8 +401,19 @@ class HotSearchPage {
             HotSearch hs = hotSearchController.findOneByName(name);
 
             if (hs == null) {
-                System.out.println("热搜名不存在，请重新输入：");
-                System.out.println();
+
+                List<Leaderboard.Row> suggestions = hotSearchController.findByPrefix(name, SUGGESTIONS);
+
+                if (suggestions.isEmpty()) {
+                    terminal.println("热搜名不存在，请重新输入：");
+                } else {
+                    terminal.println("热搜名不存在，您是不是要找：");
+                    for (Leaderboard.Row row : suggestions)
+                        terminal.println(row.getName());
+                    terminal.println("请重新输入：");
+                }
+
+                terminal.println();
                 continue;
             }
 
@@ -321,14 +430,14 @@ class HotSearchPage {
      */
     private String askHotSearchName() {
 
-        String name = Prompt.getNonEmptyString("热搜名不能为空，请重新输入：");
+        String name = Prompt.getNonEmptyString(terminal, "热搜名不能为空，请重新输入：");
 
         if (name == null)
             return null;
 
         if (hotSearchController.exists(name)) {
-            System.out.println("热搜名已存在，请重新输入：");
-            System.out.println();
+            terminal.println("热搜名已存在，请重新输入：");
+            terminal.println();
             return null;
         }
 
@@ -347,8 +456,8 @@ class HotSearchPage {
 
         if (hotSearchController.getCount() == 0) {
 
-            System.out.println("热搜列表为空，请先添加热搜");
-            System.out.println();
+            terminal.println("热搜列表为空，请先添加热搜");
+            terminal.println();
 
             return false;
         }
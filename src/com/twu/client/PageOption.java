@@ -0,0 +1,29 @@
+package com.twu.client;
+
+
+/**
+ * The options offered to the user when a list is displayed page by page
+ */
+public enum PageOption implements Option {
+
+
+    PREVIOUS_PAGE ("上一页"),
+
+    NEXT_PAGE     ("下一页"),
+
+    EXIT          ("返回");
+
+
+    private final String NAME;
+
+
+    PageOption(String name) {
+        NAME = name;
+    }
+
+
+    public String getName() {
+        return NAME;
+    }
+
+}
@@ -2,8 +2,8 @@ package com.twu.client;
 
 
 /**
- * A utility responsible for prompting the user for input, reading the user input from stdin,
- * and validating the user input
+ * A utility responsible for prompting the user for input, reading the user input from the
+ * user's terminal, and validating the user input
  */
 class Prompt {
 
@@ -12,6 +12,7 @@ class Prompt {
      * Prompt the user to enter a valid number from the listed options, and return the corresponding
      * Option of the number entered by the user
      *
+     * @param terminal the terminal of the user
      * @param options the options available to the user
      * @param title the initial message displayed above the list of options, used to prompt the user
      * @param optionName a general description of what the options are, displayed above the list of
@@ -19,12 +20,12 @@ class Prompt {
      * @param <T> the type of the Option
      * @return the selected option by the user
      */
-    static <T extends Option> T getCorrectOption(T[] options, String title, String optionName) {
+    static <T extends Option> T getCorrectOption(Terminal terminal, T[] options, String title, String optionName) {
 
-        System.out.println(title);
+        terminal.println(title);
 
         if (options == null || options.length == 0) {
-            System.out.println("当前选项列表为空");
+            terminal.println("当前选项列表为空");
             return null;
         }
 
@@ -33,21 +34,21 @@ class Prompt {
         while (true) {
 
             for (int i = 0; i < options.length; i++)
-                System.out.println(String.format("%d. %s", i + 1, options[i].getName()));
-            System.out.println();
+                terminal.println(String.format("%d. %s", i + 1, options[i].getName()));
+            terminal.println();
 
-            String str = StdinReader.getInstance().readLine();
-            System.out.println();
+            String str = terminal.readLine();
+            terminal.println();
 
             if (isNaN(str)) {
-                System.out.println(msg);
+                terminal.println(msg);
                 continue;
             }
 
             int number = Integer.parseInt(str);
 
             if (number < 1 || number > options.length) {
-                System.out.println(msg);
+                terminal.println(msg);
                 continue;
             }
 
@@ -57,19 +58,20 @@ class Prompt {
 
 
     /**
-     * Get a non-empty String from the next line in stdin
+     * Get a non-empty String from the next line that the user inputs
      *
+     * @param terminal the terminal of the user
      * @param emptyMessage the message to display if the next line is empty
-     * @return the next line in stdin, or null if it's empty
+     * @return the next line that the user inputs, or null if it's empty
      */
-    static String getNonEmptyString(String emptyMessage) {
+    static String getNonEmptyString(Terminal terminal, String emptyMessage) {
 
-        String str = StdinReader.getInstance().readLine();
-        System.out.println();
+        String str = terminal.readLine();
+        terminal.println();
 
         if (str.length() < 1) {
-            System.out.println(emptyMessage);
-            System.out.println();
+            terminal.println(emptyMessage);
+            terminal.println();
             return null;
         }
 
@@ -78,33 +80,34 @@ class Prompt {
 
 
     /**
-     * Get a positive integer from the next line in stdin. If the user input is
-     * invalid, the loop doesn't stop until the the user inputs a correct value
+     * Get a positive integer from the next line that the user inputs. If the user
+     * input is invalid, the loop doesn't stop until the the user inputs a correct value
      *
+     * @param terminal the terminal of the user
      * @param integerName a general description of what the integer is, displayed after
      *                    the user has entered an invalid input to prompt the user
      * @return a guaranteed positive integer
      */
-    static int getPositiveInteger(String integerName) {
+    static int getPositiveInteger(Terminal terminal, String integerName) {
 
         String msg = String.format("输入不合法，请重新输入%s：", integerName);
 
         while (true) {
 
-            String str = StdinReader.getInstance().readLine();
-            System.out.println();
+            String str = terminal.readLine();
+            terminal.println();
 
             if (isNaN(str)) {
-                System.out.println(msg);
-                System.out.println();
+                terminal.println(msg);
+                terminal.println();
                 continue;
             }
 
             int integer = Integer.parseInt(str);
 
             if (integer < 1) {
-                System.out.println(msg);
-                System.out.println();
+                terminal.println(msg);
+                terminal.println();
                 continue;
             }
 
@@ -0,0 +1,87 @@
+package com.twu.client;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+
+
+/**
+ * The input and output of a single client of the app, either the console
+ * of this process or a network connection, so that each session of the app
+ * reads and writes its own streams
+ */
+class Terminal {
+
+
+    /**
+     * The reader of the lines that the user inputs
+     */
+    private final BufferedReader in;
+
+
+    /**
+     * The stream that the app prints to
+     */
+    private final PrintStream out;
+
+
+    /**
+     * @param in the stream that the user inputs into
+     * @param out the stream that the app prints to
+     * @param charset the charset of both streams
+     */
+    Terminal(InputStream in, OutputStream out, Charset charset) {
+        this.in = new BufferedReader(new InputStreamReader(in, charset));
+        this.out = out instanceof PrintStream ? (PrintStream) out : new PrintStream(out, false, charset);
+    }
+
+
+    /**
+     * The terminal of stdin and stdout of this process
+     */
+    static Terminal system() {
+        return new Terminal(System.in, System.out, Charset.defaultCharset());
+    }
+
+
+    /**
+     * Reads the line that the user has just input, after everything printed
+     * before has been sent, or throw IllegalStateException if the user has
+     * disconnected
+     *
+     * @return the line that the user has just input
+     */
+    String readLine() {
+
+        out.flush();
+
+        String line;
+
+        try {
+            line = in.readLine();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        if (line == null)
+            throw new IllegalStateException("the service has been disconnected by the client");
+
+        return line;
+    }
+
+
+    void println(Object line) {
+        out.println(line);
+    }
+
+
+    void println() {
+        out.println();
+    }
+
+}
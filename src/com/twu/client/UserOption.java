@@ -10,6 +10,8 @@ public enum UserOption implements Option {
 
     SEE_HOT_SEARCHES     ("查看热搜排行榜"),
 
+    SEARCH_HOT_SEARCHES  ("搜索热搜"),
+
     ADD_HOT_SEARCH       ("添加热搜"),
 
     ADD_SUPER_HOT_SEARCH ("添加超级热搜"),
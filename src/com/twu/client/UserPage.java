@@ -36,6 +36,12 @@ class UserPage {
     private App context;
 
 
+    /**
+     * The terminal of the user
+     */
+    private Terminal terminal;
+
+
     /**
      * The options to be displayed on the user's dashboard
      */
@@ -60,6 +66,7 @@ class UserPage {
     UserPage(App context, HomeOption homeOption) {
 
         this.context = context;
+        this.terminal = context.getTerminal();
 
         userController = UserController.getInstance();
 
@@ -102,7 +109,7 @@ class UserPage {
         String title = user.getUsername() + "你好，你可以：";
         String optionName = "您想要使用的功能";
 
-        return Prompt.getCorrectOption(userOptions, title, optionName);
+        return Prompt.getCorrectOption(terminal, userOptions, title, optionName);
     }
 
 
@@ -117,19 +124,19 @@ class UserPage {
 
         AdminUser adminUser = getAdminUser();
 
-        System.out.println("请输入您的密码：");
-        System.out.println();
+        terminal.println("请输入您的密码：");
+        terminal.println();
 
         while (true) {
 
-            String password = Prompt.getNonEmptyString("输入不合法，请重新输入密码：");
+            String password = Prompt.getNonEmptyString(terminal, "输入不合法，请重新输入密码：");
 
             if (password == null)
                 continue;
 
             if (!adminUser.getPassword().equals(password)) {
-                System.out.println("密码错误，请重新输入：");
-                System.out.println();
+                terminal.println("密码错误，请重新输入：");
+                terminal.println();
                 continue;
             }
 
@@ -140,8 +147,8 @@ class UserPage {
 
     private AdminUser getAdminUser() {
 
-        System.out.println("请输入您的昵称：");
-        System.out.println();
+        terminal.println("请输入您的昵称：");
+        terminal.println();
 
         AdminUser adminUser = null;
 
@@ -154,7 +161,7 @@ class UserPage {
 
     private AdminUser askAdminUser() {
 
-        String username = Prompt.getNonEmptyString("输入不合法，请重新输入昵称：");
+        String username = Prompt.getNonEmptyString(terminal, "输入不合法，请重新输入昵称：");
 
         if (username == null)
             return null;
@@ -162,8 +169,8 @@ class UserPage {
         AdminUser adminUser = userController.findOneAdminUserByUsername(username);
 
         if (adminUser == null) {
-            System.out.println("管理员不存在，请重新输入昵称：");
-            System.out.println();
+            terminal.println("管理员不存在，请重新输入昵称：");
+            terminal.println();
             return null;
         }
 
@@ -180,19 +187,19 @@ class UserPage {
      */
     private Session authenticateRegularUser() {
 
-        System.out.println("请输入您的昵称：");
-        System.out.println();
+        terminal.println("请输入您的昵称：");
+        terminal.println();
 
         while (true) {
 
-            String username = Prompt.getNonEmptyString("输入不合法，请重新输入昵称：");
+            String username = Prompt.getNonEmptyString(terminal, "输入不合法，请重新输入昵称：");
 
             if (username == null)
                 continue;
 
             if (userController.existsAdminUser(username)) {
-                System.out.println("昵称不可用，请重新输入昵称：");
-                System.out.println();
+                terminal.println("昵称不可用，请重新输入昵称：");
+                terminal.println();
                 continue;
             }
 
@@ -205,8 +212,8 @@ class UserPage {
                 User newUser = userController.addRegularUser(username);
 
                 if (newUser == null) {
-                    System.out.println("内部服务器错误，请重新输入昵称：");
-                    System.out.println();
+                    terminal.println("内部服务器错误，请重新输入昵称：");
+                    terminal.println();
                     continue;
                 } else {
                     authenticatedUser = newUser;
@@ -0,0 +1,123 @@
+package com.twu.controller;
+
+import jdk.jfr.EventType;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+
+/**
+ * The ControllerMetrics is a singleton that keeps a latency histogram for
+ * every public method of the controllers. Each call is timed from entry
+ * to return, including calls that throw, and counted
+ */
+public class ControllerMetrics {
+
+
+    /**
+     * The singleton instance
+     */
+    private static ControllerMetrics instance = new ControllerMetrics();
+
+
+    /**
+     * The timed public methods of the controllers
+     */
+    public enum Operation {
+
+        EXISTS,
+        GET_COUNT,
+        FIND_ONE_BY_NAME,
+        FIND_ALL,
+        GET_LEADERBOARD,
+        FIND_TOP,
+        FIND_RANGE,
+        FIND_BY_PREFIX,
+        FIND_CONTAINING,
+        FIND_TRENDING,
+        GET_INDEX_BY_NAME,
+        ADD_HOT_SEARCH,
+        ADD_SUPER_HOT_SEARCH,
+        BUY_HOT_SEARCH,
+        VOTE_HOT_SEARCH,
+        SUBMIT_VOTE,
+        ENABLE_VOTE_BATCHING,
+        DISABLE_VOTE_BATCHING,
+
+        EXISTS_ADMIN_USER,
+        FIND_ONE_ADMIN_USER_BY_USERNAME,
+        FIND_ONE_REGULAR_USER_BY_USERNAME,
+        ADD_REGULAR_USER
+    }
+
+
+    /**
+     * The histograms indexed by the ordinals of the operations
+     */
+    private final LatencyHistogram[] histograms = new LatencyHistogram[Operation.values().length];
+
+
+    /**
+     * The type of the RequestEvent, checked before creating an event so that
+     * nothing is allocated while no recording is running
+     */
+    private static final EventType REQUEST_EVENT = EventType.getEventType(RequestEvent.class);
+
+
+    /**
+     * Record a call to a controller method, and commit a RequestEvent for
+     * it while a flight recording is running. Doesn't allocate otherwise
+     *
+     * @param operation the method that has been called
+     * @param startNanos the value of System.nanoTime() when the call started
+     */
+    void record(Operation operation, long startNanos) {
+
+        long latency = System.nanoTime() - startNanos;
+
+        histograms[operation.ordinal()].record(latency);
+
+        if (REQUEST_EVENT.isEnabled()) {
+            RequestEvent event = new RequestEvent();
+            event.operation = operation.name();
+            event.latency = latency;
+            event.commit();
+        }
+    }
+
+
+    /**
+     * Take a summary of the latencies of every operation
+     *
+     * @return an unmodifiable map from every operation to the number of its
+     *         calls and the percentiles of their latencies
+     */
+    public Map<Operation, LatencyHistogram.Snapshot> snapshot() {
+
+        Map<Operation, LatencyHistogram.Snapshot> snapshots = new EnumMap<>(Operation.class);
+
+        for (Operation operation : Operation.values())
+            snapshots.put(operation, histograms[operation.ordinal()].snapshot());
+
+        return Collections.unmodifiableMap(snapshots);
+    }
+
+
+    /**
+     * Do not let this class to be instantiated externally
+     */
+    private ControllerMetrics() {
+        for (int i = 0; i < histograms.length; i++)
+            histograms[i] = new LatencyHistogram();
+    }
+
+
+    /**
+     * Return the singleton instance of ControllerMetrics
+     */
+    public static ControllerMetrics getInstance() {
+        return instance;
+    }
+
+}
@@ -1,6 +1,8 @@
 package com.twu.controller;
 
+import com.twu.controller.ControllerMetrics.Operation;
 import com.twu.entity.HotSearch;
+import com.twu.entity.Leaderboard;
 import com.twu.entity.RegularUser;
 import com.twu.entity.User;
 import com.twu.service.HotSearchService;
@@ -8,12 +10,13 @@ import com.twu.service.SessionManager;
 import com.twu.service.UserService;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 
 /**
  * The HotSearchController is a singleton that processes user requests by calling
  * corresponding services to access the data. Each method in the controller is a
- * transaction
+ * transaction, timed by the ControllerMetrics
  */
 public class HotSearchController {
 
@@ -42,11 +45,29 @@ public class HotSearchController {
     private SessionManager sessionManager = SessionManager.getInstance();
 
 
+    /**
+     * The latency histograms of the controller methods
+     */
+    private ControllerMetrics metrics = ControllerMetrics.getInstance();
+
+
+    /**
+     * The VoteBatcher that applies votes in batches, or null if votes are
+     * applied one by one as they arrive
+     */
+    private volatile VoteBatcher voteBatcher;
+
+
     /**
      * @see HotSearchService#exists(String)
      */
     public boolean exists(String name) {
-        return hotSearchService.exists(name);
+        long start = System.nanoTime();
+        try {
+            return hotSearchService.exists(name);
+        } finally {
+            metrics.record(Operation.EXISTS, start);
+        }
     }
 
 
@@ -54,7 +75,12 @@ public class HotSearchController {
      * @see HotSearchService#getCount()
      */
     public int getCount() {
-        return hotSearchService.getCount();
+        long start = System.nanoTime();
+        try {
+            return hotSearchService.getCount();
+        } finally {
+            metrics.record(Operation.GET_COUNT, start);
+        }
     }
 
 
@@ -62,7 +88,12 @@ public class HotSearchController {
      * @see HotSearchService#findOneByName(String)
      */
     public HotSearch findOneByName(String name) {
-        return hotSearchService.findOneByName(name);
+        long start = System.nanoTime();
+        try {
+            return hotSearchService.findOneByName(name);
+        } finally {
+            metrics.record(Operation.FIND_ONE_BY_NAME, start);
+        }
     }
 
 
@@ -70,7 +101,90 @@ public class HotSearchController {
      * @see HotSearchService#findAll()
      */
     public List<HotSearch> findAll() {
-        return hotSearchService.findAll();
+        long start = System.nanoTime();
+        try {
+            return hotSearchService.findAll();
+        } finally {
+            metrics.record(Operation.FIND_ALL, start);
+        }
+    }
+
+
+    /**
+     * @see HotSearchService#getLeaderboard()
+     */
+    public Leaderboard getLeaderboard() {
+        long start = System.nanoTime();
+        try {
+            return hotSearchService.getLeaderboard();
+        } finally {
+            metrics.record(Operation.GET_LEADERBOARD, start);
+        }
+    }
+
+
+    /**
+     * @see HotSearchService#findTop(int)
+     */
+    public List<Leaderboard.Row> findTop(int n) {
+        long start = System.nanoTime();
+        try {
+            return hotSearchService.findTop(n);
+        } finally {
+            metrics.record(Operation.FIND_TOP, start);
+        }
+    }
+
+
+    /**
+     * @see HotSearchService#findRange(int, int)
+     */
+    public List<Leaderboard.Row> findRange(int offset, int limit) {
+        long start = System.nanoTime();
+        try {
+            return hotSearchService.findRange(offset, limit);
+        } finally {
+            metrics.record(Operation.FIND_RANGE, start);
+        }
+    }
+
+
+    /**
+     * @see HotSearchService#findByPrefix(String, int)
+     */
+    public List<Leaderboard.Row> findByPrefix(String prefix, int k) {
+        long start = System.nanoTime();
+        try {
+            return hotSearchService.findByPrefix(prefix, k);
+        } finally {
+            metrics.record(Operation.FIND_BY_PREFIX, start);
+        }
+    }
+
+
+    /**
+     * @see HotSearchService#findContaining(String, int)
+     */
+    public List<Leaderboard.Row> findContaining(String term, int k) {
+        long start = System.nanoTime();
+        try {
+            return hotSearchService.findContaining(term, k);
+        } finally {
+            metrics.record(Operation.FIND_CONTAINING, start);
+        }
+    }
+
+
+    /**
+     * @see HotSearchService#findTrending(int)
+     */
+    public List<Leaderboard.Row> findTrending(int n) {
+        long start = System.nanoTime();
+        try {
+            return hotSearchService.findTrending(n);
+        } finally {
+            metrics.record(Operation.FIND_TRENDING, start);
+        }
     }
 
 
@@ -78,7 +192,12 @@ public class HotSearchController {
      * @see HotSearchService#getIndexByName(String)
      */
     public int getIndexByName(String name) {
-        return hotSearchService.getIndexByName(name);
+        long start = System.nanoTime();
+        try {
+            return hotSearchService.getIndexByName(name);
+        } finally {
+            metrics.record(Operation.GET_INDEX_BY_NAME, start);
+        }
     }
 
 
@@ -98,15 +217,19 @@ public class HotSearchController {
      * @see HotSearchService#addHotSearch(String)
      */
     public boolean addHotSearch(String name) {
+        long start = System.nanoTime();
+        try {
+            HotSearch existing = hotSearchService.findOneByName(name);
 
-        HotSearch existing = hotSearchService.findOneByName(name);
-
-        if (existing != null)
-            return false;
+            if (existing != null)
+                return false;
 
-        hotSearchService.addHotSearch(name);
+            hotSearchService.addHotSearch(name);
 
-        return true;
+            return true;
+        } finally {
+            metrics.record(Operation.ADD_HOT_SEARCH, start);
+        }
     }
 
 
@@ -115,23 +238,44 @@ public class HotSearchController {
      * @see HotSearchController#addHotSearch(String)
      */
     public boolean addSuperHotSearch(String name) {
+        long start = System.nanoTime();
+        try {
+            HotSearch existing = hotSearchService.findOneByName(name);
+
+            if (existing != null)
+                return false;
 
-        HotSearch existing = hotSearchService.findOneByName(name);
+            hotSearchService.addSuperHotSearch(name);
 
-        if (existing != null)
-            return false;
+            return true;
+        } finally {
+            metrics.record(Operation.ADD_SUPER_HOT_SEARCH, start);
+        }
+    }
 
-        hotSearchService.addSuperHotSearch(name);
 
-        return true;
+    /**
+     * Check whether positions on the ranking list can be bought, which
+     * isn't supported when the hot searches are partitioned
+     *
+     * @see HotSearchService#isPartitioned()
+     */
+    public boolean canBuyHotSearches() {
+        return !hotSearchService.isPartitioned();
     }
 
 
     /**
      * @see HotSearchService#buyHotSearch(String, int, int)
+     * @see HotSearchController#canBuyHotSearches()
      */
     public int buyHotSearch(String name, int rank, int amount) {
-        return hotSearchService.buyHotSearch(name, rank, amount);
+        long start = System.nanoTime();
+        try {
+            return hotSearchService.buyHotSearch(name, rank, amount);
+        } finally {
+            metrics.record(Operation.BUY_HOT_SEARCH, start);
+        }
     }
 
 
@@ -140,6 +284,9 @@ public class HotSearchController {
      * regular user identified by the username, and votes to the hot search
      * identified by the name.
      *
+     * If vote batching is enabled, this method waits until the batch that
+     * holds the vote has been applied
+     *
      * @param name the name of the hot search
      * @param username the username of the requesting user
      * @param votes the number of votes from the user to be added to the
@@ -157,16 +304,108 @@ public class HotSearchController {
      * @see SessionManager#exists(User)
      */
     public boolean voteHotSearch(String name, String username, int votes) {
+        long start = System.nanoTime();
+        try {
+            return submit(name, username, votes).join();
+        } finally {
+            metrics.record(Operation.VOTE_HOT_SEARCH, start);
+        }
+    }
+
+
+    /**
+     * Submit a vote without waiting for it to be applied. If vote batching
+     * is enabled, the vote is queued and applied with the next batch,
+     * otherwise it is applied immediately
+     *
+     * @param name the name of the hot search
+     * @param username the username of the requesting user
+     * @param votes the number of votes from the user to be added to the
+     *              hot search
+     *
+     * @return the future result of the vote
+     *
+     * @see HotSearchController#voteHotSearch(String, String, int)
+     */
+    public CompletableFuture<Boolean> submitVote(String name, String username, int votes) {
+        long start = System.nanoTime();
+        try {
+            return submit(name, username, votes);
+        } finally {
+            metrics.record(Operation.SUBMIT_VOTE, start);
+        }
+    }
+
+
+    /**
+     * Apply votes in batches instead of one by one. Votes to the same hot
+     * search or from the same user within a batch are coalesced, so each
+     * hot search is reordered at most once per batch. If batching is already
+     * enabled, the previous batcher is drained and replaced
+     *
+     * @param maxBatchSize the maximum number of votes in a batch
+     * @param maxDelayMillis the maximum time a vote waits for its batch to be
+     *                       applied, 0 to apply whatever has been queued
+     *                       as soon as the first vote arrives
+     *
+     * @see VoteBatcher
+     */
+    public synchronized void enableVoteBatching(int maxBatchSize, long maxDelayMillis) {
+        long start = System.nanoTime();
+        try {
+            VoteBatcher previous = voteBatcher;
+
+            voteBatcher = new VoteBatcher(hotSearchService, userService, maxBatchSize, maxDelayMillis);
+
+            if (previous != null)
+                previous.shutdown();
+        } finally {
+            metrics.record(Operation.ENABLE_VOTE_BATCHING, start);
+        }
+    }
+
+
+    /**
+     * Go back to applying votes one by one, after the queued votes are applied
+     */
+    public synchronized void disableVoteBatching() {
+        long start = System.nanoTime();
+        try {
+            VoteBatcher previous = voteBatcher;
+
+            voteBatcher = null;
+
+            if (previous != null)
+                previous.shutdown();
+        } finally {
+            metrics.record(Operation.DISABLE_VOTE_BATCHING, start);
+        }
+    }
+
+
+    /**
+     * Check the session of the user and submit the vote, either to the
+     * batcher or directly to the services
+     *
+     * @see HotSearchController#submitVote(String, String, int)
+     */
+    private CompletableFuture<Boolean> submit(String name, String username, int votes) {
 
         RegularUser authenticatedUser = userService.findOneRegularUserByUsername(username);
 
         if (authenticatedUser == null ||
                 !sessionManager.exists(authenticatedUser)) {
-            return false;
+            return CompletableFuture.completedFuture(false);
         }
 
-        return userService.useVotes(username, votes) &&
-                hotSearchService.voteHotSearch(name, votes);
+        VoteBatcher batcher = voteBatcher;
+
+        if (batcher != null)
+            return batcher.submit(name, authenticatedUser, votes);
+
+        return CompletableFuture.completedFuture(
+                userService.useVotes(username, votes) &&
+                hotSearchService.voteHotSearch(name, votes));
     }
 
 
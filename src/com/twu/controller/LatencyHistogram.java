@@ -0,0 +1,180 @@
+package com.twu.controller;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * A lock-free latency histogram with log-linear buckets in the style of
+ * HdrHistogram: latencies below 128 nanoseconds have a bucket each, and
+ * every power of two above is split into 64 buckets, so any latency is
+ * reported within 1.6% of its true value using a fixed array.
+ *
+ * Recording increments a single bucket with an atomic add and never
+ * allocates, so it can be called by many threads on every request
+ */
+public class LatencyHistogram {
+
+
+    private static final int SUB_BUCKET_BITS = 6;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    private final AtomicLong max = new AtomicLong();
+
+
+    /**
+     * Record a latency
+     *
+     * @param nanos the latency in nanoseconds, negative values are counted as 0
+     */
+    public void record(long nanos) {
+
+        if (nanos < 0)
+            nanos = 0;
+
+        counts.incrementAndGet(indexOf(nanos));
+
+        long current = max.get();
+
+        while (nanos > current && !max.compareAndSet(current, nanos))
+            current = max.get();
+    }
+
+
+    /**
+     * Take a summary of the latencies recorded so far. Latencies recorded
+     * while the summary is being taken may or may not be included
+     *
+     * @return the number of recorded latencies and their percentiles
+     */
+    public Snapshot snapshot() {
+
+        long[] copy = new long[BUCKETS];
+        long total = 0;
+
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+            total += copy[i];
+        }
+
+        long maxNanos = max.get();
+
+        return new Snapshot(total,
+                valueAtPercentile(copy, total, 50, maxNanos),
+                valueAtPercentile(copy, total, 99, maxNanos),
+                valueAtPercentile(copy, total, 99.9, maxNanos),
+                maxNanos);
+    }
+
+
+    /**
+     * Find the value at a percentile of a copy of the buckets
+     *
+     * @return the highest value in the bucket of the percentile, capped at
+     *         the max, or 0 if nothing has been recorded
+     */
+    private static long valueAtPercentile(long[] counts, long total, double percentile, long max) {
+
+        if (total == 0)
+            return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long count = 0;
+
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts[i];
+            if (count >= rank)
+                return Math.min(max, highestValueOf(i));
+        }
+
+        return max;
+    }
+
+
+    private static int indexOf(long value) {
+
+        if (value < 2 * SUB_BUCKETS)
+            return (int) value;
+
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+
+        return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+    }
+
+
+    private static long highestValueOf(int index) {
+
+        if (index < 2 * SUB_BUCKETS)
+            return index;
+
+        int shift = (index >> SUB_BUCKET_BITS) - 1;
+        long mantissa = index - ((long) shift << SUB_BUCKET_BITS);
+
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+
+    /**
+     * An immutable summary of a latency histogram, in nanoseconds
+     */
+    public static class Snapshot {
+
+
+        private final long count;
+
+        private final long p50;
+
+        private final long p99;
+
+        private final long p999;
+
+        private final long max;
+
+
+        Snapshot(long count, long p50, long p99, long p999, long max) {
+            this.count = count;
+            this.p50 = p50;
+            this.p99 = p99;
+            this.p999 = p999;
+            this.max = max;
+        }
+
+
+        /**
+         * Get the number of recorded latencies, i.e. the number of calls
+         */
+        public long getCount() {
+            return count;
+        }
+
+        public long getP50() {
+            return p50;
+        }
+
+        public long getP99() {
+            return p99;
+        }
+
+        public long getP999() {
+            return p999;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+
+        @Override
+        public String toString() {
+            return "count=" + count + " p50=" + p50 + "ns p99=" + p99 + "ns p999=" + p999 + "ns max=" + max + "ns";
+        }
+
+    }
+
+}
@@ -0,0 +1,28 @@
+package com.twu.controller;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+
+/**
+ * A JFR event for a call to a public method of a controller, committed
+ * when the call returns together with its latency
+ */
+@Name("com.twu.Request")
+@Label("Controller Request")
+@Category({ "Hot Search", "Controller" })
+@Description("A call to a controller method")
+class RequestEvent extends jdk.jfr.Event {
+
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Latency")
+    @Timespan(Timespan.NANOSECONDS)
+    long latency;
+
+}
@@ -1,5 +1,6 @@
 package com.twu.controller;
 
+import com.twu.controller.ControllerMetrics.Operation;
 import com.twu.entity.AdminUser;
 import com.twu.entity.RegularUser;
 import com.twu.entity.User;
@@ -9,7 +10,7 @@ import com.twu.service.UserService;
 /**
  * The UserController is a singleton that processes user requests by calling
  * corresponding services to access the data. Each method in the controller
- * is a transaction
+ * is a transaction, timed by the ControllerMetrics
  */
 public class UserController {
 
@@ -26,11 +27,22 @@ public class UserController {
     private UserService userService = UserService.getInstance();
 
 
+    /**
+     * The latency histograms of the controller methods
+     */
+    private ControllerMetrics metrics = ControllerMetrics.getInstance();
+
+
     /**
      * @see UserService#existsAdminUser(String)
      */
     public boolean existsAdminUser(String username) {
-        return userService.existsAdminUser(username);
+        long start = System.nanoTime();
+        try {
+            return userService.existsAdminUser(username);
+        } finally {
+            metrics.record(Operation.EXISTS_ADMIN_USER, start);
+        }
     }
 
 
@@ -38,7 +50,12 @@ public class UserController {
      * @see UserService#findOneAdminUserByUsername(String)
      */
     public AdminUser findOneAdminUserByUsername(String username) {
-        return userService.findOneAdminUserByUsername(username);
+        long start = System.nanoTime();
+        try {
+            return userService.findOneAdminUserByUsername(username);
+        } finally {
+            metrics.record(Operation.FIND_ONE_ADMIN_USER_BY_USERNAME, start);
+        }
     }
 
 
@@ -46,7 +63,12 @@ public class UserController {
      * @see UserService#existsAdminUser(String)
      */
     public RegularUser findOneRegularUserByUsername(String username) {
-        return userService.findOneRegularUserByUsername(username);
+        long start = System.nanoTime();
+        try {
+            return userService.findOneRegularUserByUsername(username);
+        } finally {
+            metrics.record(Operation.FIND_ONE_REGULAR_USER_BY_USERNAME, start);
+        }
     }
 
 
@@ -54,7 +76,12 @@ public class UserController {
      * @see UserService#addRegularUser(String)
      */
     public User addRegularUser(String username) {
-        return userService.addRegularUser(username);
+        long start = System.nanoTime();
+        try {
+            return userService.addRegularUser(username);
+        } finally {
+            metrics.record(Operation.ADD_REGULAR_USER, start);
+        }
     }
 
 
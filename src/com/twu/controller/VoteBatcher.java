@@ -0,0 +1,339 @@
+package com.twu.controller;
+
+import com.twu.entity.HotSearch;
+import com.twu.entity.RegularUser;
+import com.twu.service.HotSearchService;
+import com.twu.service.UserService;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+
+/**
+ * The VoteBatcher queues vote requests and applies them in batches on a
+ * single worker thread.
+ *
+ * A batch is closed when it holds maxBatchSize votes, or when maxDelayMillis
+ * has passed since its first vote arrived. Inside a batch the votes are
+ * coalesced: each user's balance is charged once for all accepted votes,
+ * and each hot search receives the sum of its votes at once, so it is
+ * reordered a single time per batch. A larger batch size or delay trades
+ * latency for throughput.
+ *
+ * Once the batcher has been shut down, votes are no longer queued but
+ * applied on the submitting thread, so a caller that still holds the
+ * batcher never waits for a vote that nobody will apply
+ */
+class VoteBatcher {
+
+
+    /**
+     * How long the worker waits for the first vote of a batch before checking
+     * whether it has been shut down
+     */
+    private static final long IDLE_POLL_MILLIS = 100;
+
+
+    private final HotSearchService hotSearchService;
+
+    private final UserService userService;
+
+
+    /**
+     * The maximum number of votes in a batch
+     */
+    private final int maxBatchSize;
+
+
+    /**
+     * The maximum time a vote waits for its batch to be closed
+     */
+    private final long maxDelayNanos;
+
+
+    /**
+     * The votes waiting to be applied
+     */
+    private final BlockingQueue<VoteRequest> queue = new LinkedBlockingQueue<>();
+
+
+    private final Thread worker;
+
+
+    private volatile boolean running = true;
+
+
+    /**
+     * Makes queueing a vote and shutting down mutually exclusive, so that no
+     * vote is queued after the worker has seen the queue empty for the last
+     * time. Votes are queued under the read lock and running is cleared
+     * under the write lock
+     */
+    private final ReadWriteLock shutdownLock = new ReentrantReadWriteLock();
+
+
+    /**
+     * Create a VoteBatcher and start its worker thread
+     *
+     * @param maxBatchSize the maximum number of votes in a batch
+     * @param maxDelayMillis the maximum time a vote waits for its batch to be closed
+     */
+    VoteBatcher(HotSearchService hotSearchService, UserService userService, int maxBatchSize, long maxDelayMillis) {
+
+        if (maxBatchSize < 1 || maxDelayMillis < 0)
+            throw new IllegalArgumentException("invalid batch size or delay");
+
+        this.hotSearchService = hotSearchService;
+        this.userService = userService;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+
+        worker = new Thread(this::run, "vote-batcher");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+
+    /**
+     * Queue a vote to be applied in the next batch, or apply it right away
+     * if the batcher has been shut down
+     *
+     * @param name the name of the hot search
+     * @param user the requesting user, whose session has been checked
+     * @param votes the number of votes from the user to be added
+     * @return the future result of the vote, as returned by
+     *         HotSearchController#voteHotSearch(String, String, int)
+     */
+    CompletableFuture<Boolean> submit(String name, RegularUser user, int votes) {
+
+        VoteRequest request = new VoteRequest(name, user, votes);
+
+        shutdownLock.readLock().lock();
+        try {
+            if (running) {
+                queue.add(request);
+                return request.result;
+            }
+        } finally {
+            shutdownLock.readLock().unlock();
+        }
+
+        applyAlone(request);
+
+        return request.result;
+    }
+
+
+    /**
+     * Stop queueing votes, and wait until the queued votes are applied.
+     * Votes submitted from now on are applied on the submitting thread
+     */
+    void shutdown() {
+
+        stopQueueing();
+
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // only left if the worker has been interrupted or has died
+        VoteRequest request;
+
+        while ((request = queue.poll()) != null)
+            applyAlone(request);
+    }
+
+
+    private void stopQueueing() {
+        shutdownLock.writeLock().lock();
+        try {
+            running = false;
+        } finally {
+            shutdownLock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Collect batches from the queue and apply them until shut down
+     */
+    private void run() {
+
+        List<VoteRequest> batch = new ArrayList<>(maxBatchSize);
+
+        while (running || !queue.isEmpty()) {
+
+            try {
+
+                VoteRequest first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+
+                if (first == null)
+                    continue;
+
+                batch.add(first);
+
+                long deadline = System.nanoTime() + maxDelayNanos;
+
+                while (batch.size() < maxBatchSize) {
+
+                    long wait = deadline - System.nanoTime();
+
+                    VoteRequest next = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+
+                    if (next == null)
+                        break;
+
+                    batch.add(next);
+                }
+
+            } catch (InterruptedException e) {
+                stopQueueing();
+            }
+
+            try {
+                apply(batch);
+            } catch (RuntimeException e) {
+                for (VoteRequest request : batch)
+                    request.result.completeExceptionally(e);
+            }
+
+            batch.clear();
+        }
+    }
+
+
+    /**
+     * Apply a single vote as a batch of its own, completing it exceptionally
+     * if it fails
+     */
+    private void applyAlone(VoteRequest request) {
+        try {
+            apply(List.of(request));
+        } catch (RuntimeException e) {
+            request.result.completeExceptionally(e);
+        }
+    }
+
+
+    /**
+     * Apply a batch of votes. Votes to hot searches that don't exist are
+     * rejected. Each user's votes are accepted in order as long as the
+     * remaining balance allows, and the accepted ones are charged at once.
+     * Then each hot search receives the sum of its accepted votes
+     *
+     * @param batch the votes to be applied
+     */
+    private void apply(List<VoteRequest> batch) {
+
+        Map<RegularUser, List<VoteRequest>> byUser = new LinkedHashMap<>();
+
+        for (VoteRequest request : batch) {
+
+            request.hotSearch = hotSearchService.findOneByName(request.name);
+
+            if (request.hotSearch == null)
+                request.result.complete(false);
+            else
+                byUser.computeIfAbsent(request.user, u -> new ArrayList<>()).add(request);
+        }
+
+        Map<HotSearch, List<VoteRequest>> byHotSearch = new LinkedHashMap<>();
+
+        for (Map.Entry<RegularUser, List<VoteRequest>> entry : byUser.entrySet()) {
+            for (VoteRequest request : charge(entry.getKey(), entry.getValue()))
+                byHotSearch.computeIfAbsent(request.hotSearch, hs -> new ArrayList<>()).add(request);
+        }
+
+        for (Map.Entry<HotSearch, List<VoteRequest>> entry : byHotSearch.entrySet()) {
+
+            int sum = 0;
+            for (VoteRequest request : entry.getValue())
+                sum += request.votes;
+
+            boolean success = hotSearchService.voteHotSearch(entry.getKey().getName(), sum);
+
+            for (VoteRequest request : entry.getValue())
+                request.result.complete(success);
+        }
+    }
+
+
+    /**
+     * Charge a user for his/her votes in a batch, and reject the votes
+     * that exceed the remaining balance
+     *
+     * @return the accepted votes
+     */
+    private List<VoteRequest> charge(RegularUser user, List<VoteRequest> requests) {
+
+        List<VoteRequest> accepted = new ArrayList<>(requests.size());
+
+        int remaining = user.getVotes();
+        int total = 0;
+
+        for (VoteRequest request : requests) {
+            if (request.votes <= remaining) {
+                remaining -= request.votes;
+                total += request.votes;
+                accepted.add(request);
+            } else {
+                request.result.complete(false);
+            }
+        }
+
+        if (userService.useVotes(user.getUsername(), total))
+            return accepted;
+
+        // the balance was changed by a vote outside this batch, charge one by one instead
+        List<VoteRequest> charged = new ArrayList<>(accepted.size());
+
+        for (VoteRequest request : accepted) {
+            if (userService.useVotes(user.getUsername(), request.votes))
+                charged.add(request);
+            else
+                request.result.complete(false);
+        }
+
+        return charged;
+    }
+
+
+    /**
+     * A queued vote and its future result
+     */
+    private static class VoteRequest {
+
+
+        final String name;
+
+        final RegularUser user;
+
+        final int votes;
+
+        final CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+        /**
+         * The hot search being voted, looked up when the batch is applied
+         */
+        HotSearch hotSearch;
+
+
+        VoteRequest(String name, RegularUser user, int votes) {
+            this.name = name;
+            this.user = user;
+            this.votes = votes;
+        }
+
+    }
+
+}
@@ -0,0 +1,53 @@
+package com.twu.entity;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+
+/**
+ * A counter store that keeps the votes of all hot searches in pages of
+ * primitive ints, without any object per hot search, so that large boards
+ * use less memory and scans over the counters are cache-friendly.
+ *
+ * Votes are added with an atomic add on the slot, so they are never lost,
+ * but threads voting the same hot search contend on the same word, unlike
+ * StripedCounterStore. Scans over the ranking list read the votes and
+ * amounts of a whole page of rows straight from the arrays. This is the
+ * default store
+ */
+public class ArrayCounterStore extends PagedCounterStore {
+
+
+    private volatile AtomicIntegerArray[] votes = new AtomicIntegerArray[0];
+
+
+    @Override
+    public int getVote(int id) {
+        return votes[id >>> PAGE_BITS].get(id & PAGE_MASK);
+    }
+
+
+    @Override
+    public int addVotes(int id, int votes) {
+        return this.votes[id >>> PAGE_BITS].addAndGet(id & PAGE_MASK, votes * getWeight(id));
+    }
+
+
+    @Override
+    protected void readVotes(int[] ids, int[] votes) {
+
+        AtomicIntegerArray[] votePages = this.votes;
+
+        for (int i = 0; i < ids.length; i++)
+            votes[i] = votePages[ids[i] >>> PAGE_BITS].get(ids[i] & PAGE_MASK);
+    }
+
+
+    @Override
+    protected void addVotePage(int page) {
+        AtomicIntegerArray[] newVotes = Arrays.copyOf(votes, page + 1);
+        newVotes[page] = new AtomicIntegerArray(PAGE_SIZE);
+        votes = newVotes;
+    }
+
+}
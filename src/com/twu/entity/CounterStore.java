@@ -0,0 +1,77 @@
+package com.twu.entity;
+
+
+/**
+ * The storage of hot searches: the name, the votes, the amount of money
+ * that bought each hot search, and the weight of its votes.
+ *
+ * Each hot search is given a dense id when its slot is allocated, and a
+ * HotSearch is a lightweight view over its slot. Votes may be added by
+ * multiple threads at the same time without being lost
+ */
+public interface CounterStore {
+
+
+    /**
+     * Allocate the slot of a new hot search with no votes and no amount.
+     * Threads may allocate slots at the same time, such as the shards of a
+     * partitioned board sharing a store, without serializing on a lock
+     *
+     * @param name the name of the hot search
+     * @param weight the number of votes counted for each vote received
+     * @return the dense id of the new slot
+     */
+    int allocate(String name, int weight);
+
+
+    /**
+     * Get the number of slots that have been allocated
+     *
+     * @return the number of slots that have been allocated
+     */
+    int size();
+
+
+    String getName(int id);
+
+
+    int getVote(int id);
+
+
+    /**
+     * Add certain votes to a slot, multiplied by the weight of the slot
+     *
+     * @param id the id of the slot
+     * @param votes the number of votes received
+     * @return the updated votes of the slot, which may already include
+     *         votes added concurrently by other threads
+     */
+    int addVotes(int id, int votes);
+
+
+    int getAmount(int id);
+
+
+    void setAmount(int id, int amount);
+
+
+    int getWeight(int id);
+
+
+    /**
+     * Read the votes and amounts of many slots at once, for scans over the
+     * ranking list. Stores that keep their counters in arrays read them
+     * straight from the arrays
+     *
+     * @param ids the ids of the slots
+     * @param votes receives the votes of the slots, in the order of the ids
+     * @param amounts receives the amounts of the slots, in the order of the ids
+     */
+    default void readCounters(int[] ids, int[] votes, int[] amounts) {
+        for (int i = 0; i < ids.length; i++) {
+            votes[i] = getVote(ids[i]);
+            amounts[i] = getAmount(ids[i]);
+        }
+    }
+
+}
@@ -5,63 +5,89 @@ package com.twu.entity;
  * A regular hot search entity with an immutable name,
  * the amount of money that bought this hot search at
  * its current position on the ranking list, and the
- * number of votes it receives
+ * number of votes it receives.
+ *
+ * The name, the amount and the votes are not stored in
+ * the entity itself, but in the slot of a CounterStore,
+ * of which the entity is a lightweight view. Votes may be
+ * added by many threads at the same time without losing
+ * any of them
  */
 public class HotSearch {
 
 
     /**
-     * The immutable hot search name, used as the
-     * unique identifier of an entity
+     * The store that keeps the immutable hot search name, used
+     * as the unique identifier of an entity, the amount of money
+     * that bought this hot search at its current position on the
+     * ranking list, and the number of votes received by this hot
+     * search representing its popularity
      */
-    private final String NAME;
+    protected final CounterStore store;
 
     /**
-     * The amount of money that bought this hot search
-     * at its current position on the ranking list
+     * The id of the slot of this hot search in the store
      */
-    protected int amount;
+    protected final int id;
+
+
+    public HotSearch(String name, CounterStore store) {
+        this(name, store, 1);
+    }
+
 
     /**
-     * The number of votes received by this hot search
-     * representing its popularity
+     * @param weight the number of votes counted for each vote received
      */
-    protected int vote;
+    protected HotSearch(String name, CounterStore store, int weight) {
+        this.store = store;
+        id = store.allocate(name, weight);
+    }
 
 
-    public HotSearch(String name) {
-        NAME = name;
-        amount = 0;
-        vote = 0;
+    public String getName() {
+        return store.getName(id);
     }
 
 
-    public String getName() {
-        return NAME;
+    /**
+     * Get the id of the slot of this hot search in its store
+     */
+    public int getId() {
+        return id;
     }
 
     public int getAmount() {
-        return amount;
+        return store.getAmount(id);
     }
 
     public void setAmount(int amount) {
-        this.amount = amount;
+        store.setAmount(id, amount);
     }
 
     public int getVote() {
-        return vote;
+        return store.getVote(id);
+    }
+
+
+    /**
+     * Get the number of votes counted for each vote received
+     */
+    public int getWeight() {
+        return store.getWeight(id);
     }
 
 
     /**
-     * Add certain votes to this hot search
+     * Add certain votes to this hot search. Safe to be called by
+     * multiple threads at the same time
      *
      * @param vote the number of votes to be added
-     * @return the updated votes of this hot search
+     * @return the updated votes of this hot search, which may already
+     *         include votes added concurrently by other threads
      */
     public int addVotes(int vote) {
-        this.vote += vote;
-        return this.vote;
+        return store.addVotes(id, vote);
     }
 
 
@@ -73,7 +99,7 @@ public class HotSearch {
      */
     @Override
     public String toString() {
-        return NAME + " " + vote;
+        return getName() + " " + getVote();
     }
 
 }
@@ -0,0 +1,145 @@
+package com.twu.entity;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * An immutable snapshot of the hot search ranking list at a certain version.
+ *
+ * A new snapshot is published whenever the ranking list has changed, and
+ * the same snapshot is handed out to every reader until then, so it can be
+ * shared freely. The version increases with every change, which lets a
+ * client skip rendering a snapshot that it has already rendered
+ */
+public class Leaderboard {
+
+
+    /**
+     * The snapshot of an empty ranking list before any change
+     */
+    public static final Leaderboard EMPTY = new Leaderboard(0, new Row[0]);
+
+
+    /**
+     * The version of the ranking list captured by this snapshot
+     */
+    private final long version;
+
+
+    /**
+     * The rows of the ranking list, in the order of the ranking list
+     */
+    private final List<Row> rows;
+
+
+    public Leaderboard(long version, Row[] rows) {
+        this.version = version;
+        this.rows = Collections.unmodifiableList(Arrays.asList(rows));
+    }
+
+
+    public long getVersion() {
+        return version;
+    }
+
+
+    /**
+     * Get the rows of the ranking list
+     *
+     * @return an unmodifiable list of the rows, in the order of the ranking list
+     */
+    public List<Row> getRows() {
+        return rows;
+    }
+
+
+    public int size() {
+        return rows.size();
+    }
+
+
+    /**
+     * An immutable copy of a hot search on the ranking list
+     */
+    public static class Row {
+
+
+        private final String NAME;
+
+        private final int amount;
+
+        private final int vote;
+
+        private final boolean superHot;
+
+        /**
+         * The hotness of the hot search when the snapshot was taken, which
+         * is its votes, or its decayed votes if hotness decay is enabled
+         */
+        private final double hotness;
+
+        /**
+         * Whether the hot search has been bought, and so keeps its position
+         * when the hot searches that haven't been bought are reordered
+         */
+        private final boolean pinned;
+
+
+        public Row(HotSearch hs, double hotness) {
+            this(hs, hotness, false);
+        }
+
+
+        public Row(HotSearch hs, double hotness, boolean pinned) {
+            this(hs.getName(), hs.getAmount(), hs.getVote(), hs instanceof SuperHotSearch, hotness, pinned);
+        }
+
+
+        public Row(String name, int amount, int vote, boolean superHot, double hotness, boolean pinned) {
+            NAME = name;
+            this.amount = amount;
+            this.vote = vote;
+            this.superHot = superHot;
+            this.hotness = hotness;
+            this.pinned = pinned;
+        }
+
+
+        public String getName() {
+            return NAME;
+        }
+
+        public int getAmount() {
+            return amount;
+        }
+
+        public int getVote() {
+            return vote;
+        }
+
+        public boolean isSuperHot() {
+            return superHot;
+        }
+
+        public double getHotness() {
+            return hotness;
+        }
+
+        public boolean isPinned() {
+            return pinned;
+        }
+
+
+        /**
+         * @see HotSearch#toString()
+         */
+        @Override
+        public String toString() {
+            return NAME + " " + vote;
+        }
+
+    }
+
+}
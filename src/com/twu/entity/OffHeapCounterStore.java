@@ -0,0 +1,340 @@
+package com.twu.entity;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * A counter store that keeps the counters and names of hot searches outside
+ * the Java heap, so that the store itself adds almost nothing per hot search
+ * for the garbage collector to trace.
+ *
+ * Each hot search is a fixed-width record in a page of records:
+ *
+ *   offset  0  int   the id of the slot
+ *   offset  4  int   the votes
+ *   offset  8  int   the amount of money that bought the hot search
+ *   offset 12  int   the weight of the votes
+ *   offset 16  long  the offset of the name in the name arena
+ *
+ * Names are stored in a separate arena of chunks as a length followed by
+ * the UTF-8 bytes. Both the pages and the chunks are either direct buffers,
+ * or regions of memory-mapped files if the store is created with a directory.
+ * Votes are added with an atomic add on the record. Allocation claims the
+ * next record and the room for the name with atomic updates, and only takes
+ * the lock of this to add a page or a chunk, so threads allocating at the
+ * same time don't serialize.
+ *
+ * The store keeps nothing on the heap per hot search, only a reference per
+ * page of records and per chunk of names, and names are decoded from the
+ * arena on every read, into Strings that die young. It doesn't move anything
+ * else off the heap: the HotSearch views, the nodes of the ranking and the
+ * entries of the name, prefix and bigram indexes still grow with the board
+ */
+public class OffHeapCounterStore implements CounterStore, Closeable {
+
+
+    private static final int RECORD_SIZE = 24;
+
+    private static final int ID = 0;
+
+    private static final int VOTE = 4;
+
+    private static final int AMOUNT = 8;
+
+    private static final int WEIGHT = 12;
+
+    private static final int NAME_OFFSET = 16;
+
+
+    private static final int PAGE_BITS = 12;
+
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+
+    /**
+     * The size of a chunk of the name arena, unless a single name needs more
+     */
+    private static final int CHUNK_SIZE = 1 << 20;
+
+
+    /**
+     * Accesses the int fields of records atomically
+     */
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+
+    /**
+     * The file that record pages are mapped from, or null if they are direct buffers
+     */
+    private final FileChannel recordFile;
+
+
+    /**
+     * The file that name chunks are mapped from, or null if they are direct buffers
+     */
+    private final FileChannel nameFile;
+
+
+    private volatile ByteBuffer[] pages = new ByteBuffer[0];
+
+
+    private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+
+
+    /**
+     * The offset of the next free byte of the name arena, in the format of
+     * the offsets of names, which always points into the last chunk
+     */
+    private final AtomicLong nameCursor = new AtomicLong();
+
+
+    /**
+     * The id of the next slot to be allocated, which is the number of slots
+     * that have been allocated
+     */
+    private final AtomicInteger next = new AtomicInteger();
+
+
+    /**
+     * Create a store backed by direct buffers
+     */
+    public OffHeapCounterStore() {
+        recordFile = null;
+        nameFile = null;
+    }
+
+
+    /**
+     * Create a store backed by memory-mapped files in the given directory,
+     * which are truncated if they exist
+     *
+     * @param directory the directory to create the files in
+     * @throws IOException if the files can't be created
+     */
+    public OffHeapCounterStore(Path directory) throws IOException {
+
+        Files.createDirectories(directory);
+
+        recordFile = FileChannel.open(directory.resolve("records.dat"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+
+        nameFile = FileChannel.open(directory.resolve("names.dat"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+
+    @Override
+    public int allocate(String name, int weight) {
+
+        if (weight < 1 || weight > Byte.MAX_VALUE)
+            throw new IllegalArgumentException("weight out of range");
+
+        int id = next.getAndIncrement();
+        int page = id >>> PAGE_BITS;
+
+        if (page >= pages.length)
+            addPages(page);
+
+        ByteBuffer records = pages[page];
+        int record = (id & PAGE_MASK) * RECORD_SIZE;
+
+        records.putInt(record + ID, id);
+        records.putInt(record + VOTE, 0);
+        records.putInt(record + AMOUNT, 0);
+        records.putInt(record + WEIGHT, weight);
+        records.putLong(record + NAME_OFFSET, storeName(name));
+
+        return id;
+    }
+
+
+    @Override
+    public int size() {
+        return next.get();
+    }
+
+
+    @Override
+    public String getName(int id) {
+
+        long offset = pages[id >>> PAGE_BITS].getLong(record(id) + NAME_OFFSET);
+
+        ByteBuffer chunk = chunks[(int) (offset >>> 32)].duplicate();
+        int position = (int) offset;
+
+        byte[] bytes = new byte[chunk.getInt(position)];
+
+        chunk.position(position + Integer.BYTES);
+        chunk.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+
+    @Override
+    public int getVote(int id) {
+        return (int) INT.getVolatile(pages[id >>> PAGE_BITS], record(id) + VOTE);
+    }
+
+
+    @Override
+    public int addVotes(int id, int votes) {
+        ByteBuffer records = pages[id >>> PAGE_BITS];
+        int delta = votes * (int) INT.get(records, record(id) + WEIGHT);
+        return (int) INT.getAndAdd(records, record(id) + VOTE, delta) + delta;
+    }
+
+
+    @Override
+    public int getAmount(int id) {
+        return (int) INT.getVolatile(pages[id >>> PAGE_BITS], record(id) + AMOUNT);
+    }
+
+
+    @Override
+    public void setAmount(int id, int amount) {
+        INT.setVolatile(pages[id >>> PAGE_BITS], record(id) + AMOUNT, amount);
+    }
+
+
+    @Override
+    public int getWeight(int id) {
+        return (int) INT.get(pages[id >>> PAGE_BITS], record(id) + WEIGHT);
+    }
+
+
+    /**
+     * Close the mapped files, if any. Slots must not be accessed afterwards
+     */
+    @Override
+    public void close() throws IOException {
+        if (recordFile != null) recordFile.close();
+        if (nameFile != null) nameFile.close();
+    }
+
+
+    /**
+     * Append a name to the name arena, claiming its room in the last chunk
+     * by moving the cursor past it, or starting a new chunk if it doesn't fit
+     *
+     * @return the offset of the name, whose high 32 bits are the chunk
+     *         number and whose low 32 bits are the position in the chunk
+     */
+    private long storeName(String name) {
+
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        int length = Integer.BYTES + bytes.length;
+
+        long offset;
+        ByteBuffer[] current;
+
+        while (true) {
+
+            offset = nameCursor.get();
+            current = chunks;
+
+            int chunkNumber = (int) (offset >>> 32);
+
+            if (chunkNumber < current.length && (int) offset + length <= current[chunkNumber].capacity()) {
+                if (nameCursor.compareAndSet(offset, offset + length))
+                    break;
+            } else {
+                addChunk(offset, length);
+            }
+        }
+
+        ByteBuffer chunk = current[(int) (offset >>> 32)].duplicate();
+
+        chunk.position((int) offset);
+        chunk.putInt(bytes.length);
+        chunk.put(bytes);
+
+        return offset;
+    }
+
+
+    /**
+     * Add pages of records up to the given page number, unless another
+     * thread already has
+     */
+    private synchronized void addPages(int page) {
+
+        for (int p = pages.length; p <= page; p++) {
+
+            ByteBuffer[] newPages = Arrays.copyOf(pages, p + 1);
+            newPages[p] = newBuffer(recordFile, (long) p * PAGE_SIZE * RECORD_SIZE, PAGE_SIZE * RECORD_SIZE);
+
+            pages = newPages;
+        }
+    }
+
+
+    /**
+     * Start a new chunk of the name arena that can hold a name of the given
+     * length, and move the cursor to its start, unless another thread has
+     * moved the cursor since it was read
+     *
+     * @param cursor the cursor that was too close to the end of its chunk
+     * @param length the length of the name and its length prefix
+     */
+    private synchronized void addChunk(long cursor, int length) {
+
+        if (nameCursor.get() != cursor)
+            return;
+
+        ByteBuffer[] current = chunks;
+
+        long fileOffset = 0;
+        for (ByteBuffer chunk : current)
+            fileOffset += chunk.capacity();
+
+        ByteBuffer[] newChunks = Arrays.copyOf(current, current.length + 1);
+        newChunks[current.length] = newBuffer(nameFile, fileOffset, Math.max(CHUNK_SIZE, length));
+
+        chunks = newChunks;
+        nameCursor.set((long) current.length << 32);
+    }
+
+
+    /**
+     * Create a buffer in native byte order, mapped from the given region of
+     * the file, or a direct buffer if there is no file
+     */
+    private static ByteBuffer newBuffer(FileChannel file, long position, int size) {
+
+        ByteBuffer buffer;
+
+        try {
+            buffer = file == null
+                    ? ByteBuffer.allocateDirect(size)
+                    : file.map(FileChannel.MapMode.READ_WRITE, position, size);
+        } catch (IOException e) {
+            throw new IllegalStateException("failed to map the counter store", e);
+        }
+
+        return buffer.order(ByteOrder.nativeOrder());
+    }
+
+
+    private static int record(int id) {
+        return (id & PAGE_MASK) * RECORD_SIZE;
+    }
+
+}
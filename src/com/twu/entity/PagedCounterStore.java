@@ -0,0 +1,161 @@
+package com.twu.entity;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * The base of counter stores that keep each counter in parallel primitive
+ * arrays indexed by the slot id.
+ *
+ * The arrays are split into fixed-size pages, so that growing the store
+ * never moves existing counters and concurrent readers and writers of
+ * existing slots never need a lock. Allocation claims the next id with an
+ * atomic increment, and only takes the lock of this to add a page, once
+ * every PAGE_SIZE slots, so threads allocating at the same time, such as
+ * the shards of a partitioned board, don't serialize
+ */
+abstract class PagedCounterStore implements CounterStore {
+
+
+    static final int PAGE_BITS = 12;
+
+    static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+    static final int PAGE_MASK = PAGE_SIZE - 1;
+
+
+    /**
+     * The names of the hot searches
+     */
+    private volatile String[][] names = new String[0][];
+
+
+    /**
+     * The amounts of money that bought the hot searches
+     */
+    private volatile int[][] amounts = new int[0][];
+
+
+    /**
+     * The weights of the votes of the hot searches
+     */
+    private volatile byte[][] weights = new byte[0][];
+
+
+    /**
+     * The id of the next slot to be allocated, which is the number of slots
+     * that have been allocated
+     */
+    private final AtomicInteger next = new AtomicInteger();
+
+
+    @Override
+    public int allocate(String name, int weight) {
+
+        if (weight < 1 || weight > Byte.MAX_VALUE)
+            throw new IllegalArgumentException("weight out of range");
+
+        int id = next.getAndIncrement();
+        int page = id >>> PAGE_BITS;
+
+        if (page >= amounts.length)
+            addPages(page);
+
+        weights[page][id & PAGE_MASK] = (byte) weight;
+        names[page][id & PAGE_MASK] = name;
+
+        return id;
+    }
+
+
+    @Override
+    public int size() {
+        return next.get();
+    }
+
+
+    @Override
+    public String getName(int id) {
+        return names[id >>> PAGE_BITS][id & PAGE_MASK];
+    }
+
+
+    @Override
+    public int getAmount(int id) {
+        return amounts[id >>> PAGE_BITS][id & PAGE_MASK];
+    }
+
+
+    @Override
+    public void setAmount(int id, int amount) {
+        amounts[id >>> PAGE_BITS][id & PAGE_MASK] = amount;
+    }
+
+
+    @Override
+    public int getWeight(int id) {
+        return weights[id >>> PAGE_BITS][id & PAGE_MASK];
+    }
+
+
+    @Override
+    public void readCounters(int[] ids, int[] votes, int[] amounts) {
+
+        int[][] amountPages = this.amounts;
+
+        for (int i = 0; i < ids.length; i++)
+            amounts[i] = amountPages[ids[i] >>> PAGE_BITS][ids[i] & PAGE_MASK];
+
+        readVotes(ids, votes);
+    }
+
+
+    /**
+     * Read the votes of many slots at once
+     *
+     * @param ids the ids of the slots
+     * @param votes receives the votes of the slots, in the order of the ids
+     */
+    protected void readVotes(int[] ids, int[] votes) {
+        for (int i = 0; i < ids.length; i++)
+            votes[i] = getVote(ids[i]);
+    }
+
+
+    /**
+     * Allocate the page of votes with the given page number, called under
+     * the lock of this before the other arrays get the page
+     *
+     * @param page the page number, which is the number of existing pages
+     */
+    protected abstract void addVotePage(int page);
+
+
+    /**
+     * Add pages up to the given page number, unless another thread already
+     * has. The amounts are published last, so a thread that sees a page of
+     * amounts sees the page in every other array as well
+     */
+    private synchronized void addPages(int page) {
+
+        for (int p = amounts.length; p <= page; p++) {
+
+            addVotePage(p);
+
+            int[][] newAmounts = Arrays.copyOf(amounts, p + 1);
+            newAmounts[p] = new int[PAGE_SIZE];
+
+            byte[][] newWeights = Arrays.copyOf(weights, p + 1);
+            newWeights[p] = new byte[PAGE_SIZE];
+
+            String[][] newNames = Arrays.copyOf(names, p + 1);
+            newNames[p] = new String[PAGE_SIZE];
+
+            weights = newWeights;
+            names = newNames;
+            amounts = newAmounts;
+        }
+    }
+
+}
@@ -0,0 +1,209 @@
+package com.twu.entity;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * An immutable change to the hot search ranking list, published to the
+ * subscribers of the rank changes of the HotSearchService, so that a live
+ * board can be kept up to date without reading the whole list again.
+ *
+ * Hot searches that have been bought keep their positions, and the other
+ * positions are filled in order by the hot searches that haven't been
+ * bought. Ranks are 1-based, and every change is applied to the list as
+ * it is after the previous change:
+ *
+ *   SNAPSHOT  the whole list, replacing everything before it
+ *   ADDED     a new hot search that hasn't been bought, which is inserted
+ *             among the ones that haven't been bought so that it ends up
+ *             at the new rank
+ *   VOTED     the votes of a hot search have changed. If it hasn't been
+ *             bought, it moves among the ones that haven't been bought
+ *             from the old rank to the new rank
+ *   BOUGHT    a hot search has been bought at the new rank. Its old position
+ *             is removed, so that every hot search after it steps up by
+ *             one. It then takes the place of the hot search at the new
+ *             rank if that one has been evicted by the purchase, or is
+ *             inserted at the new rank otherwise
+ */
+public class RankDelta {
+
+
+    public enum Type {
+        SNAPSHOT,
+        ADDED,
+        VOTED,
+        BOUGHT
+    }
+
+
+    private final Type type;
+
+    /**
+     * The whole list of a SNAPSHOT, or null
+     */
+    private final Leaderboard snapshot;
+
+    /**
+     * A copy of the changed hot search after the change, or null for a
+     * SNAPSHOT
+     */
+    private final Leaderboard.Row row;
+
+    private final int oldRank;
+
+    private final int newRank;
+
+    /**
+     * The name of the hot search evicted by a purchase, or null
+     */
+    private final String evicted;
+
+
+    private RankDelta(Type type, Leaderboard snapshot, Leaderboard.Row row, int oldRank, int newRank, String evicted) {
+        this.type = type;
+        this.snapshot = snapshot;
+        this.row = row;
+        this.oldRank = oldRank;
+        this.newRank = newRank;
+        this.evicted = evicted;
+    }
+
+
+    public static RankDelta snapshot(Leaderboard snapshot) {
+        return new RankDelta(Type.SNAPSHOT, snapshot, null, 0, 0, null);
+    }
+
+
+    public static RankDelta added(Leaderboard.Row row, int rank) {
+        return new RankDelta(Type.ADDED, null, row, 0, rank, null);
+    }
+
+
+    public static RankDelta voted(Leaderboard.Row row, int oldRank, int newRank) {
+        return new RankDelta(Type.VOTED, null, row, oldRank, newRank, null);
+    }
+
+
+    public static RankDelta bought(Leaderboard.Row row, int oldRank, int newRank, String evicted) {
+        return new RankDelta(Type.BOUGHT, null, row, oldRank, newRank, evicted);
+    }
+
+
+    public Type getType() {
+        return type;
+    }
+
+    public Leaderboard getSnapshot() {
+        return snapshot;
+    }
+
+    public Leaderboard.Row getRow() {
+        return row;
+    }
+
+    /**
+     * Get the rank before the change, or 0 for a SNAPSHOT or an ADDED
+     */
+    public int getOldRank() {
+        return oldRank;
+    }
+
+    /**
+     * Get the rank after the change, or 0 for a SNAPSHOT
+     */
+    public int getNewRank() {
+        return newRank;
+    }
+
+    /**
+     * Get the name of the hot search evicted by a purchase, or null if
+     * nothing has been evicted
+     */
+    public String getEvicted() {
+        return evicted;
+    }
+
+
+    /**
+     * Apply the change to a copy of the ranking list kept by a subscriber
+     *
+     * @param rows the rows of the ranking list in order, which are updated
+     *             in place
+     */
+    public void applyTo(List<Leaderboard.Row> rows) {
+
+        switch (type) {
+
+            case SNAPSHOT:
+                rows.clear();
+                rows.addAll(snapshot.getRows());
+                break;
+
+            case ADDED:
+                moveUnpinned(rows, -1, newRank - 1, row);
+                break;
+
+            case VOTED:
+                if (row.isPinned())
+                    rows.set(newRank - 1, row);
+                else
+                    moveUnpinned(rows, oldRank - 1, newRank - 1, row);
+                break;
+
+            case BOUGHT:
+                rows.remove(oldRank - 1);
+                if (evicted != null)
+                    rows.set(newRank - 1, row);
+                else
+                    rows.add(newRank - 1, row);
+                break;
+        }
+    }
+
+
+    /**
+     * Move a row that hasn't been bought from one position to another, or
+     * insert it, while the rows that have been bought keep their positions
+     *
+     * @param from the 0-based position of the row, or -1 to insert it
+     * @param to the 0-based position of the row afterwards
+     */
+    private static void moveUnpinned(List<Leaderboard.Row> rows, int from, int to, Leaderboard.Row row) {
+
+        List<Leaderboard.Row> unpinned = new ArrayList<>(rows.size() + 1);
+        int fromUnpinned = -1;
+        int toUnpinned = to;
+
+        for (int i = 0; i < rows.size(); i++) {
+
+            if (rows.get(i).isPinned()) {
+                if (i < to)
+                    toUnpinned--;
+                continue;
+            }
+
+            if (i == from)
+                fromUnpinned = unpinned.size();
+
+            unpinned.add(rows.get(i));
+        }
+
+        if (fromUnpinned >= 0)
+            unpinned.remove(fromUnpinned);
+
+        unpinned.add(toUnpinned, row);
+
+        int next = 0;
+
+        for (int i = 0; i < rows.size(); i++) {
+            if (!rows.get(i).isPinned())
+                rows.set(i, unpinned.get(next++));
+        }
+
+        if (next < unpinned.size())
+            rows.add(unpinned.get(next));
+    }
+
+}
@@ -0,0 +1,48 @@
+package com.twu.entity;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * A counter store that keeps the votes of each hot search in a striped
+ * counter, so that many threads can add votes to the same hot search
+ * without contention, at the cost of an object per hot search
+ */
+public class StripedCounterStore extends PagedCounterStore {
+
+
+    private volatile LongAdder[][] votes = new LongAdder[0][];
+
+
+    @Override
+    public int getVote(int id) {
+        LongAdder adder = votes[id >>> PAGE_BITS][id & PAGE_MASK];
+        return adder == null ? 0 : adder.intValue();
+    }
+
+
+    @Override
+    public int addVotes(int id, int votes) {
+        LongAdder adder = this.votes[id >>> PAGE_BITS][id & PAGE_MASK];
+        adder.add((long) votes * getWeight(id));
+        return adder.intValue();
+    }
+
+
+    @Override
+    public int allocate(String name, int weight) {
+        int id = super.allocate(name, weight);
+        votes[id >>> PAGE_BITS][id & PAGE_MASK] = new LongAdder();
+        return id;
+    }
+
+
+    @Override
+    protected void addVotePage(int page) {
+        LongAdder[][] newVotes = Arrays.copyOf(votes, page + 1);
+        newVotes[page] = new LongAdder[PAGE_SIZE];
+        votes = newVotes;
+    }
+
+}
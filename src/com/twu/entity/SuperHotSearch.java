@@ -6,25 +6,16 @@ package com.twu.entity;
  * that receives the doubled number of votes when a
  * user adds a certain number of votes to it.
  *
+ * The doubling is done by the weight of its slot in
+ * the CounterStore.
+ *
  * Can only be created by admin users
  */
 public class SuperHotSearch extends HotSearch {
 
 
-    public SuperHotSearch(String name) {
-        super(name);
-    }
-
-
-    /**
-     * Add doubled number of votes to this super hot search
-     *
-     * @param vote the number of votes to be added
-     * @return the updated votes of this hot search
-     * @see HotSearch#addVotes(int)
-     */
-    public int addVotes(int vote) {
-        return super.addVotes(vote * 2);
+    public SuperHotSearch(String name, CounterStore store) {
+        super(name, store, 2);
     }
 
 }
@@ -0,0 +1,63 @@
+package com.twu.server;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+
+/**
+ * A pool of direct buffers of the same size, so that the selector loop
+ * doesn't allocate and free native memory for every read and write.
+ *
+ * A connection only holds a buffer while it has a partial request or an
+ * unsent response, so idle connections hold none. Buffers released beyond
+ * the capacity of the pool are left to the garbage collector.
+ *
+ * It is not thread-safe, and must only be used by the selector thread
+ */
+class BufferPool {
+
+
+    private final int bufferSize;
+
+    /**
+     * The maximum number of free buffers kept in the pool
+     */
+    private final int capacity;
+
+    private final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+
+
+    /**
+     * @param bufferSize the size of every buffer in bytes
+     * @param capacity the maximum number of free buffers kept in the pool
+     */
+    BufferPool(int bufferSize, int capacity) {
+        this.bufferSize = bufferSize;
+        this.capacity = capacity;
+    }
+
+
+    /**
+     * Take a cleared buffer from the pool, or allocate one if the pool is empty
+     */
+    ByteBuffer acquire() {
+
+        ByteBuffer buffer = free.pollFirst();
+
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(bufferSize);
+    }
+
+
+    /**
+     * Return a buffer to the pool, after which it must no longer be used
+     */
+    void release(ByteBuffer buffer) {
+
+        if (free.size() >= capacity)
+            return;
+
+        buffer.clear();
+        free.addFirst(buffer);
+    }
+
+}
@@ -0,0 +1,566 @@
+package com.twu.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * A network front-end that serves the requests described in RequestHandler
+ * to many concurrent clients over TCP, with a single selector thread for
+ * all connections instead of a thread per connection.
+ *
+ * The selector thread accepts connections, reads requests into pooled
+ * direct buffers, splits them into lines, and writes the responses. The
+ * requests themselves are served by a small pool of workers, since the
+ * controllers may block on the write-ahead log or on a batch of votes. A
+ * connection hands one request at a time to the workers and doesn't read
+ * more from its socket until the response has been queued, so responses
+ * are sent in the order of the requests, and a client that sends requests
+ * faster than they are served is slowed down by TCP flow control.
+ *
+ * An idle connection holds no buffer, so the memory of tens of thousands
+ * of idle connections is mostly their sockets and selection keys.
+ *
+ * A read-only server, such as the front end of a replica, serves LIST and
+ * logins of existing users, and rejects every request that would change
+ * the hot searches or register a user
+ */
+public class NioServer implements Runnable, Closeable {
+
+
+    /**
+     * The size of every pooled buffer, which is also the maximum length of
+     * a request line in bytes
+     */
+    private static final int BUFFER_SIZE = 4096;
+
+    /**
+     * The maximum number of free buffers kept in the pool
+     */
+    private static final int POOL_CAPACITY = 1024;
+
+    /**
+     * The number of buffers of unsent responses above which a connection
+     * stops reading requests until the client catches up
+     */
+    private static final int MAX_QUEUED_BUFFERS = 16;
+
+
+    private final Selector selector;
+
+    private final ServerSocketChannel server;
+
+    private final boolean readOnly;
+
+    private final ExecutorService workers;
+
+    private final BufferPool pool = new BufferPool(BUFFER_SIZE, POOL_CAPACITY);
+
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    /**
+     * The responses queued by the workers for the selector thread to send
+     */
+    private final Queue<Runnable> completions = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger connectionCount = new AtomicInteger();
+
+    private volatile boolean running = true;
+
+    /**
+     * The thread running the selector loop, or null if it hasn't been run
+     */
+    private volatile Thread loop;
+
+
+    /**
+     * The state of a connection, only touched by the selector thread
+     */
+    private static class Connection {
+
+
+        final SocketChannel channel;
+
+        final SelectionKey key;
+
+        final RequestHandler handler;
+
+        /**
+         * The bytes read but not served yet, or null if there are none
+         */
+        ByteBuffer in;
+
+        /**
+         * The buffers of the responses that haven't been sent yet, or null
+         * if there are none
+         */
+        ArrayDeque<ByteBuffer> out;
+
+        /**
+         * Whether a request of the connection is being served by a worker
+         */
+        boolean busy;
+
+        /**
+         * Whether the connection is closed once its responses have been sent
+         */
+        boolean closing;
+
+
+        Connection(SocketChannel channel, SelectionKey key, RequestHandler handler) {
+            this.channel = channel;
+            this.key = key;
+            this.handler = handler;
+        }
+
+    }
+
+
+    /**
+     * Open the server socket of a server that serves every request, without
+     * serving anything until run
+     *
+     * @see NioServer#NioServer(int, int, boolean)
+     */
+    public NioServer(int port, int workerCount) throws IOException {
+        this(port, workerCount, false);
+    }
+
+
+    /**
+     * Open the server socket, without serving anything until run
+     *
+     * @param port the port to listen on, or 0 for any free port
+     * @param workerCount the number of workers that serve requests
+     * @param readOnly whether requests that change anything are rejected
+     */
+    public NioServer(int port, int workerCount, boolean readOnly) throws IOException {
+
+        this.readOnly = readOnly;
+
+        selector = Selector.open();
+
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port), 1024);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+
+        AtomicInteger workerIndex = new AtomicInteger();
+
+        workers = Executors.newFixedThreadPool(workerCount, r -> {
+            Thread thread = new Thread(r, "nio-worker-" + workerIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+
+    public int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+
+    /**
+     * Run the selector loop on the calling thread until the server is closed
+     */
+    @Override
+    public void run() {
+
+        loop = Thread.currentThread();
+
+        try {
+
+            while (running) {
+
+                selector.select();
+
+                Runnable completion;
+
+                while ((completion = completions.poll()) != null)
+                    completion.run();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+
+                while (keys.hasNext()) {
+
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    if (!key.isValid())
+                        continue;
+
+                    if (key.isAcceptable()) {
+                        try {
+                            accept();
+                        } catch (IOException e) {
+                            System.err.println("Failed to accept a connection: " + e);
+                        }
+                        continue;
+                    }
+
+                    Connection connection = (Connection) key.attachment();
+
+                    try {
+
+                        if (key.isWritable())
+                            flush(connection);
+
+                        if (key.isValid() && key.isReadable())
+                            read(connection);
+
+                    } catch (IOException e) {
+                        close(connection);
+                    }
+                }
+            }
+
+        } catch (IOException | ClosedSelectorException e) {
+            if (running)
+                System.err.println("The server has stopped: " + e);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection)
+                    close((Connection) key.attachment());
+            }
+        }
+    }
+
+
+    /**
+     * Stop serving, close every connection and log out their sessions
+     */
+    @Override
+    public void close() throws IOException {
+
+        running = false;
+        selector.wakeup();
+
+        Thread loop = this.loop;
+
+        try {
+            if (loop != null && loop != Thread.currentThread())
+                loop.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        workers.shutdown();
+
+        try {
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        server.close();
+        selector.close();
+    }
+
+
+    private void accept() throws IOException {
+
+        SocketChannel channel;
+
+        while ((channel = server.accept()) != null) {
+
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            key.attach(new Connection(channel, key, new RequestHandler(readOnly)));
+
+            connectionCount.incrementAndGet();
+        }
+    }
+
+
+    private void read(Connection connection) throws IOException {
+
+        if (connection.in == null)
+            connection.in = pool.acquire();
+
+        if (connection.channel.read(connection.in) < 0) {
+            close(connection);
+            return;
+        }
+
+        dispatch(connection);
+    }
+
+
+    /**
+     * Hand the next complete request of a connection to the workers, if
+     * none of its requests is being served
+     */
+    private void dispatch(Connection connection) {
+
+        if (!connection.busy && !connection.closing) {
+
+            String line = nextLine(connection);
+
+            if (line != null) {
+
+                connection.busy = true;
+
+                try {
+                    workers.execute(() -> serve(connection, line));
+                } catch (RejectedExecutionException e) {
+                    connection.busy = false;
+                    close(connection);
+                    return;
+                }
+
+            } else if (connection.in != null && !connection.in.hasRemaining()) {
+                respond(connection, "ERR request too long\n");
+                connection.closing = true;
+            }
+        }
+
+        updateInterest(connection);
+    }
+
+
+    /**
+     * Serve a request on a worker, and queue its response for the selector
+     * thread
+     */
+    private void serve(Connection connection, String line) {
+
+        String response;
+
+        try {
+            response = connection.handler.handle(line);
+        } catch (RuntimeException e) {
+            response = "ERR internal server error\n";
+        }
+
+        String result = response;
+
+        completions.add(() -> complete(connection, result));
+        selector.wakeup();
+    }
+
+
+    /**
+     * Send the response to a request that has been served, and dispatch the
+     * next request of the connection
+     */
+    private void complete(Connection connection, String response) {
+
+        connection.busy = false;
+
+        if (!connection.channel.isOpen()) {
+            connection.handler.logout();
+            return;
+        }
+
+        respond(connection, response);
+
+        if (connection.handler.isClosed())
+            connection.closing = true;
+
+        try {
+            flush(connection);
+        } catch (IOException e) {
+            close(connection);
+            return;
+        }
+
+        if (connection.channel.isOpen())
+            dispatch(connection);
+    }
+
+
+    /**
+     * Take the next complete line out of the bytes read from a connection,
+     * and give the buffer back to the pool once it is empty
+     *
+     * @return the line without its line terminator, or null if there is no
+     *         complete line
+     */
+    private String nextLine(Connection connection) {
+
+        ByteBuffer in = connection.in;
+
+        if (in == null)
+            return null;
+
+        int end = -1;
+
+        for (int i = 0; i < in.position(); i++) {
+            if (in.get(i) == '\n') {
+                end = i;
+                break;
+            }
+        }
+
+        if (end < 0)
+            return null;
+
+        int length = end > 0 && in.get(end - 1) == '\r' ? end - 1 : end;
+
+        in.flip();
+
+        ByteBuffer bytes = in.duplicate();
+        bytes.limit(length);
+
+        String line = StandardCharsets.UTF_8.decode(bytes).toString();
+
+        in.position(end + 1);
+        in.compact();
+
+        if (in.position() == 0) {
+            pool.release(in);
+            connection.in = null;
+        }
+
+        return line;
+    }
+
+
+    /**
+     * Encode a response into pooled buffers queued on a connection
+     */
+    private void respond(Connection connection, String response) {
+
+        if (connection.out == null)
+            connection.out = new ArrayDeque<>();
+
+        CharBuffer chars = CharBuffer.wrap(response);
+        boolean encoded = false;
+
+        encoder.reset();
+
+        while (true) {
+
+            ByteBuffer buffer = pool.acquire();
+
+            if (!encoded)
+                encoded = !encoder.encode(chars, buffer, true).isOverflow();
+
+            boolean done = encoded && !encoder.flush(buffer).isOverflow();
+
+            buffer.flip();
+            connection.out.add(buffer);
+
+            if (done)
+                return;
+        }
+    }
+
+
+    /**
+     * Write as much of the queued responses of a connection as the socket
+     * takes without blocking
+     */
+    private void flush(Connection connection) throws IOException {
+
+        ArrayDeque<ByteBuffer> out = connection.out;
+
+        while (out != null && !out.isEmpty()) {
+
+            ByteBuffer buffer = out.peekFirst();
+
+            connection.channel.write(buffer);
+
+            if (buffer.hasRemaining())
+                break;
+
+            pool.release(out.pollFirst());
+        }
+
+        if (out != null && out.isEmpty()) {
+
+            connection.out = null;
+
+            if (connection.closing) {
+                close(connection);
+                return;
+            }
+        }
+
+        updateInterest(connection);
+    }
+
+
+    /**
+     * Read while the connection can take another request, and write while
+     * it has unsent responses
+     */
+    private void updateInterest(Connection connection) {
+
+        if (!connection.key.isValid())
+            return;
+
+        int queued = connection.out == null ? 0 : connection.out.size();
+        int ops = 0;
+
+        if (!connection.busy && !connection.closing && queued < MAX_QUEUED_BUFFERS)
+            ops |= SelectionKey.OP_READ;
+
+        if (queued > 0)
+            ops |= SelectionKey.OP_WRITE;
+
+        connection.key.interestOps(ops);
+    }
+
+
+    private void close(Connection connection) {
+
+        if (!connection.channel.isOpen())
+            return;
+
+        connection.key.cancel();
+
+        try {
+            connection.channel.close();
+        } catch (IOException e) {
+            // the connection is gone either way
+        }
+
+        if (connection.in != null)
+            pool.release(connection.in);
+
+        if (connection.out != null) {
+            for (ByteBuffer buffer : connection.out)
+                pool.release(buffer);
+        }
+
+        connection.in = null;
+        connection.out = null;
+
+        if (!connection.busy)
+            connection.handler.logout();
+
+        connectionCount.decrementAndGet();
+    }
+
+}
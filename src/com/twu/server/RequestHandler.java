@@ -0,0 +1,311 @@
+package com.twu.server;
+
+import com.twu.client.UserOption;
+import com.twu.controller.HotSearchController;
+import com.twu.controller.UserController;
+import com.twu.entity.AdminUser;
+import com.twu.entity.Leaderboard;
+import com.twu.entity.RegularUser;
+import com.twu.entity.User;
+import com.twu.service.PermissionManager;
+import com.twu.service.Session;
+import com.twu.service.SessionManager;
+
+import java.util.List;
+
+
+/**
+ * The RequestHandler serves the requests of a single network connection,
+ * one line at a time, with the same controllers, sessions and permissions
+ * as the console app.
+ *
+ * Every request is a line of a command and its arguments separated by
+ * spaces, with the name of a hot search last, so that it may contain
+ * spaces itself:
+ *
+ *   LOGIN username              log in as a regular user, registering new ones
+ *   ADMIN username password     log in as an admin user
+ *   LIST [offset [limit]]       list the ranking list from offset, 10 by default
+ *   ADD name                    add a hot search
+ *   SUPER name                  add a super hot search
+ *   VOTE votes name             vote for a hot search
+ *   BUY rank amount name        buy a rank on the ranking list for a hot search
+ *   LOGOUT                      log out
+ *   QUIT                        log out and close the connection
+ *
+ * Every response starts with a line of "OK" or "ERR" followed by a reason.
+ * The response to LIST is "OK" and the number of rows, followed by a line
+ * of the rank, the hotness and the name of every row.
+ *
+ * A read-only handler, which serves a replica, rejects ADD, SUPER, VOTE
+ * and BUY, and LOGIN of a username that isn't registered, since the
+ * replica only changes by applying the log of its primary.
+ *
+ * It is not thread-safe, and a connection must only hand it one request
+ * at a time
+ */
+class RequestHandler {
+
+
+    /**
+     * The number of rows listed when no limit is given
+     */
+    private static final int DEFAULT_LIST_SIZE = 10;
+
+    /**
+     * The maximum number of rows listed by a single request
+     */
+    private static final int MAX_LIST_SIZE = 1000;
+
+    private static final String READ_ONLY = "ERR read-only server\n";
+
+
+    private final HotSearchController hotSearchController = HotSearchController.getInstance();
+
+    private final UserController userController = UserController.getInstance();
+
+    private final boolean readOnly;
+
+
+    /**
+     * The copy of the session established by this connection, or null if
+     * it hasn't logged in
+     */
+    private Session session;
+
+    private boolean closed;
+
+
+    /**
+     * @param readOnly whether requests that change anything are rejected
+     */
+    RequestHandler(boolean readOnly) {
+        this.readOnly = readOnly;
+    }
+
+
+    /**
+     * Serve a request
+     *
+     * @param line the line of the request without its line terminator
+     * @return the lines of the response, each followed by a line feed
+     */
+    String handle(String line) {
+
+        String[] parts = line.trim().split(" +", 2);
+        String command = parts[0].toUpperCase();
+        String arguments = parts.length > 1 ? parts[1] : "";
+
+        try {
+
+            switch (command) {
+                case "LOGIN":
+                    return login(arguments);
+                case "ADMIN":
+                    return loginAdmin(arguments);
+                case "LIST":
+                    return list(arguments);
+                case "ADD":
+                    return readOnly ? READ_ONLY : add(arguments, false);
+                case "SUPER":
+                    return readOnly ? READ_ONLY : add(arguments, true);
+                case "VOTE":
+                    return readOnly ? READ_ONLY : vote(arguments);
+                case "BUY":
+                    return readOnly ? READ_ONLY : buy(arguments);
+                case "LOGOUT":
+                    logout();
+                    return "OK\n";
+                case "QUIT":
+                    logout();
+                    closed = true;
+                    return "OK bye\n";
+                default:
+                    return "ERR unknown command\n";
+            }
+
+        } catch (NumberFormatException e) {
+            return "ERR invalid number\n";
+        }
+    }
+
+
+    /**
+     * Check whether the connection should be closed after the response to
+     * the last request has been sent
+     */
+    boolean isClosed() {
+        return closed;
+    }
+
+
+    /**
+     * Destroy the session of the connection, if it has logged in
+     */
+    void logout() {
+
+        if (session != null)
+            SessionManager.getInstance().destroySession(session);
+
+        session = null;
+    }
+
+
+    private String login(String username) {
+
+        if (username.isEmpty() || username.contains(" "))
+            return "ERR invalid username\n";
+
+        if (userController.existsAdminUser(username))
+            return "ERR username not available\n";
+
+        User user = userController.findOneRegularUserByUsername(username);
+
+        if (user == null && readOnly)
+            return "ERR unknown user on a read-only server\n";
+
+        if (user == null)
+            user = userController.addRegularUser(username);
+
+        if (user == null)
+            return "ERR internal server error\n";
+
+        return establish(user);
+    }
+
+
+    private String loginAdmin(String arguments) {
+
+        String[] parts = arguments.split(" +", 2);
+
+        if (parts.length < 2)
+            return "ERR invalid arguments\n";
+
+        AdminUser adminUser = userController.findOneAdminUserByUsername(parts[0]);
+
+        if (adminUser == null || !adminUser.getPassword().equals(parts[1]))
+            return "ERR wrong username or password\n";
+
+        return establish(adminUser);
+    }
+
+
+    private String establish(User user) {
+
+        logout();
+        session = SessionManager.getInstance().createSession(user);
+
+        if (user instanceof RegularUser)
+            return "OK " + ((RegularUser) user).getVotes() + " votes\n";
+
+        return "OK\n";
+    }
+
+
+    private String list(String arguments) {
+
+        if (!canAccess(UserOption.SEE_HOT_SEARCHES))
+            return "ERR permission denied\n";
+
+        String[] parts = arguments.isEmpty() ? new String[0] : arguments.split(" +");
+
+        int offset = parts.length > 0 ? Integer.parseInt(parts[0]) : 0;
+        int limit = parts.length > 1 ? Integer.parseInt(parts[1]) : DEFAULT_LIST_SIZE;
+
+        if (offset < 0 || limit < 0)
+            return "ERR invalid arguments\n";
+
+        List<Leaderboard.Row> rows = hotSearchController.findRange(offset, Math.min(limit, MAX_LIST_SIZE));
+
+        StringBuilder response = new StringBuilder("OK ").append(rows.size()).append('\n');
+
+        for (int i = 0; i < rows.size(); i++) {
+            Leaderboard.Row row = rows.get(i);
+            response.append(offset + i + 1).append(' ').append(row.getHotness()).append(' ').append(row.getName()).append('\n');
+        }
+
+        return response.toString();
+    }
+
+
+    private String add(String name, boolean superHot) {
+
+        if (!canAccess(superHot ? UserOption.ADD_SUPER_HOT_SEARCH : UserOption.ADD_HOT_SEARCH))
+            return "ERR permission denied\n";
+
+        if (name.isEmpty())
+            return "ERR invalid name\n";
+
+        boolean added = superHot ? hotSearchController.addSuperHotSearch(name) : hotSearchController.addHotSearch(name);
+
+        return added ? "OK\n" : "ERR hot search exists\n";
+    }
+
+
+    private String vote(String arguments) {
+
+        if (!canAccess(UserOption.VOTE_HOT_SEARCH))
+            return "ERR permission denied\n";
+
+        String[] parts = arguments.split(" +", 2);
+
+        if (parts.length < 2)
+            return "ERR invalid arguments\n";
+
+        int votes = Integer.parseInt(parts[0]);
+
+        if (votes <= 0)
+            return "ERR invalid votes\n";
+
+        if (!hotSearchController.exists(parts[1]))
+            return "ERR hot search not found\n";
+
+        if (!hotSearchController.voteHotSearch(parts[1], session.getUser().getUsername(), votes))
+            return "ERR not enough votes\n";
+
+        return "OK\n";
+    }
+
+
+    private String buy(String arguments) {
+
+        if (!canAccess(UserOption.BUY_HOT_SEARCH))
+            return "ERR permission denied\n";
+
+        if (!hotSearchController.canBuyHotSearches())
+            return "ERR buying is not supported in partitioned mode\n";
+
+        String[] parts = arguments.split(" +", 3);
+
+        if (parts.length < 3)
+            return "ERR invalid arguments\n";
+
+        int rank = Integer.parseInt(parts[0]);
+        int amount = Integer.parseInt(parts[1]);
+
+        if (rank < 1 || amount <= 0)
+            return "ERR invalid arguments\n";
+
+        if (!hotSearchController.exists(parts[2]))
+            return "ERR hot search not found\n";
+
+        switch (hotSearchController.buyHotSearch(parts[2], rank, amount)) {
+            case 1:
+                return "OK\n";
+            case 0:
+                return "ERR outbid\n";
+            default:
+                return "ERR purchase failed\n";
+        }
+    }
+
+
+    /**
+     * Check whether the connection has logged in as a user that can access
+     * a feature
+     */
+    private boolean canAccess(UserOption option) {
+        return session != null && PermissionManager.getInstance().canAccessFeature(session.getUser()).test(option);
+    }
+
+}
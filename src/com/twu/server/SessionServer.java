@@ -0,0 +1,237 @@
+package com.twu.server;
+
+import com.twu.client.App;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * A network server that runs the console app for every client that
+ * connects, with the same pages and prompts as on the console, such as
+ * over telnet. Every connection gets an App of its own with its own
+ * terminal and session, which runs on a thread of its own and blocks on
+ * the input of the client.
+ *
+ * Since most sessions are idle, waiting for the user to type, the threads
+ * should be cheap. On a runtime with virtual threads every session runs on
+ * a virtual thread, which takes a few kilobytes while blocked. Otherwise it
+ * runs on a platform thread with a small stack, and at most
+ * MAX_PLATFORM_SESSIONS sessions run at a time, so that idle clients can't
+ * exhaust the memory and threads of the process. Clients that connect
+ * beyond the limit are disconnected right away.
+ *
+ * Unlike the NioServer, it holds a thread and the buffers of a reader and
+ * a writer for every connection, in return for reusing the blocking flow
+ * of the pages as it is
+ */
+public class SessionServer implements Runnable, Closeable {
+
+
+    /**
+     * The stack size of the platform threads that run sessions, which is
+     * enough for the pages and the controllers they call
+     */
+    private static final long PLATFORM_STACK_SIZE = 256 * 1024;
+
+
+    /**
+     * The maximum number of sessions that run at a time on platform threads,
+     * which reserve up to 256 MB of stacks in total
+     */
+    public static final int MAX_PLATFORM_SESSIONS = 1024;
+
+
+    private final ServerSocket server;
+
+    private final ExecutorService executor;
+
+    /**
+     * The sockets of the sessions that are running
+     */
+    private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+
+    private volatile boolean running = true;
+
+
+    /**
+     * Open the server socket with the default executor of sessions, without
+     * serving anything until run
+     *
+     * @param port the port to listen on, or 0 for any free port
+     * @see SessionServer#newSessionExecutor()
+     */
+    public SessionServer(int port) throws IOException {
+        this(port, newSessionExecutor());
+    }
+
+
+    /**
+     * Open the server socket, without serving anything until run
+     *
+     * @param port the port to listen on, or 0 for any free port
+     * @param executor the executor that runs every session as a task of its
+     *                 own, which is shut down when the server is closed
+     */
+    public SessionServer(int port, ExecutorService executor) throws IOException {
+
+        this.executor = executor;
+
+        server = new ServerSocket();
+        server.bind(new InetSocketAddress(port), 1024);
+    }
+
+
+    /**
+     * Create an executor that runs every task on a new virtual thread if the
+     * runtime supports them, or on a new platform thread with a small stack
+     * otherwise. Virtual threads are looked up at run time since the code is
+     * compiled for Java 11, so they are only used on Java 21 or later. The
+     * platform threads are capped at MAX_PLATFORM_SESSIONS, and tasks beyond
+     * that are rejected
+     */
+    public static ExecutorService newSessionExecutor() {
+
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            // virtual threads aren't supported by this runtime
+        }
+
+        AtomicInteger index = new AtomicInteger();
+
+        ThreadFactory factory = r -> {
+            Thread thread = new Thread(null, r, "session-" + index.incrementAndGet(), PLATFORM_STACK_SIZE);
+            thread.setDaemon(true);
+            return thread;
+        };
+
+        return new ThreadPoolExecutor(0, MAX_PLATFORM_SESSIONS, 60, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                factory);
+    }
+
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+
+    public int getSessionCount() {
+        return sockets.size();
+    }
+
+
+    /**
+     * Accept clients on the calling thread until the server is closed
+     */
+    @Override
+    public void run() {
+
+        while (running) {
+
+            Socket socket;
+
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                if (running)
+                    System.err.println("Failed to accept a client: " + e);
+                continue;
+            }
+
+            sockets.add(socket);
+
+            try {
+                executor.execute(() -> serve(socket));
+            } catch (RejectedExecutionException e) {
+                sockets.remove(socket);
+                reject(socket);
+            }
+        }
+    }
+
+
+    /**
+     * Stop accepting clients, disconnect the running sessions, and wait for
+     * them to log out
+     */
+    @Override
+    public void close() throws IOException {
+
+        running = false;
+        server.close();
+
+        for (Socket socket : sockets)
+            close(socket);
+
+        executor.shutdown();
+
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**
+     * Run the app for a client until it disconnects
+     */
+    private void serve(Socket socket) {
+        try {
+
+            App app = new App(new BufferedInputStream(socket.getInputStream()),
+                    new BufferedOutputStream(socket.getOutputStream()), StandardCharsets.UTF_8);
+
+            app.start();
+
+        } catch (IllegalStateException | UncheckedIOException | IOException e) {
+            // the client has disconnected
+        } finally {
+            sockets.remove(socket);
+            close(socket);
+        }
+    }
+
+
+    /**
+     * Tell a client that there are too many sessions, and disconnect it
+     */
+    private static void reject(Socket socket) {
+        try {
+            byte[] message = "Too many sessions, please try again later\r\n".getBytes(StandardCharsets.UTF_8);
+            socket.getOutputStream().write(message);
+        } catch (IOException e) {
+            // the client has disconnected
+        } finally {
+            close(socket);
+        }
+    }
+
+
+    private static void close(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // the socket is gone either way
+        }
+    }
+
+}
@@ -0,0 +1,207 @@
+package com.twu.service;
+
+import com.twu.service.RankTree.Node;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * The AuctionHouse collects bids for positions on the ranking list and
+ * settles them in batches.
+ *
+ * Each position that is being bid for has an order book of pending bids,
+ * ordered from the highest offered price to the lowest, and then by the
+ * order in which the bids were placed. The current winning bid of each
+ * position is the amount paid for the hot search pinned there, which is
+ * read from the ranking at settlement, because positions shift when a
+ * buyer leaves its original position.
+ *
+ * Placing a bid doesn't need the ranking lock. The thread that holds the
+ * lock settles all pending bids, highest first, so that when two users bid
+ * for the same position at the same time the higher bid wins and the other
+ * one is rejected against the new price
+ */
+class AuctionHouse {
+
+
+    /**
+     * Orders pending bids from the highest offered price to the lowest,
+     * and then by the order in which they were placed
+     */
+    private static final Comparator<Bid> BEST_FIRST =
+            Comparator.comparingLong((Bid bid) -> -bid.offered).thenComparingLong(bid -> bid.sequence);
+
+
+    /**
+     * The result of a bid that hasn't been settled yet
+     */
+    static final int UNSETTLED = Integer.MIN_VALUE;
+
+
+    /**
+     * The order books of the positions being bid for, keyed by the 0-based
+     * position. The settling thread removes a book from this map and closes
+     * it before it settles the bids in it, and a bid is only added to a
+     * book that is still open, under the monitor of the book
+     */
+    private final ConcurrentNavigableMap<Integer, Book> books = new ConcurrentSkipListMap<>();
+
+
+    /**
+     * Gives each bid the order in which it was placed
+     */
+    private final AtomicLong sequence = new AtomicLong();
+
+
+    /**
+     * Place a bid for a position in O(log n) time
+     *
+     * @param node the handle of the hot search to buy the position for
+     * @param index the 0-based position to be bought
+     * @param amount the amount charged in this purchase
+     * @return the bid, whose result is available after it is settled
+     */
+    Bid place(Node node, int index, int amount) {
+
+        Bid bid = new Bid(node, index, amount, sequence.incrementAndGet());
+
+        Book book;
+
+        // if the book has just been taken by the settling thread, the bid
+        // goes into a new one
+        do {
+            book = books.computeIfAbsent(index, k -> new Book());
+        } while (!book.add(bid));
+
+        return bid;
+    }
+
+
+    /**
+     * Settle all pending bids, position by position and highest bid first.
+     * The caller must hold the lock of the ranking
+     *
+     * @param settlement the settlement of a single bid against the ranking
+     */
+    void settleAll(Settlement settlement) {
+
+        Map.Entry<Integer, Book> entry;
+
+        while ((entry = books.pollFirstEntry()) != null) {
+
+            PriorityQueue<Bid> bids = entry.getValue().close();
+            Bid bid;
+
+            while ((bid = bids.poll()) != null)
+                bid.result = settlement.settle(bid.node, bid.index, bid.amount);
+        }
+    }
+
+
+    /**
+     * Settles a single bid against the ranking
+     */
+    interface Settlement {
+
+
+        /**
+         * @param node the handle of the hot search to buy the position for
+         * @param index the 0-based position to be bought
+         * @param amount the amount charged in this purchase
+         * @return the result code of the purchase
+         * @see HotSearchService#buyHotSearch(String, int, int)
+         */
+        int settle(Node node, int index, int amount);
+
+    }
+
+
+    /**
+     * The pending bids for a single position, which stop being accepted once
+     * the book has been taken for settlement
+     */
+    private static class Book {
+
+
+        private final PriorityQueue<Bid> bids = new PriorityQueue<>(BEST_FIRST);
+
+        private boolean closed;
+
+
+        /**
+         * Add a bid to the book
+         *
+         * @return false if the book has been closed and the bid not added
+         */
+        synchronized boolean add(Bid bid) {
+
+            if (closed)
+                return false;
+
+            bids.add(bid);
+            return true;
+        }
+
+
+        /**
+         * Stop accepting bids
+         *
+         * @return the bids in the book, which no one else modifies from now on
+         */
+        synchronized PriorityQueue<Bid> close() {
+            closed = true;
+            return bids;
+        }
+
+    }
+
+
+    /**
+     * A bid for a position on the ranking list
+     */
+    static class Bid {
+
+
+        final Node node;
+
+        final int index;
+
+        final int amount;
+
+        /**
+         * The total price offered at the time the bid was placed, used
+         * to order the bids of a position
+         */
+        final long offered;
+
+        final long sequence;
+
+        /**
+         * The result code of the purchase, or UNSETTLED. Written under the
+         * ranking lock and read by the bidder after it has acquired the same
+         * lock
+         */
+        int result = UNSETTLED;
+
+
+        Bid(Node node, int index, int amount, long sequence) {
+            this.node = node;
+            this.index = index;
+            this.amount = amount;
+            this.offered = (long) node.entry.getAmount() + amount;
+            this.sequence = sequence;
+        }
+
+
+        int getResult() {
+            return result;
+        }
+
+    }
+
+}
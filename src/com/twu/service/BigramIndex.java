@@ -0,0 +1,318 @@
+package com.twu.service;
+
+import com.twu.service.RankTree.Node;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * The inverted index of hot searches by the chars and the pairs of adjacent
+ * chars of their case-folded names, which finds the hot searches whose
+ * names contain a term anywhere, such as a word in the middle of a Chinese
+ * title.
+ *
+ * Every indexed hot search gets a document id in the order it is added, so
+ * every posting list is appended to in ascending order and is stored as the
+ * varint gaps between the ids, mostly one or two bytes per id. A term of two
+ * or more chars intersects the lists of its bigrams, starting from the
+ * shortest, and a term of one char reads the list of the char. The
+ * candidates are verified against their full names, since having all the
+ * bigrams of a term doesn't mean having them adjacent, and then put in the
+ * order of the ranking list as described in RankUtil, which walks the top of
+ * the ranking list instead when there are many candidates.
+ *
+ * Removing a hot search only forgets its document, and the lists are rebuilt
+ * once the forgotten documents outnumber the indexed ones.
+ *
+ * It is not thread-safe, and must only be used under the ranking lock
+ */
+class BigramIndex {
+
+
+    /**
+     * The indexed hot searches by their document ids, with null for the ones
+     * that have been removed
+     */
+    private final List<Node> documents = new ArrayList<>();
+
+    /**
+     * The case-folded names of the documents, for verifying the candidates
+     */
+    private final List<String> keys = new ArrayList<>();
+
+    /**
+     * The document ids by the case-folded names of the indexed hot searches
+     */
+    private final Map<String, Integer> ids = new HashMap<>();
+
+    private final Map<Long, PostingList> postings = new HashMap<>();
+
+    private int removed;
+
+
+    /**
+     * Index a hot search by the case-folded key of its name
+     */
+    void put(String key, Node node) {
+
+        Integer existing = ids.get(key);
+
+        if (existing != null) {
+            documents.set(existing, node);
+            return;
+        }
+
+        int id = documents.size();
+
+        documents.add(node);
+        keys.add(key);
+        ids.put(key, id);
+
+        for (int i = 0; i < key.length(); i++) {
+
+            posting(unigram(key.charAt(i))).add(id);
+
+            if (i + 1 < key.length())
+                posting(bigram(key.charAt(i), key.charAt(i + 1))).add(id);
+        }
+    }
+
+
+    /**
+     * Remove a hot search by the case-folded key of its name
+     */
+    void remove(String key) {
+
+        Integer id = ids.remove(key);
+
+        if (id == null)
+            return;
+
+        documents.set(id, null);
+        keys.set(id, null);
+
+        if (++removed > ids.size())
+            rebuild();
+    }
+
+
+    /**
+     * Find the hot searches whose keys contain a term
+     *
+     * @param term the case-folded term, which must not be empty
+     * @param k the maximum number of hot searches to be found
+     * @param ranking the ranking that orders the hot searches
+     * @return the first k matching hot searches in the order of the ranking
+     *         list, or all of them if there are fewer than k
+     */
+    List<Node> findTop(String term, int k, HotSearchRanking ranking) {
+
+        if (k == 0)
+            return new ArrayList<>();
+
+        int[] candidates = candidates(term);
+
+        long threshold = RankUtil.threshold(k, ranking);
+
+        if (candidates.length > threshold) {
+
+            List<Node> top = RankUtil.walk(key -> key.contains(term), k, ranking, threshold);
+
+            if (top != null)
+                return top;
+        }
+
+        List<Node> matches = new ArrayList<>();
+
+        for (int id : candidates) {
+            if (keys.get(id) != null && keys.get(id).contains(term))
+                matches.add(documents.get(id));
+        }
+
+        return RankUtil.sort(matches, k, ranking);
+    }
+
+
+    /**
+     * Find the ids of the documents that have every char or bigram of a term
+     */
+    private int[] candidates(String term) {
+
+        if (term.length() == 1) {
+            PostingList list = postings.get(unigram(term.charAt(0)));
+            return list == null ? new int[0] : list.toArray();
+        }
+
+        PostingList[] lists = new PostingList[term.length() - 1];
+
+        for (int i = 0; i < lists.length; i++) {
+
+            lists[i] = postings.get(bigram(term.charAt(i), term.charAt(i + 1)));
+
+            if (lists[i] == null)
+                return new int[0];
+        }
+
+        Arrays.sort(lists, Comparator.comparingInt(list -> list.size));
+
+        int[] ids = lists[0].toArray();
+        int count = ids.length;
+
+        for (int i = 1; i < lists.length && count > 0; i++)
+            count = lists[i].retain(ids, count);
+
+        return Arrays.copyOf(ids, count);
+    }
+
+
+    /**
+     * Index the hot searches that haven't been removed again from scratch,
+     * so that the posting lists no longer carry removed documents
+     */
+    private void rebuild() {
+
+        List<Node> oldDocuments = new ArrayList<>(documents);
+        List<String> oldKeys = new ArrayList<>(keys);
+
+        documents.clear();
+        keys.clear();
+        ids.clear();
+        postings.clear();
+        removed = 0;
+
+        for (int i = 0; i < oldKeys.size(); i++) {
+            if (oldKeys.get(i) != null)
+                put(oldKeys.get(i), oldDocuments.get(i));
+        }
+    }
+
+
+    private PostingList posting(long term) {
+        return postings.computeIfAbsent(term, t -> new PostingList());
+    }
+
+
+    private static long unigram(char c) {
+        return 1L << 32 | c;
+    }
+
+
+    private static long bigram(char first, char second) {
+        return (long) first << 16 | second;
+    }
+
+
+    /**
+     * An ascending list of document ids, stored as the varint gaps between
+     * them
+     */
+    private static class PostingList {
+
+
+        private byte[] bytes = new byte[4];
+
+        private int length;
+
+        private int last = -1;
+
+        private int size;
+
+
+        /**
+         * Append a document id if it is greater than the last one, which
+         * skips a repeated char or bigram of the same name
+         */
+        void add(int id) {
+
+            if (id <= last)
+                return;
+
+            int gap = id - last;
+            last = id;
+            size++;
+
+            if (length + 5 > bytes.length)
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+
+            while ((gap & ~0x7f) != 0) {
+                bytes[length++] = (byte) ((gap & 0x7f) | 0x80);
+                gap >>>= 7;
+            }
+
+            bytes[length++] = (byte) gap;
+        }
+
+
+        int[] toArray() {
+
+            int[] ids = new int[size];
+            int id = -1;
+            int position = 0;
+
+            for (int i = 0; i < size; i++) {
+
+                int gap = 0;
+                int b;
+
+                for (int shift = 0; ; shift += 7) {
+                    b = bytes[position++];
+                    gap |= (b & 0x7f) << shift;
+                    if ((b & 0x80) == 0)
+                        break;
+                }
+
+                id += gap;
+                ids[i] = id;
+            }
+
+            return ids;
+        }
+
+
+        /**
+         * Keep only the ids of a sorted array that are also in this list, by
+         * merging them in one pass over this list
+         *
+         * @param ids the ascending ids, which are compacted in place
+         * @param count the number of ids in the array
+         * @return the number of ids that have been kept
+         */
+        int retain(int[] ids, int count) {
+
+            int kept = 0;
+            int next = 0;
+            int id = -1;
+            int position = 0;
+
+            for (int i = 0; i < size && next < count; i++) {
+
+                int gap = 0;
+                int b;
+
+                for (int shift = 0; ; shift += 7) {
+                    b = bytes[position++];
+                    gap |= (b & 0x7f) << shift;
+                    if ((b & 0x80) == 0)
+                        break;
+                }
+
+                id += gap;
+
+                while (next < count && ids[next] < id)
+                    next++;
+
+                if (next < count && ids[next] == id)
+                    ids[kept++] = ids[next++];
+            }
+
+            return kept;
+        }
+
+    }
+
+}
@@ -0,0 +1,345 @@
+package com.twu.service;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+
+/**
+ * The binary format that whole ranking lists are exported in and imported
+ * from, one block of hot searches at a time so that boards of any size are
+ * processed in constant memory.
+ *
+ * The stream starts with the magic bytes "HSBD" and a format version byte,
+ * followed by blocks, and ends with an empty block. A block is laid out as:
+ *
+ *   varint  the number of hot searches n, up to BLOCK_SIZE
+ *   the dictionary of the names of the block, sorted by their UTF-8 bytes,
+ *   each as a varint number of bytes shared with the previous name, a
+ *   varint number of the remaining bytes and the remaining bytes
+ *   n hot searches in the order of the ranking list, each as a varint index
+ *   into the dictionary, a byte of flags, varint votes and varint amount
+ *   int     the CRC32 of the block up to here
+ *
+ * Sorting the dictionary makes names that share a prefix neighbours, so the
+ * prefix is stored only once
+ */
+class BoardFormat {
+
+
+    private static final byte[] MAGIC = { 'H', 'S', 'B', 'D' };
+
+    private static final int VERSION = 1;
+
+    /**
+     * The maximum number of hot searches in a block
+     */
+    static final int BLOCK_SIZE = 4096;
+
+    static final byte SUPER_HOT = 1;
+
+    static final byte PINNED = 2;
+
+
+    /**
+     * A hot search as it is stored in the format
+     */
+    static class Entry {
+
+
+        final String name;
+
+        /**
+         * A combination of SUPER_HOT and PINNED
+         */
+        final byte flags;
+
+        final int votes;
+
+        final int amount;
+
+
+        Entry(String name, byte flags, int votes, int amount) {
+            this.name = name;
+            this.flags = flags;
+            this.votes = votes;
+            this.amount = amount;
+        }
+
+    }
+
+
+    /**
+     * Writes hot searches in the order of the ranking list, a block at a time
+     */
+    static class Writer {
+
+
+        private final OutputStream out;
+
+        private final List<Entry> entries = new ArrayList<>(BLOCK_SIZE);
+
+        /**
+         * The block being encoded, reused for every block
+         */
+        private final ByteArrayOutputStream block = new ByteArrayOutputStream();
+
+        private final CRC32 crc = new CRC32();
+
+
+        Writer(OutputStream out) throws IOException {
+            this.out = out;
+            out.write(MAGIC);
+            out.write(VERSION);
+        }
+
+
+        /**
+         * Write a hot search after the ones that have been written
+         */
+        void write(Entry entry) throws IOException {
+
+            entries.add(entry);
+
+            if (entries.size() == BLOCK_SIZE)
+                writeBlock();
+        }
+
+
+        /**
+         * Write the remaining hot searches and the end of the stream, and
+         * flush the stream
+         */
+        void finish() throws IOException {
+
+            if (!entries.isEmpty())
+                writeBlock();
+
+            writeBlock();
+            out.flush();
+        }
+
+
+        private void writeBlock() throws IOException {
+
+            int count = entries.size();
+
+            byte[][] names = new byte[count][];
+            Integer[] order = new Integer[count];
+
+            for (int i = 0; i < count; i++) {
+                names[i] = entries.get(i).name.getBytes(StandardCharsets.UTF_8);
+                order[i] = i;
+            }
+
+            Arrays.sort(order, (a, b) -> compare(names[a], names[b]));
+
+            int[] dictionaryIndex = new int[count];
+
+            block.reset();
+            writeVarint(block, count);
+
+            byte[] previous = new byte[0];
+
+            for (int i = 0; i < count; i++) {
+
+                byte[] name = names[order[i]];
+                int shared = sharedPrefix(previous, name);
+
+                writeVarint(block, shared);
+                writeVarint(block, name.length - shared);
+                block.write(name, shared, name.length - shared);
+
+                dictionaryIndex[order[i]] = i;
+                previous = name;
+            }
+
+            for (int i = 0; i < count; i++) {
+
+                Entry entry = entries.get(i);
+
+                writeVarint(block, dictionaryIndex[i]);
+                block.write(entry.flags);
+                writeVarint(block, entry.votes);
+                writeVarint(block, entry.amount);
+            }
+
+            crc.reset();
+            crc.update(block.toByteArray());
+
+            int checksum = (int) crc.getValue();
+
+            block.write(checksum >>> 24);
+            block.write(checksum >>> 16);
+            block.write(checksum >>> 8);
+            block.write(checksum);
+
+            block.writeTo(out);
+
+            entries.clear();
+        }
+
+    }
+
+
+    /**
+     * Reads hot searches in the order of the ranking list, a block at a time
+     */
+    static class Reader {
+
+
+        private final CheckedInputStream in;
+
+        private final DataInputStream data;
+
+
+        Reader(InputStream in) throws IOException {
+
+            this.in = new CheckedInputStream(new BufferedInputStream(in), new CRC32());
+            this.data = new DataInputStream(this.in);
+
+            byte[] magic = new byte[MAGIC.length];
+            data.readFully(magic);
+
+            if (!Arrays.equals(magic, MAGIC))
+                throw new IOException("not a hot search board");
+
+            int version = data.readUnsignedByte();
+
+            if (version != VERSION)
+                throw new IOException("unsupported board version: " + version);
+        }
+
+
+        /**
+         * Read the next block after verifying its checksum
+         *
+         * @return the hot searches of the block, or an empty list at the end
+         *         of the stream
+         * @throws IOException if the stream ends early or a block is corrupted
+         */
+        List<Entry> readBlock() throws IOException {
+
+            in.getChecksum().reset();
+
+            int count = readVarint();
+
+            if (count < 0 || count > BLOCK_SIZE)
+                throw new IOException("corrupted block");
+
+            String[] dictionary = new String[count];
+            byte[] previous = new byte[0];
+
+            for (int i = 0; i < count; i++) {
+
+                int shared = readVarint();
+                int rest = readVarint();
+
+                if (shared < 0 || shared > previous.length || rest < 0)
+                    throw new IOException("corrupted block");
+
+                byte[] name = Arrays.copyOf(previous, shared + rest);
+                data.readFully(name, shared, rest);
+
+                dictionary[i] = new String(name, StandardCharsets.UTF_8);
+                previous = name;
+            }
+
+            List<Entry> entries = new ArrayList<>(count);
+
+            for (int i = 0; i < count; i++) {
+
+                int index = readVarint();
+
+                if (index < 0 || index >= count)
+                    throw new IOException("corrupted block");
+
+                byte flags = data.readByte();
+
+                entries.add(new Entry(dictionary[index], flags, readVarint(), readVarint()));
+            }
+
+            int expected = (int) in.getChecksum().getValue();
+
+            if (data.readInt() != expected)
+                throw new IOException("checksum mismatch");
+
+            return entries;
+        }
+
+
+        private int readVarint() throws IOException {
+
+            int value = 0;
+
+            for (int shift = 0; shift < 35; shift += 7) {
+
+                int b = data.read();
+
+                if (b < 0)
+                    throw new EOFException();
+
+                value |= (b & 0x7f) << shift;
+
+                if ((b & 0x80) == 0)
+                    return value;
+            }
+
+            throw new IOException("malformed varint");
+        }
+
+    }
+
+
+    /**
+     * Write an int as an unsigned LEB128 varint
+     */
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+
+        out.write(value);
+    }
+
+
+    private static int sharedPrefix(byte[] a, byte[] b) {
+
+        int n = Math.min(a.length, b.length);
+        int i = 0;
+
+        while (i < n && a[i] == b[i])
+            i++;
+
+        return i;
+    }
+
+
+    /**
+     * Compare byte arrays lexicographically as unsigned bytes
+     */
+    private static int compare(byte[] a, byte[] b) {
+
+        int n = Math.min(a.length, b.length);
+
+        for (int i = 0; i < n; i++) {
+            if (a[i] != b[i])
+                return (a[i] & 0xff) - (b[i] & 0xff);
+        }
+
+        return a.length - b.length;
+    }
+
+}
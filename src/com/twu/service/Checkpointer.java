@@ -0,0 +1,256 @@
+package com.twu.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+
+/**
+ * The Checkpointer recovers the hot searches and the regular users at
+ * startup, and writes snapshots of them periodically so that recovery
+ * never has to replay a long history.
+ *
+ * Recovery memory-maps the latest snapshot, restores it, and replays only
+ * the records of the write-ahead log after it. A checkpoint starts a new
+ * segment of the log, copies the state at a point in time under the
+ * ranking lock without stopping voting, and writes the copy in the
+ * background. The two latest snapshots are kept in case the latest one is
+ * damaged, and the segments of the log covered by the older one are deleted
+ */
+public class Checkpointer implements Closeable {
+
+
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+
+
+    private final Path directory;
+
+    private final WriteAheadLog log;
+
+    private final HotSearchService hotSearchService = HotSearchService.getInstance();
+
+    private final UserService userService = UserService.getInstance();
+
+
+    /**
+     * The thread that takes checkpoints periodically, or null if not started
+     */
+    private ScheduledExecutorService scheduler;
+
+
+    /**
+     * @param directory the directory of the snapshots
+     * @param log the write-ahead log of the mutations, which must not be
+     *            used by the services until recovery has finished
+     */
+    public Checkpointer(Path directory, WriteAheadLog log) throws IOException {
+        this.directory = directory;
+        this.log = log;
+        Files.createDirectories(directory);
+    }
+
+
+    /**
+     * Restore the latest readable snapshot into the empty services, replay
+     * the records of the log after it, and then let the services append
+     * their mutations to the log
+     *
+     * @return the number of records that have been replayed
+     */
+    public long recover() throws IOException {
+
+        Snapshot snapshot = null;
+
+        List<Path> snapshots = snapshots();
+
+        for (int i = snapshots.size() - 1; i >= 0 && snapshot == null; i--)
+            snapshot = Snapshot.read(snapshots.get(i));
+
+        long after = 0;
+
+        if (snapshot != null) {
+            hotSearchService.restore(snapshot);
+            userService.restore(snapshot);
+            after = snapshot.sequence;
+        }
+
+        long replayed = 0;
+
+        List<Path> segments = WriteAheadLog.segments(log.getDirectory());
+
+        for (int i = 0; i < segments.size(); i++) {
+
+            if (i + 1 < segments.size() && WriteAheadLog.firstSequence(segments.get(i + 1)) <= after + 1)
+                continue;
+
+            try (WriteAheadLog.Reader reader = new WriteAheadLog.Reader(segments.get(i))) {
+
+                WriteAheadLog.Record record;
+
+                while ((record = reader.next()) != null) {
+                    if (record.sequence > after) {
+                        replay(record);
+                        replayed++;
+                    }
+                }
+            }
+        }
+
+        hotSearchService.useWriteAheadLog(log);
+        userService.useWriteAheadLog(log);
+
+        return replayed;
+    }
+
+
+    /**
+     * Take a checkpoint now: start a new segment of the log, copy the state,
+     * write it as a snapshot, and delete the snapshots and segments that are
+     * no longer needed
+     */
+    public synchronized void checkpoint() throws IOException {
+
+        log.roll();
+
+        Snapshot snapshot = new Snapshot();
+
+        hotSearchService.capture(snapshot);
+        userService.capture(snapshot);
+
+        snapshot.write(directory.resolve(SNAPSHOT_PREFIX + String.format("%020d", snapshot.sequence) + SNAPSHOT_SUFFIX));
+
+        List<Path> snapshots = snapshots();
+
+        for (int i = 0; i + 2 < snapshots.size(); i++)
+            Files.delete(snapshots.get(i));
+
+        if (snapshots.size() >= 2)
+            log.discardUpTo(sequenceOf(snapshots.get(snapshots.size() - 2)));
+    }
+
+
+    /**
+     * Take checkpoints periodically on a background thread
+     *
+     * @param periodMillis the time between the end of a checkpoint and the
+     *                     start of the next one
+     */
+    public synchronized void start(long periodMillis) {
+
+        if (scheduler != null)
+            throw new IllegalStateException("the checkpointer has already been started");
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "checkpointer");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                checkpoint();
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Checkpoint failed: " + e);
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+
+    /**
+     * Stop taking checkpoints periodically, after the running one has finished
+     */
+    @Override
+    public void close() {
+
+        ScheduledExecutorService scheduler;
+
+        synchronized (this) {
+            scheduler = this.scheduler;
+            this.scheduler = null;
+        }
+
+        if (scheduler == null)
+            return;
+
+        scheduler.shutdown();
+
+        try {
+            scheduler.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**
+     * Apply a record of the log to the service that it belongs to
+     */
+    static void replay(WriteAheadLog.Record record) {
+        switch (record.type) {
+            case WriteAheadLog.ADD_REGULAR_USER:
+            case WriteAheadLog.USE_VOTES:
+                UserService.getInstance().replay(record);
+                break;
+            default:
+                HotSearchService.getInstance().replay(record);
+        }
+    }
+
+
+    /**
+     * Find the latest readable snapshot, for shipping it to a replica
+     *
+     * @return the path of the snapshot, or null if there is none
+     */
+    Path latestSnapshot() throws IOException {
+
+        List<Path> snapshots = snapshots();
+
+        for (int i = snapshots.size() - 1; i >= 0; i--) {
+            if (Snapshot.read(snapshots.get(i)) != null)
+                return snapshots.get(i);
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Get the sequence number covered by a snapshot from its name
+     */
+    static long sequenceOf(Path snapshot) {
+        String name = snapshot.getFileName().toString();
+        return Long.parseLong(name.substring(SNAPSHOT_PREFIX.length(), name.length() - SNAPSHOT_SUFFIX.length()));
+    }
+
+
+    /**
+     * List the snapshots from the oldest to the latest
+     */
+    private List<Path> snapshots() throws IOException {
+
+        List<Path> snapshots = new ArrayList<>();
+
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(f -> {
+                String name = f.getFileName().toString();
+                return name.startsWith(SNAPSHOT_PREFIX) && name.endsWith(SNAPSHOT_SUFFIX);
+            }).forEach(snapshots::add);
+        }
+
+        Collections.sort(snapshots);
+
+        return snapshots;
+    }
+
+}
@@ -0,0 +1,609 @@
+package com.twu.service;
+
+import com.twu.entity.HotSearch;
+import com.twu.service.RankTree.Node;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * The HotSearchRanking keeps hot searches in the order of the ranking list.
+ *
+ * Hot searches that have been bought are pinned at their positions, and
+ * the remaining positions are filled by the hot searches that haven't been
+ * bought, ordered by their scores from high to low. Among hot searches with
+ * the same score, the one that reached its score earlier ranks higher.
+ *
+ * By default the score is the number of votes. In decay mode, the score is
+ * the number of votes decayed exponentially by age, i.e. the sum of v * e^(-λ
+ * (now - t)) over all votes v cast at time t. Since every score decays by the
+ * same factor as time goes by, the relative order only changes when votes are
+ * cast, so the score is kept in log space relative to a fixed epoch, as
+ * log(sum of v * e^(λ (t - epoch))), which stays constant between votes and
+ * never needs to be recomputed on a tick. The decayed hotness at any time is
+ * recovered from it with a single exp.
+ *
+ * The hot searches that haven't been bought are kept in a RankTree sorted
+ * by (score, stamp). The bought ones are kept in another RankTree sorted
+ * by position, where the weight of each node is the number of positions
+ * held by hot searches that haven't been bought between it and the previous
+ * bought one. Therefore the position of a bought hot search is the prefix
+ * sum of weights plus the number of bought ones before it, and removing a
+ * position only changes the weight of a single node. All operations take
+ * O(log n) time
+ */
+class HotSearchRanking {
+
+
+    /**
+     * The hot searches that haven't been bought, sorted by (score, stamp)
+     */
+    private final RankTree unpaid = new RankTree();
+
+
+    /**
+     * The hot searches that have been bought, sorted by position
+     */
+    private final RankTree pinned = new RankTree();
+
+
+    /**
+     * The logical clock used to stamp hot searches when they are placed
+     */
+    private long clock;
+
+
+    /**
+     * The decay rate λ per millisecond, or 0 if scores don't decay
+     */
+    private double decayRate;
+
+
+    /**
+     * The time in milliseconds that log-space scores are relative to
+     */
+    private final long epoch = System.currentTimeMillis();
+
+
+    /**
+     * Get the number of hot searches in the ranking
+     *
+     * @return the number of hot searches in the ranking
+     */
+    int size() {
+        return unpaid.size() + pinned.size();
+    }
+
+
+    /**
+     * Add a hot search to the ranking. A new hot search is placed after all
+     * hot searches that haven't been bought with the same or higher score
+     *
+     * @param hs the hot search to be added
+     * @return the handle of the hot search inside the ranking
+     */
+    Node add(HotSearch hs) {
+        Node node = new Node(hs);
+        rescore(node);
+        placeUnpaid(node);
+        return node;
+    }
+
+
+    /**
+     * Add a hot search restored from a snapshot of the ranking list, which
+     * is restored in order. A bought hot search is pinned at the next
+     * position, and one that hasn't been bought is placed by its score
+     *
+     * @param hs the hot search to be restored
+     * @param bought whether the hot search had been bought
+     * @return the handle of the hot search inside the ranking
+     */
+    Node load(HotSearch hs, boolean bought) {
+
+        Node node = new Node(hs);
+        rescore(node);
+
+        if (bought) {
+            node.stamp = ++clock;
+            node.weight = unpaid.size() - RankTree.sum(pinned.root);
+            node.pinned = true;
+            pinned.insertAt(pinned.size(), node);
+        } else {
+            placeUnpaid(node);
+        }
+
+        return node;
+    }
+
+
+    /**
+     * Reorder a hot search after its votes have changed. A bought hot search
+     * stays at its position, otherwise it is placed after all hot searches
+     * that haven't been bought with the same or higher score. If its new
+     * score doesn't change its position, the tree is left untouched
+     *
+     * @param node the handle of the hot search
+     */
+    void vote(Node node) {
+
+        rescore(node);
+
+        if (node.pinned)
+            return;
+
+        Node previous = unpaid.previous(node);
+        Node next = unpaid.next(node);
+
+        if ((previous == null || previous.score >= node.score) && (next == null || next.score < node.score)) {
+            node.stamp = ++clock;
+            return;
+        }
+
+        unpaid.remove(node);
+        placeUnpaid(node);
+    }
+
+
+    /**
+     * Switch between ranking by votes and ranking by decayed votes, and
+     * reorder all hot searches that haven't been bought by their new scores.
+     * When decay is turned on, the existing votes count as if they were
+     * cast now
+     *
+     * @param decayRate the decay rate λ per millisecond, or 0 to rank by votes
+     */
+    void setDecayRate(double decayRate) {
+
+        if (decayRate < 0)
+            throw new IllegalArgumentException("decay rate must not be negative");
+
+        this.decayRate = decayRate;
+
+        List<Node> nodes = new ArrayList<>(unpaid.size());
+        unpaid.forEach(nodes::add);
+
+        for (Node node : nodes) {
+            node.score = Double.NEGATIVE_INFINITY;
+            node.scoredVotes = 0;
+            rescore(node);
+        }
+
+        pinned.forEach(node -> {
+            node.score = Double.NEGATIVE_INFINITY;
+            node.scoredVotes = 0;
+            rescore(node);
+        });
+
+        nodes.sort((a, b) -> a.score != b.score ? Double.compare(b.score, a.score) : Long.compare(a.stamp, b.stamp));
+
+        for (Node node : nodes)
+            unpaid.remove(node);
+
+        for (int i = 0; i < nodes.size(); i++)
+            unpaid.insertAt(i, nodes.get(i));
+    }
+
+
+    /**
+     * Get the decay rate λ per millisecond, or 0 if scores don't decay
+     */
+    double getDecayRate() {
+        return decayRate;
+    }
+
+
+    /**
+     * Count the hot searches that haven't been bought and are hotter than
+     * the given hotness at the current time, in O(log n) time
+     *
+     * @param hotness the hotness to compare with
+     * @param orEqual whether to count the hot searches that are as hot too
+     * @return the number of such hot searches
+     */
+    int countHotter(double hotness, boolean orEqual) {
+
+        double score = decayRate == 0
+                ? hotness
+                : Math.log(hotness) + decayRate * (System.currentTimeMillis() - epoch);
+
+        int count = 0;
+        Node n = unpaid.root;
+
+        while (n != null) {
+            if (n.score > score || orEqual && n.score >= score) {
+                count += RankTree.size(n.left) + 1;
+                n = n.right;
+            } else {
+                n = n.left;
+            }
+        }
+
+        return count;
+    }
+
+
+    /**
+     * Tell whether a hot search that hasn't been bought ranks before another
+     * one that hasn't been bought either, in O(1) time
+     */
+    static boolean unpaidBefore(Node a, Node b) {
+        return a.score != b.score ? a.score > b.score : a.stamp < b.stamp;
+    }
+
+
+    /**
+     * Tell whether a bought hot search ranks before another bought one, in
+     * O(log p) time, where p is the number of bought hot searches
+     */
+    boolean pinnedBefore(Node a, Node b) {
+        return pinned.indexOf(a) < pinned.indexOf(b);
+    }
+
+
+    /**
+     * Get the hotness of a hot search at the current time, which is the
+     * number of votes, or the decayed number of votes in decay mode
+     *
+     * @param node the handle of the hot search
+     * @return the hotness of the hot search
+     */
+    double hotness(Node node) {
+
+        if (decayRate == 0)
+            return node.score;
+
+        return Math.exp(node.score - decayRate * (System.currentTimeMillis() - epoch));
+    }
+
+
+    /**
+     * Get the hot search handle at the given position
+     *
+     * @param index the 0-based position on the ranking list
+     * @return the handle of the hot search at the position
+     */
+    Node get(int index) {
+
+        if (index < 0 || index >= size())
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+
+        int count = 0;
+        int acc = 0;
+        Node n = pinned.root;
+
+        while (n != null) {
+
+            int gap = acc + RankTree.sum(n.left) + n.weight;
+            int position = gap + count + RankTree.size(n.left);
+
+            if (position == index)
+                return n;
+
+            if (position < index) {
+                count += RankTree.size(n.left) + 1;
+                acc = gap;
+                n = n.right;
+            } else {
+                n = n.left;
+            }
+        }
+
+        return unpaid.get(index - count);
+    }
+
+
+    /**
+     * Get the position of a hot search on the ranking list
+     *
+     * @param node the handle of the hot search
+     * @return the 0-based position of the hot search
+     */
+    int indexOf(Node node) {
+
+        if (node.pinned)
+            return pinned.prefixWeight(node) + pinned.indexOf(node);
+
+        int u = unpaid.indexOf(node);
+
+        return u + countPinnedBefore(u);
+    }
+
+
+    /**
+     * Move a hot search to the given position and pin it there.
+     *
+     * If a different hot search is at the given position, it is evicted
+     * from the ranking. The original position of the moved hot search is
+     * removed, so all hot searches after it step up by one, which means the
+     * moved hot search ends up one position earlier than requested if it was
+     * originally ahead of that position
+     *
+     * @param node the handle of the hot search to be pinned
+     * @param index the 0-based position to pin the hot search at
+     * @return the evicted hot search, or null if the hot search was already
+     *         at the given position
+     */
+    HotSearch pin(Node node, int index) {
+
+        Node existing = get(index);
+
+        if (existing == node) {
+            if (!node.pinned) {
+                unpaid.remove(node);
+                pinAt(index, node);
+            }
+            return null;
+        }
+
+        int oldIndex = indexOf(node);
+
+        removePosition(node);
+
+        int target = oldIndex < index ? index - 1 : index;
+
+        if (existing.pinned) {
+
+            int j = pinned.indexOf(existing);
+
+            node.weight = existing.weight;
+            node.pinned = true;
+
+            pinned.remove(existing);
+            pinned.insertAt(j, node);
+
+        } else {
+            unpaid.remove(existing);
+            pinAt(target, node);
+        }
+
+        existing.evicted = true;
+
+        return existing.entry;
+    }
+
+
+    /**
+     * Collect the hot searches at a range of positions on the ranking list
+     * in O(log n + k) time, where k is the number of hot searches collected
+     *
+     * @param offset the 0-based position of the first hot search
+     * @param limit the maximum number of hot searches to be collected
+     * @return a new list of the handles of the hot searches in the range,
+     *         in the order of the ranking list, which is empty if the range
+     *         starts after the last position
+     */
+    List<Node> range(int offset, int limit) {
+
+        int end = (int) Math.min(size(), (long) offset + limit);
+
+        List<Node> list = new ArrayList<>(Math.max(0, end - offset));
+
+        if (offset >= end)
+            return list;
+
+        int k = countPinnedBeforePosition(offset);
+
+        Node nextPinned = k < pinned.size() ? pinned.get(k) : null;
+        int nextPosition = nextPinned == null ? end : pinned.prefixWeight(nextPinned) + k;
+
+        Node nextUnpaid = offset - k < unpaid.size() ? unpaid.get(offset - k) : null;
+
+        for (int position = offset; position < end; position++) {
+
+            if (position == nextPosition) {
+
+                list.add(nextPinned);
+
+                int gap = nextPosition - k;
+
+                nextPinned = pinned.next(nextPinned);
+                k++;
+                nextPosition = nextPinned == null ? end : gap + nextPinned.weight + k;
+
+            } else {
+                list.add(nextUnpaid);
+                nextUnpaid = unpaid.next(nextUnpaid);
+            }
+        }
+
+        return list;
+    }
+
+
+    /**
+     * Collect the handles of all hot searches in the order of the ranking list
+     *
+     * @return a new list of the handles of all hot searches in the order of
+     *         the ranking list
+     */
+    List<Node> toList() {
+
+        List<Node> list = new ArrayList<>(size());
+
+        List<Node> unpaidNodes = new ArrayList<>(unpaid.size());
+        unpaid.forEach(unpaidNodes::add);
+
+        int[] u = { 0 };
+
+        pinned.forEach(n -> {
+            int gap = u[0] + n.weight;
+            while (u[0] < gap)
+                list.add(unpaidNodes.get(u[0]++));
+            list.add(n);
+        });
+
+        while (u[0] < unpaidNodes.size())
+            list.add(unpaidNodes.get(u[0]++));
+
+        return list;
+    }
+
+
+    /**
+     * Stamp a detached and scored hot search that hasn't been bought and insert it
+     * into the tree of hot searches that haven't been bought
+     */
+    private void placeUnpaid(Node node) {
+
+        node.stamp = ++clock;
+
+        int count = 0;
+        Node n = unpaid.root;
+
+        while (n != null) {
+            if (n.score >= node.score) {
+                count += RankTree.size(n.left) + 1;
+                n = n.right;
+            } else {
+                n = n.left;
+            }
+        }
+
+        unpaid.insertAt(count, node);
+    }
+
+
+    /**
+     * Count the votes that a hot search has received since it was last
+     * scored into its score
+     */
+    private void rescore(Node node) {
+
+        int votes = node.entry.getVote();
+
+        if (decayRate == 0) {
+            node.score = votes;
+        } else if (votes > node.scoredVotes) {
+            double added = Math.log(votes - node.scoredVotes) + decayRate * (System.currentTimeMillis() - epoch);
+            node.score = logAddExp(node.score, added);
+        }
+
+        node.scoredVotes = votes;
+    }
+
+
+    /**
+     * Compute log(e^a + e^b) without overflowing
+     */
+    private static double logAddExp(double a, double b) {
+
+        double max = Math.max(a, b);
+
+        if (max == Double.NEGATIVE_INFINITY)
+            return max;
+
+        return max + Math.log1p(Math.exp(Math.min(a, b) - max));
+    }
+
+
+    /**
+     * Pin a detached hot search at a position that is currently counted as
+     * a position of hot searches that haven't been bought
+     */
+    private void pinAt(int index, Node node) {
+
+        int count = countPinnedBeforePosition(index);
+        int acc = count == 0 ? 0 : pinned.prefixWeight(pinned.get(count - 1));
+
+        node.weight = index - count - acc;
+        node.pinned = true;
+
+        pinned.insertAt(count, node);
+
+        if (count + 1 < pinned.size()) {
+            Node next = pinned.get(count + 1);
+            pinned.setWeight(next, next.weight - 1 - node.weight);
+        }
+    }
+
+
+    /**
+     * Remove a hot search together with its position, so that all hot
+     * searches after it step up by one
+     */
+    private void removePosition(Node node) {
+
+        if (node.pinned) {
+
+            int j = pinned.indexOf(node);
+            int weight = node.weight;
+
+            pinned.remove(node);
+
+            if (j < pinned.size()) {
+                Node next = pinned.get(j);
+                pinned.setWeight(next, next.weight + weight);
+            }
+
+        } else {
+
+            int u = unpaid.indexOf(node);
+            int count = countPinnedBefore(u);
+
+            unpaid.remove(node);
+
+            if (count < pinned.size()) {
+                Node next = pinned.get(count);
+                pinned.setWeight(next, next.weight - 1);
+            }
+        }
+    }
+
+
+    /**
+     * Count the bought hot searches at positions before the given position
+     */
+    private int countPinnedBeforePosition(int index) {
+
+        int count = 0;
+        int acc = 0;
+        Node n = pinned.root;
+
+        while (n != null) {
+
+            int gap = acc + RankTree.sum(n.left) + n.weight;
+            int position = gap + count + RankTree.size(n.left);
+
+            if (position < index) {
+                count += RankTree.size(n.left) + 1;
+                acc = gap;
+                n = n.right;
+            } else {
+                n = n.left;
+            }
+        }
+
+        return count;
+    }
+
+
+    /**
+     * Count the bought hot searches ranked ahead of the hot search that
+     * hasn't been bought at the given index among those that haven't been
+     * bought
+     */
+    private int countPinnedBefore(int u) {
+
+        int count = 0;
+        int acc = 0;
+        Node n = pinned.root;
+
+        while (n != null) {
+
+            int gap = acc + RankTree.sum(n.left) + n.weight;
+
+            if (gap <= u) {
+                count += RankTree.size(n.left) + 1;
+                acc = gap;
+                n = n.right;
+            } else {
+                n = n.left;
+            }
+        }
+
+        return count;
+    }
+
+}
@@ -1,20 +1,57 @@
 package com.twu.service;
 
+import com.twu.entity.ArrayCounterStore;
+import com.twu.entity.CounterStore;
 import com.twu.entity.HotSearch;
+import com.twu.entity.Leaderboard;
+import com.twu.entity.RankDelta;
 import com.twu.entity.SuperHotSearch;
+import com.twu.service.RankTree.Node;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.function.Predicate;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.locks.ReentrantLock;
 
 
 /**
  * The HotSearchService is a singleton that manages a list of hot searches.
- * It accesses the hot search data and manages the CRUD operations of the data
+ * It accesses the hot search data and manages the CRUD operations of the data.
+ *
+ * All methods are safe to be called by multiple threads. Voting doesn't take
+ * the ranking lock: votes go to the striped counter of the hot search, and
+ * the hot search is marked as pending. Whoever holds the ranking lock next
+ * folds the pending votes into the ranking, and readers always fold before
+ * reading, so they see every vote that has completed.
+ *
+ * Every change to the ranking list increases its version. An immutable
+ * Leaderboard snapshot is published for the current version the first
+ * time it is read, and shared by all readers until the next change.
+ *
+ * Subscribers of the rank changes get every change as a compact RankDelta
+ * instead, published under the ranking lock in the order of the changes.
+ *
+ * In partitioned mode the hot searches are split across shards, each of
+ * which is a HotSearchService of its own, and every method is routed to the
+ * shard of the hot search or gathered from all of them
  */
 public class HotSearchService {
 
 
+    /**
+     * Delivers the rank changes to the subscribers of all services
+     */
+    private static final Executor RANK_CHANGE_EXECUTOR = RankChangePublisher.newExecutor();
+
+
     /**
      * The singleton instance
      */
@@ -22,9 +59,102 @@ public class HotSearchService {
 
 
     /**
-     * The list of hot searches
+     * The maximum number of rank changes buffered for a subscriber that
+     * hasn't requested them yet, before it is sent a snapshot instead
+     */
+    private static final int RANK_CHANGE_BUFFER_SIZE = 1024;
+
+
+    /**
+     * The ranking that keeps hot searches in the order of the ranking list
+     */
+    private HotSearchRanking ranking;
+
+
+    /**
+     * The index of hot searches by their case-folded names, pointing to
+     * the handles of the hot searches inside the ranking. Read without the
+     * lock, and replaced as a whole when a snapshot replaces the board
+     */
+    private volatile Map<String, Node> nameIndex;
+
+
+    /**
+     * The index of hot searches by the sorted case-folded keys of their
+     * names, for finding them by a prefix. Guarded by the lock
+     */
+    private PrefixIndex prefixIndex;
+
+
+    /**
+     * The inverted index of hot searches by the bigrams of their case-folded
+     * names, for finding them by a term anywhere in the name. Guarded by the
+     * lock
+     */
+    private BigramIndex bigramIndex;
+
+
+    /**
+     * The hot searches whose votes haven't been folded into the ranking
+     */
+    private PendingVotes pendingVotes;
+
+
+    /**
+     * The pending bids for positions on the ranking list
+     */
+    private AuctionHouse auctionHouse;
+
+
+    /**
+     * The store of the votes and amounts of all hot searches. Guarded by the lock
      */
-    private List<HotSearch> hotSearches;
+    private CounterStore counterStore;
+
+
+    /**
+     * The board of hot searches with the most votes within a recent time
+     * window, or null if trending is disabled. Guarded by the lock
+     */
+    private TrendingBoard trending;
+
+
+    /**
+     * Guards the ranking and the mutations of the name index
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+
+    /**
+     * The version of the ranking list, increased under the lock whenever
+     * the ranking list changes
+     */
+    private volatile long version;
+
+
+    /**
+     * The latest published snapshot of the ranking list
+     */
+    private volatile Leaderboard leaderboard = Leaderboard.EMPTY;
+
+
+    /**
+     * The log that mutations are appended to, or null if they aren't logged
+     */
+    private volatile WriteAheadLog log;
+
+
+    /**
+     * The shards that the hot searches are partitioned across, or null if
+     * this service keeps all of them itself
+     */
+    private volatile ShardedBoard shards;
+
+
+    /**
+     * The publisher of the changes to the ranking list
+     */
+    private RankChangePublisher rankChanges;
 
 
     /**
@@ -34,7 +164,13 @@ public class HotSearchService {
      * @return whether the specified hot search name exists
      */
     public boolean exists(String name) {
-        return hotSearches.stream().anyMatch(matchByName(name));
+
+        ShardedBoard shards = this.shards;
+
+        if (shards != null)
+            return shards.shardOf(name).exists(name);
+
+        return nameIndex.containsKey(NameUtil.fold(name));
     }
 
 
@@ -44,7 +180,18 @@ public class HotSearchService {
      * @return the count of all hot searches
      */
     public int getCount() {
-        return hotSearches.size();
+
+        ShardedBoard shards = this.shards;
+
+        if (shards != null)
+            return shards.getCount();
+
+        lock.lock();
+        try {
+            return ranking.size();
+        } finally {
+            lock.unlock();
+        }
     }
 
 
@@ -56,7 +203,14 @@ public class HotSearchService {
      *         doesn't exist
      */
     public HotSearch findOneByName(String name) {
-        return hotSearches.stream().filter(matchByName(name)).collect(StreamUtil.limitOne());
+
+        ShardedBoard shards = this.shards;
+
+        if (shards != null)
+            return shards.shardOf(name).findOneByName(name);
+
+        Node node = nameIndex.get(NameUtil.fold(name));
+        return node == null ? null : node.entry;
     }
 
 
@@ -64,9 +218,213 @@ public class HotSearchService {
      * Find all hot searches
      *
      * @return a copy of the list of all hot searches
+     * @see HotSearchService#getLeaderboard() for an immutable snapshot
+     *      that doesn't need to be copied on every call
      */
     public List<HotSearch> findAll() {
-        return new ArrayList<>(hotSearches);
+
+        ShardedBoard shards = this.shards;
+
+        if (shards != null)
+            return shards.findAll();
+
+        lockAndFold();
+        try {
+            List<Node> nodes = ranking.toList();
+            List<HotSearch> hotSearches = new ArrayList<>(nodes.size());
+
+            for (Node node : nodes)
+                hotSearches.add(node.entry);
+
+            return hotSearches;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Get an immutable snapshot of the ranking list. If nothing has changed
+     * since the last snapshot was published, the same snapshot is returned
+     * without taking the lock or copying anything
+     *
+     * @return the snapshot of the current version of the ranking list
+     */
+    public Leaderboard getLeaderboard() {
+
+        ShardedBoard shards = this.shards;
+
+        if (shards != null)
+            return shards.getLeaderboard();
+
+        Leaderboard published = leaderboard;
+
+        if (published.getVersion() == version && pendingVotes.isEmpty())
+            return published;
+
+        lockAndFold();
+        try {
+
+            published = leaderboard;
+
+            if (published.getVersion() == version)
+                return published;
+
+            published = new Leaderboard(version, toRows(ranking.toList()));
+            leaderboard = published;
+
+            return published;
+
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Get the publisher of the changes to the ranking list, or throw
+     * IllegalStateException in partitioned mode, where the changes of the
+     * shards have no single order.
+     *
+     * Every subscriber is sent a SNAPSHOT of the ranking list first, and
+     * then a delta for every hot search that is added, voted or bought, as
+     * many as it requests. The changes that it hasn't requested yet are
+     * buffered for it up to a limit. A subscriber that falls further behind
+     * loses the buffered changes and is sent a fresh SNAPSHOT before the
+     * following changes instead, so it never misses a change but may skip
+     * straight to the current list
+     *
+     * @see RankDelta
+     */
+    public Flow.Publisher<RankDelta> getRankChanges() {
+
+        if (shards != null)
+            throw new IllegalStateException("hot searches are partitioned");
+
+        return rankChanges;
+    }
+
+
+    /**
+     * Find the hot searches at the top of the ranking list
+     *
+     * @param n the maximum number of hot searches to be found
+     * @return immutable copies of the first n hot searches on the ranking
+     *         list, or all of them if there are fewer than n
+     * @see HotSearchService#findRange(int, int)
+     */
+    public List<Leaderboard.Row> findTop(int n) {
+        return findRange(0, n);
+    }
+
+
+    /**
+     * Find the hot searches at a range of positions on the ranking list.
+     * If the published snapshot is still current, the range is a view of
+     * the snapshot, otherwise the range is read from the ranking in
+     * O(log n + k) time without building a full snapshot
+     *
+     * @param offset the 0-based position of the first hot search
+     * @param limit the maximum number of hot searches to be found
+     * @return immutable copies of the hot searches in the range, in the
+     *         order of the ranking list, which is empty if the range starts
+     *         after the last position
+     */
+    public List<Leaderboard.Row> findRange(int offset, int limit) {
+
+        if (offset < 0 || limit < 0)
+            throw new IllegalArgumentException("offset and limit must not be negative");
+
+        ShardedBoard shards = this.shards;
+
+        if (shards != null)
+            return shards.findRange(offset, limit);
+
+        Leaderboard published = leaderboard;
+
+        if (published.getVersion() == version && pendingVotes.isEmpty())
+            return subList(published.getRows(), offset, limit);
+
+        lockAndFold();
+        try {
+
+            published = leaderboard;
+
+            if (published.getVersion() == version)
+                return subList(published.getRows(), offset, limit);
+
+            return Collections.unmodifiableList(Arrays.asList(toRows(ranking.range(offset, limit))));
+
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Find the hot searches whose names start with a prefix, case
+     * insensitive, for suggesting names as the user types
+     *
+     * @param prefix the prefix of the names
+     * @param k the maximum number of hot searches to be found
+     * @return immutable copies of the first k matching hot searches in the
+     *         order of the ranking list, or all of them if there are fewer
+     *         than k
+     * @see PrefixIndex
+     */
+    public List<Leaderboard.Row> findByPrefix(String prefix, int k) {
+
+        if (k < 0)
+            throw new IllegalArgumentException("k must not be negative");
+
+        ShardedBoard shards = this.shards;
+
+        if (shards != null)
+            return shards.findByPrefix(prefix, k);
+
+        String key = NameUtil.fold(prefix);
+
+        lockAndFold();
+        try {
+            return Collections.unmodifiableList(Arrays.asList(toRows(prefixIndex.findTop(key, k))));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Find the hot searches whose names contain a term anywhere, case
+     * insensitive, without scanning the ranking list
+     *
+     * @param term the term to be searched for, which must not be empty
+     * @param k the maximum number of hot searches to be found
+     * @return immutable copies of the first k matching hot searches in the
+     *         order of the ranking list, or all of them if there are fewer
+     *         than k
+     * @see BigramIndex
+     */
+    public List<Leaderboard.Row> findContaining(String term, int k) {
+
+        if (term.isEmpty())
+            throw new IllegalArgumentException("term must not be empty");
+
+        if (k < 0)
+            throw new IllegalArgumentException("k must not be negative");
+
+        ShardedBoard shards = this.shards;
+
+        if (shards != null)
+            return shards.findContaining(term, k);
+
+        String key = NameUtil.fold(term);
+
+        lockAndFold();
+        try {
+            return Collections.unmodifiableList(Arrays.asList(toRows(bigramIndex.findTop(key, k, ranking))));
+        } finally {
+            lock.unlock();
+        }
     }
 
 
@@ -79,11 +437,23 @@ public class HotSearchService {
      *         or -1 if one doesn't exist
      */
     public int getIndexByName(String name) {
-        for (int i = 0; i < hotSearches.size(); i++) {
-            if (hotSearches.get(i).getName().equalsIgnoreCase(name))
-                return i;
+
+        ShardedBoard shards = this.shards;
+
+        if (shards != null)
+            return shards.getIndexByName(name);
+
+        Node node = nameIndex.get(NameUtil.fold(name));
+
+        if (node == null)
+            return -1;
+
+        lockAndFold();
+        try {
+            return node.evicted ? -1 : ranking.indexOf(node);
+        } finally {
+            lock.unlock();
         }
-        return -1;
     }
 
 
@@ -95,7 +465,13 @@ public class HotSearchService {
      * @param name the name of the hot search to be added
      */
     public void addHotSearch(String name) {
-        hotSearches.add(new HotSearch(name));
+
+        ShardedBoard shards = this.shards;
+
+        if (shards != null)
+            shards.shardOf(name).addHotSearch(name);
+        else
+            add(name, false);
     }
 
 
@@ -107,7 +483,13 @@ public class HotSearchService {
      * @param name the name of the super hot search to be added
      */
     public void addSuperHotSearch(String name) {
-        hotSearches.add(new SuperHotSearch(name));
+
+        ShardedBoard shards = this.shards;
+
+        if (shards != null)
+            shards.shardOf(name).addSuperHotSearch(name);
+        else
+            add(name, true);
     }
 
 
@@ -119,7 +501,11 @@ public class HotSearchService {
      * search from the one specified by the name, the current hot search
      * will replace the original one and the original one will disappear.
      * All hot searches after the original position of the hot search
-     * being bought will step up by one in the list
+     * being bought will step up by one in the list.
+     *
+     * Concurrent purchases are placed as bids in the AuctionHouse and
+     * settled one by one, highest bid first, so that only one of them
+     * can win a position
      *
      * @param name the name of the hot search
      * @param rank the 1-based index on the hot search list to be bought
@@ -130,37 +516,43 @@ public class HotSearchService {
      *               hot search from the one specified by the name, and the
      *               amount of that hot search is equal to or greater than
      *               the current amount, or
-     *         -1 if the hot search with the specified name doesn't exist
+     *         -1 if the hot search with the specified name doesn't exist,
+     *               or the rank is no longer on the list when the
+     *               purchase is settled
+     * @throws IllegalStateException if the hot searches are partitioned,
+     *         which callers should check with isPartitioned beforehand
+     *
+     * @see AuctionHouse
      */
     public int buyHotSearch(String name, int rank, int amount) {
 
-        int index = rank - 1;
+        if (shards != null)
+            throw new IllegalStateException("positions can't be bought in partitioned mode");
 
-        HotSearch toBuy = findOneByName(name);
+        Node node = nameIndex.get(NameUtil.fold(name));
 
-        if (toBuy == null)
+        if (node == null)
             return -1;
 
-        HotSearch existing = hotSearches.get(index);
-
-        int newPrice = toBuy.getAmount() + amount;
-
-        if (toBuy == existing) {
-            toBuy.setAmount(newPrice);
-            return 1;
-        }
+        AuctionHouse.Bid bid = auctionHouse.place(node, rank - 1, amount);
 
-        if (existing.getAmount() >= newPrice)
-            return 0;
+        WriteAheadLog log = this.log;
+        long sequence = 0;
 
-        toBuy.setAmount(newPrice);
+        lockAndFold();
+        try {
+            auctionHouse.settleAll(this::settle);
 
-        int oldIndex = hotSearches.indexOf(toBuy);
+            if (log != null)
+                sequence = log.lastSequence();
+        } finally {
+            lock.unlock();
+        }
 
-        hotSearches.set(index, toBuy);
-        hotSearches.remove(oldIndex);
+        if (log != null && bid.getResult() == 1)
+            log.await(sequence);
 
-        return 1;
+        return bid.getResult();
     }
 
 
@@ -170,12 +562,14 @@ public class HotSearchService {
      * If the voted hot search is already bought at that position,
      * no re-ordering will take place. Otherwise, the voted one
      * will advance its place by comparing its votes with other
-     * hot searches that have not been bought. If the hot search
-     * is moved to a new location, it is guaranteed that the one
-     * after its new location has not been bought, therefore other
-     * bought hot searches between [newIndex + 2, oldIndex] in
-     * the reordered-list have stepped back by one, and their
-     * positions must be restored
+     * hot searches that have not been bought, while the bought
+     * hot searches stay at their positions.
+     *
+     * The votes are counted immediately, and the hot search is
+     * reordered as soon as the ranking lock is free, without
+     * waiting for it
+     *
+     * @see HotSearchRanking#vote(Node)
      *
      * @param name the name of the hot search
      * @param votes the number of votes from the user to be added
@@ -184,82 +578,997 @@ public class HotSearchService {
      */
     public boolean voteHotSearch(String name, int votes) {
 
-        HotSearch hs = null;
-        int oldIndex = -1;
+        ShardedBoard shards = this.shards;
 
-        for (int i = 0; i < hotSearches.size(); i++) {
-            HotSearch curr = hotSearches.get(i);
-            if (curr.getName().equalsIgnoreCase(name)) {
-                hs = curr;
-                oldIndex = i;
-                break;
+        if (shards != null)
+            return shards.shardOf(name).voteHotSearch(name, votes);
+
+        Node node = nameIndex.get(NameUtil.fold(name));
+
+        if (node == null)
+            return false;
+
+        VoteEvent event = new VoteEvent();
+        event.begin();
+
+        int total = node.entry.addVotes(votes);
+
+        WriteAheadLog log = this.log;
+        long sequence = log == null ? 0 : log.logVote(name, votes, total);
+
+        pendingVotes.mark(node);
+
+        while (!pendingVotes.isEmpty() && lock.tryLock()) {
+            try {
+                fold();
+            } finally {
+                lock.unlock();
             }
         }
 
-        if (hs == null)
-            return false;
+        if (log != null)
+            log.await(sequence);
+
+        if (event.shouldCommit()) {
+            event.name = node.entry.getName();
+            event.votes = votes;
+            event.total = total;
+            event.commit();
+        }
 
-        int newVote = hs.addVotes(votes);
+        return true;
+    }
 
-        if (hs.getAmount() > 0)
-            return true;
 
-        int newIndex = oldIndex;
+    /**
+     * Rank hot searches by their votes decayed exponentially by age instead
+     * of by their votes, so that old hot searches give way to new ones. The
+     * existing votes count as if they were cast now. Bought hot searches
+     * stay at their positions
+     *
+     * @param halfLifeMillis the time in milliseconds it takes for the weight
+     *                       of a vote to halve
+     * @see HotSearchRanking
+     */
+    public void enableHotnessDecay(long halfLifeMillis) {
 
-        for (int i = 0; i < hotSearches.size(); i++) {
+        if (halfLifeMillis <= 0)
+            throw new IllegalArgumentException("half-life must be positive");
 
-            HotSearch curr = hotSearches.get(i);
+        setDecayRate(Math.log(2) / halfLifeMillis);
+    }
 
-            if (curr.getAmount() == 0 && newVote > curr.getVote()) {
-                newIndex = i;
-                break;
-            }
+
+    /**
+     * Rank hot searches by their votes again
+     */
+    public void disableHotnessDecay() {
+        setDecayRate(0);
+    }
+
+
+    /**
+     * Set the decay rate of the ranking, or of every shard in partitioned mode
+     */
+    void setDecayRate(double decayRate) {
+
+        ShardedBoard shards = this.shards;
+
+        if (shards != null) {
+            shards.setDecayRate(decayRate);
+            return;
         }
 
-        if (newIndex == oldIndex)
-            return true;
+        lockAndFold();
+        try {
+            ranking.setDecayRate(decayRate);
+            prefixIndex.reorder();
+            version++;
+            rankChanges.resync();
+        } finally {
+            lock.unlock();
+        }
+    }
 
-        hotSearches.remove(hs);
-        hotSearches.add(newIndex, hs);
 
-        for (int i = newIndex + 2; i <= oldIndex; i++) {
-            HotSearch curr = hotSearches.get(i);
-            if (curr.getAmount() > 0) {
-                HotSearch prev = hotSearches.set(i - 1, curr);
-                hotSearches.set(i , prev);
-            }
+    /**
+     * Replace the store that keeps the votes and amounts of hot searches,
+     * or throw IllegalStateException if any hot search has been added.
+     *
+     * The default store is an ArrayCounterStore, which keeps all counters in
+     * primitive arrays without any object per hot search, so that scans over
+     * the ranking list read them straight from the arrays. A
+     * StripedCounterStore is faster when many threads vote the same hot
+     * searches, at the cost of an object per hot search. An
+     * OffHeapCounterStore moves the counters and names out of the heap, into
+     * direct or memory-mapped buffers, but the heap still grows with the
+     * board, since the ranking and the indexes keep objects per hot search
+     *
+     * @param counterStore the empty store to keep the counters of hot searches
+     */
+    public void useCounterStore(CounterStore counterStore) {
+
+        if (counterStore.size() > 0)
+            throw new IllegalArgumentException("the counter store is not empty");
+
+        lock.lock();
+        try {
+
+            if (ranking.size() > 0)
+                throw new IllegalStateException("hot searches have already been added");
+
+            if (shards != null)
+                throw new IllegalStateException("hot searches are partitioned");
+
+            this.counterStore = counterStore;
+
+        } finally {
+            lock.unlock();
         }
+    }
 
-        return true;
+
+    /**
+     * Append every following mutation of hot searches to a write-ahead log,
+     * and wait for it to be durable as required by the fsync policy of the
+     * log before returning. Votes only copy a record into the buffer of the
+     * log on their way, so they don't make a syscall each
+     *
+     * @param log the log to append mutations to, or null to stop logging
+     * @see UserService#useWriteAheadLog(WriteAheadLog)
+     */
+    public void useWriteAheadLog(WriteAheadLog log) {
+        lockAndFold();
+        try {
+
+            if (shards != null)
+                throw new IllegalStateException("hot searches are partitioned");
+
+            this.log = log;
+
+        } finally {
+            lock.unlock();
+        }
     }
 
 
     /**
-     * Returns a predicate that checks whether the hot search matches the
-     * specified hot search name by its name, case insensitive
+     * Partition the hot searches across shards by the hash of their
+     * case-folded names, or throw IllegalStateException if any hot search
+     * has been added, a write-ahead log is in use, or the hot searches are
+     * already partitioned.
      *
-     * @param name the specified hot search name to be checked
-     * @return the predicate that checks whether the hot search matches the name
+     * Every shard has its own ranking and lock, so hot searches in different
+     * shards are added and voted without contending. The ranking list is
+     * gathered from the shards by merging them by hotness. Positions can't be
+     * bought, and boards can't be logged, exported or imported, since none
+     * of these has a single order of positions to work on. Hotness decay and
+     * the counter store in use carry over to the shards
+     *
+     * @param count the number of shards
+     * @see ShardedBoard
      */
-    private static Predicate<HotSearch> matchByName(String name) {
-        return hs -> hs.getName().equalsIgnoreCase(name);
+    public void enablePartitioning(int count) {
+
+        if (count < 1)
+            throw new IllegalArgumentException("there must be at least one shard");
+
+        lockAndFold();
+        try {
+
+            if (ranking.size() > 0)
+                throw new IllegalStateException("hot searches have already been added");
+
+            if (log != null || shards != null || trending != null)
+                throw new IllegalStateException("hot searches can't be partitioned in the current mode");
+
+            shards = new ShardedBoard(count, counterStore, ranking.getDecayRate());
+
+        } finally {
+            lock.unlock();
+        }
     }
 
 
     /**
-     * Do not let this class to be instantiated externally
+     * Check whether the hot searches are partitioned across shards, in
+     * which case positions can't be bought
+     *
+     * @see HotSearchService#enablePartitioning(int)
      */
-    private HotSearchService() {
+    public boolean isPartitioned() {
+        return shards != null;
+    }
+
+
+    /**
+     * Start a trending board that ranks hot searches by the votes received
+     * within a sliding window of recent time. Only votes received from now
+     * on are counted. If trending is already enabled, the board is replaced
+     * by an empty one with the new settings
+     *
+     * @param windowMillis the length of the window in milliseconds
+     * @param bucketMillis the granularity in milliseconds at which votes
+     *                     expire from the window
+     * @see TrendingBoard
+     */
+    public void enableTrending(long windowMillis, long bucketMillis) {
+
+        ShardedBoard shards = this.shards;
+
+        if (shards != null) {
+            shards.enableTrending(windowMillis, bucketMillis);
+            return;
+        }
+
+        TrendingBoard board = new TrendingBoard(windowMillis, bucketMillis);
+
+        lockAndFold();
+        try {
+            ranking.toList().forEach(board::track);
+            trending = board;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Stop the trending board
+     */
+    public void disableTrending() {
+
+        ShardedBoard shards = this.shards;
+
+        if (shards != null) {
+            shards.disableTrending();
+            return;
+        }
+
+        lock.lock();
+        try {
+            trending = null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Find the hot searches that received the most votes within the trending
+     * window, or throw IllegalStateException if trending is disabled
+     *
+     * @param n the maximum number of hot searches to be found
+     * @return immutable copies of the hot searches with the most votes within
+     *         the window, whose hotness is the number of votes within the window
+     */
+    public List<Leaderboard.Row> findTrending(int n) {
+
+        ShardedBoard shards = this.shards;
+
+        if (shards != null)
+            return shards.findTrending(n);
+
+        lockAndFold();
+        try {
+
+            if (trending == null)
+                throw new IllegalStateException("trending is disabled");
+
+            List<Node> nodes = trending.top(n);
+            Leaderboard.Row[] rows = new Leaderboard.Row[nodes.size()];
+
+            for (int i = 0; i < rows.length; i++)
+                rows[i] = new Leaderboard.Row(nodes.get(i).entry, trending.windowVotes(nodes.get(i)));
+
+            return Collections.unmodifiableList(Arrays.asList(rows));
+
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Export the whole ranking list to a stream in the binary board format,
+     * a block of hot searches at a time, so that the memory used doesn't
+     * grow with the size of the board. Each block is copied under the lock
+     * and written after the lock has been released, so a slow stream never
+     * holds up voting or purchases.
+     *
+     * Each block is a consistent copy, but the blocks are copied one after
+     * another. If the board changes during the export, a hot search that
+     * moves across the boundary of two blocks may be written twice, which
+     * importBoard rejects, or not at all. Export a quiet board when the
+     * export has to be exact
+     *
+     * @param out the stream to write the board to, which is flushed but not closed
+     * @throws IOException if the stream can't be written
+     * @see BoardFormat
+     */
+    public void exportBoard(OutputStream out) throws IOException {
+
+        if (shards != null)
+            throw new IllegalStateException("hot searches are partitioned");
+
+        BoardFormat.Writer writer = new BoardFormat.Writer(out);
+        List<BoardFormat.Entry> block = new ArrayList<>(BoardFormat.BLOCK_SIZE);
+        int[] votes = new int[BoardFormat.BLOCK_SIZE];
+        int[] amounts = new int[BoardFormat.BLOCK_SIZE];
+
+        for (int offset = 0; ; offset += BoardFormat.BLOCK_SIZE) {
+
+            lockAndFold();
+            try {
+                List<Node> nodes = ranking.range(offset, BoardFormat.BLOCK_SIZE);
+
+                counterStore.readCounters(idsOf(nodes), votes, amounts);
+
+                for (int i = 0; i < nodes.size(); i++) {
+
+                    Node node = nodes.get(i);
+
+                    byte flags = (byte) ((node.entry instanceof SuperHotSearch ? BoardFormat.SUPER_HOT : 0)
+                            | (node.pinned ? BoardFormat.PINNED : 0));
+
+                    block.add(new BoardFormat.Entry(node.entry.getName(), flags, votes[i], amounts[i]));
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            if (block.isEmpty())
+                break;
+
+            for (BoardFormat.Entry entry : block)
+                writer.write(entry);
+
+            block.clear();
+        }
+
+        writer.finish();
+    }
+
+
+    /**
+     * Import a whole ranking list exported by exportBoard into the empty
+     * hot search list, or throw IllegalStateException if any hot search has
+     * been added. The board is checked to be empty under the same lock that
+     * the first block is added under. Each block is verified by its checksum
+     * before it is added, so a corrupted stream leaves the blocks before it
+     * imported. Imports aren't written to the write-ahead log, so a
+     * checkpoint should follow
+     *
+     * @param in the stream to read the board from, which isn't closed
+     * @return the number of imported hot searches
+     * @throws IOException if the stream can't be read or is corrupted
+     * @see BoardFormat
+     */
+    public int importBoard(InputStream in) throws IOException {
+
+        if (shards != null)
+            throw new IllegalStateException("hot searches are partitioned");
+
+        BoardFormat.Reader reader = new BoardFormat.Reader(in);
+
+        int count = 0;
+        boolean first = true;
+        List<BoardFormat.Entry> block;
+
+        do {
+            block = reader.readBlock();
+
+            lockAndFold();
+            try {
+                if (first && ranking.size() > 0)
+                    throw new IllegalStateException("hot searches have already been added");
+
+                for (BoardFormat.Entry entry : block) {
+
+                    if (nameIndex.containsKey(NameUtil.fold(entry.name)))
+                        throw new IOException("duplicate hot search: " + entry.name);
+
+                    load(newHotSearch(entry.name, (entry.flags & BoardFormat.SUPER_HOT) != 0, entry.votes,
+                            entry.amount), (entry.flags & BoardFormat.PINNED) != 0);
+                }
+
+                if (!block.isEmpty()) {
+                    version++;
+                    rankChanges.resync();
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            first = false;
+            count += block.size();
+
+        } while (!block.isEmpty());
+
+        return count;
+    }
+
+
+    /**
+     * Copy all hot searches into a snapshot, in the order of the ranking
+     * list, together with the sequence number of the last record of the
+     * log. The ranking is locked only while copying, and voting goes on.
+     *
+     * Votes are logged after they are counted, so every vote logged up to
+     * the sequence number is in the copy. Votes logged after it may be in
+     * the copy as well, which is fine since replaying them is idempotent
+     *
+     * @param snapshot the snapshot to copy the hot searches into
+     */
+    void capture(Snapshot snapshot) {
+        lockAndFold();
+        try {
+            WriteAheadLog log = this.log;
+
+            snapshot.sequence = log == null ? 0 : log.lastSequence();
+
+            List<Node> nodes = ranking.toList();
+            int count = nodes.size();
+            int[] ids = idsOf(nodes);
+
+            snapshot.names = new String[count];
+            snapshot.flags = new byte[count];
+            snapshot.votes = new int[count];
+            snapshot.amounts = new int[count];
+
+            counterStore.readCounters(ids, snapshot.votes, snapshot.amounts);
+
+            for (int i = 0; i < count; i++) {
+
+                Node node = nodes.get(i);
+
+                snapshot.names[i] = counterStore.getName(ids[i]);
+                snapshot.flags[i] = (byte) ((node.entry instanceof SuperHotSearch ? Snapshot.SUPER_HOT : 0)
+                        | (node.pinned ? Snapshot.PINNED : 0));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Restore the hot searches from a snapshot, or throw
+     * IllegalStateException if any hot search has been added
+     *
+     * @param snapshot the snapshot to restore the hot searches from
+     */
+    void restore(Snapshot snapshot) {
+        lockAndFold();
+        try {
+
+            if (ranking.size() > 0)
+                throw new IllegalStateException("hot searches have already been added");
+
+            for (int i = 0; i < snapshot.names.length; i++)
+                load(newHotSearch(snapshot, i), (snapshot.flags[i] & Snapshot.PINNED) != 0);
+
+            version++;
+            rankChanges.resync();
+
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Replace all hot searches with the ones in a snapshot, so that a replica
+     * that has fallen behind can catch up with a snapshot shipped from the
+     * primary. The new ranking and indexes are built without the lock and
+     * swapped in under it, so readers see either the old board or the new
+     * one and never an empty or partly restored one. Pending votes and bids
+     * of the old board are dropped, the trending board is stopped, and the
+     * counters of the old hot searches stay allocated in the counter store
+     *
+     * @param snapshot the snapshot to replace the hot searches with
+     */
+    void replace(Snapshot snapshot) {
+
+        double decayRate;
+
+        lock.lock();
+        try {
+            decayRate = ranking.getDecayRate();
+        } finally {
+            lock.unlock();
+        }
+
+        HotSearchRanking restored = new HotSearchRanking();
+
+        if (decayRate > 0)
+            restored.setDecayRate(decayRate);
+
+        Map<String, Node> restoredNames = new ConcurrentHashMap<>();
+        PrefixIndex restoredPrefixes = new PrefixIndex(restored);
+        BigramIndex restoredBigrams = new BigramIndex();
+
+        for (int i = 0; i < snapshot.names.length; i++) {
+
+            Node node = restored.load(newHotSearch(snapshot, i), (snapshot.flags[i] & Snapshot.PINNED) != 0);
+
+            String key = NameUtil.fold(snapshot.names[i]);
+            restoredNames.put(key, node);
+            restoredPrefixes.put(key, node);
+            restoredBigrams.put(key, node);
+        }
+
+        lock.lock();
+        try {
+            ranking = restored;
+            nameIndex = restoredNames;
+            prefixIndex = restoredPrefixes;
+            bigramIndex = restoredBigrams;
+            pendingVotes = new PendingVotes();
+            auctionHouse = new AuctionHouse();
+            trending = null;
+            version++;
+            rankChanges.resync();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Remove all hot searches. The trending board is stopped, and the
+     * counters of the removed hot searches stay allocated in the counter
+     * store
+     */
+    void clear() {
+        lockAndFold();
+        try {
+            double decayRate = ranking.getDecayRate();
+
+            ranking = new HotSearchRanking();
+
+            if (decayRate > 0)
+                ranking.setDecayRate(decayRate);
+
+            nameIndex.clear();
+            prefixIndex = new PrefixIndex(ranking);
+            bigramIndex = new BigramIndex();
+            pendingVotes = new PendingVotes();
+            auctionHouse = new AuctionHouse();
+            trending = null;
+            version++;
+            rankChanges.resync();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Apply a record of the log to the hot searches during recovery, before
+     * any log is used. Records that have already been applied, or refer to
+     * evicted hot searches, change nothing
+     *
+     * @param record a record of a hot search mutation
+     */
+    void replay(WriteAheadLog.Record record) {
+
+        Node node = nameIndex.get(NameUtil.fold(record.name));
+
+        switch (record.type) {
+
+            case WriteAheadLog.ADD_HOT_SEARCH:
+            case WriteAheadLog.ADD_SUPER_HOT_SEARCH:
+                if (node == null)
+                    add(record.name, record.type == WriteAheadLog.ADD_SUPER_HOT_SEARCH);
+                break;
+
+            case WriteAheadLog.VOTE:
+                if (node != null && node.entry.getVote() < record.second) {
+
+                    node.entry.addVotes((record.second - node.entry.getVote()) / node.entry.getWeight());
+                    pendingVotes.mark(node);
+
+                    // fold every vote on its own, in the order of the log,
+                    // rather than coalescing it with later votes
+                    lock.lock();
+                    try {
+                        fold();
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+                break;
+
+            case WriteAheadLog.BUY:
+                if (node != null) {
+                    lockAndFold();
+                    try {
+                        settle(node, replayedIndex(record), record.second);
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+                break;
+
+            default:
+                throw new IllegalArgumentException("not a hot search record: " + record.type);
+        }
+    }
+
+
+    /**
+     * Find the position bought by a replayed BUY record, which is the current
+     * position of the hot search that held it when it was bought, or the
+     * logged position if the record doesn't name the holder. The caller must
+     * hold the lock
+     *
+     * @return the 0-based position, or -1 if the holder no longer exists
+     */
+    private int replayedIndex(WriteAheadLog.Record record) {
+
+        if (record.holder == null)
+            return record.first;
+
+        Node holder = nameIndex.get(NameUtil.fold(record.holder));
+
+        return holder == null || holder.evicted ? -1 : ranking.indexOf(holder);
+    }
+
+
+    /**
+     * Find the position of a hot search together with its hotness at the
+     * same time, for a partitioned board to place it among the other shards
+     *
+     * @return the position, or null if the hot search doesn't exist
+     */
+    ShardedBoard.Position findPosition(String name) {
+
+        Node node = nameIndex.get(NameUtil.fold(name));
+
+        if (node == null)
+            return null;
+
+        lockAndFold();
+        try {
+            return node.evicted ? null : new ShardedBoard.Position(ranking.indexOf(node), ranking.hotness(node));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Count the hot searches that are hotter than the given hotness, or as
+     * hot if orEqual, for a partitioned board to place a hot search of
+     * another shard
+     *
+     * @see HotSearchRanking#countHotter(double, boolean)
+     */
+    int countHotter(double hotness, boolean orEqual) {
+        lockAndFold();
+        try {
+            return ranking.countHotter(hotness, orEqual);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Copy the hot searches into immutable rows, with their hotness at the
+     * current time. The counters of all of them are read from the store at
+     * once. The caller must hold the lock
+     */
+    private Leaderboard.Row[] toRows(List<Node> nodes) {
+
+        int[] ids = idsOf(nodes);
+        int[] votes = new int[ids.length];
+        int[] amounts = new int[ids.length];
+
+        counterStore.readCounters(ids, votes, amounts);
+
+        Leaderboard.Row[] rows = new Leaderboard.Row[ids.length];
+
+        for (int i = 0; i < rows.length; i++) {
+            Node node = nodes.get(i);
+            rows[i] = new Leaderboard.Row(counterStore.getName(ids[i]), amounts[i], votes[i],
+                    node.entry instanceof SuperHotSearch, ranking.hotness(node), node.pinned);
+        }
+
+        return rows;
+    }
+
+
+    /**
+     * Get the ids of the slots of hot searches in the counter store
+     */
+    private static int[] idsOf(List<Node> nodes) {
+
+        int[] ids = new int[nodes.size()];
+
+        for (int i = 0; i < ids.length; i++)
+            ids[i] = nodes.get(i).entry.getId();
+
+        return ids;
+    }
+
+
+    /**
+     * Copy a hot search into a row with its hotness at the current time.
+     * The caller must hold the lock
+     */
+    private Leaderboard.Row toRow(Node node) {
+        return new Leaderboard.Row(node.entry, ranking.hotness(node), node.pinned);
+    }
+
+
+    /**
+     * Get a view of a range of a list, clamped to the size of the list
+     */
+    private static <T> List<T> subList(List<T> list, int offset, int limit) {
+        int from = Math.min(offset, list.size());
+        int to = (int) Math.min(list.size(), (long) from + limit);
+        return list.subList(from, to);
+    }
+
+
+    /**
+     * Settle a purchase against the ranking. The caller must hold the lock
+     *
+     * @see HotSearchService#buyHotSearch(String, int, int)
+     */
+    private int settle(Node node, int index, int amount) {
+
+        if (node.evicted || index < 0 || index >= ranking.size())
+            return -1;
+
+        SettlementEvent event = new SettlementEvent();
+        event.begin();
+
+        HotSearch toBuy = node.entry;
+
+        HotSearch existing = ranking.get(index).entry;
+
+        int oldPrice = existing.getAmount();
+        int newPrice = toBuy.getAmount() + amount;
+
+        if (toBuy != existing && oldPrice >= newPrice) {
+            commit(event, toBuy, index, oldPrice, newPrice, null, 0);
+            return 0;
+        }
+
+        toBuy.setAmount(newPrice);
+        version++;
+
+        WriteAheadLog log = this.log;
+
+        if (log != null)
+            log.logBuy(toBuy.getName(), index, amount, existing.getName());
+
+        int oldIndex = rankChanges.hasSubscribers() ? ranking.indexOf(node) : -1;
+
+        HotSearch evicted = ranking.pin(node, index);
+
+        if (evicted != null) {
+
+            String key = NameUtil.fold(evicted.getName());
+            Node evictedNode = nameIndex.remove(key);
+            prefixIndex.remove(key);
+            bigramIndex.remove(key);
+
+            if (trending != null)
+                trending.remove(evictedNode);
+        }
+
+        prefixIndex.update(node);
+
+        if (oldIndex >= 0) {
+            rankChanges.publish(RankDelta.bought(toRow(node), oldIndex + 1, ranking.indexOf(node) + 1,
+                    evicted == null ? null : evicted.getName()));
+        }
+
+        commit(event, toBuy, index, oldPrice, newPrice, evicted, 1);
+
+        return 1;
+    }
+
+
+    /**
+     * Fill in and commit a settlement event if it is enabled
+     */
+    private static void commit(SettlementEvent event, HotSearch toBuy, int index, int oldPrice, int newPrice,
+                               HotSearch evicted, int result) {
+
+        if (!event.shouldCommit())
+            return;
+
+        event.name = toBuy.getName();
+        event.rank = index + 1;
+        event.oldPrice = oldPrice;
+        event.newPrice = newPrice;
+        event.evicted = evicted == null ? null : evicted.getName();
+        event.result = result;
+        event.commit();
+    }
+
+
+    /**
+     * Create a new hot search in the counter store, add it to the ranking
+     * and index it by its case-folded name
+     *
+     * @param name the name of the hot search to be added
+     * @param superHot whether a super hot search is to be added
+     */
+    private void add(String name, boolean superHot) {
+
+        WriteAheadLog log = this.log;
+        long sequence = 0;
+
+        lockAndFold();
+        try {
+            HotSearch hs = superHot ? new SuperHotSearch(name, counterStore) : new HotSearch(name, counterStore);
+
+            Node node = ranking.add(hs);
+
+            if (trending != null)
+                trending.track(node);
+
+            if (log != null)
+                sequence = log.logAdd(name, superHot);
+
+            String key = NameUtil.fold(hs.getName());
+            nameIndex.put(key, node);
+            prefixIndex.put(key, node);
+            bigramIndex.put(key, node);
+            version++;
+
+            if (rankChanges.hasSubscribers())
+                rankChanges.publish(RankDelta.added(toRow(node), ranking.indexOf(node) + 1));
+        } finally {
+            lock.unlock();
+        }
+
+        if (log != null)
+            log.await(sequence);
+    }
+
+
+    /**
+     * Create a hot search with the given votes and amount, to be restored
+     */
+    private HotSearch newHotSearch(String name, boolean superHot, int votes, int amount) {
+
+        HotSearch hs = superHot ? new SuperHotSearch(name, counterStore) : new HotSearch(name, counterStore);
+
+        hs.addVotes(votes / hs.getWeight());
+        hs.setAmount(amount);
+
+        return hs;
+    }
+
+
+    /**
+     * Create the hot search at a position of a snapshot
+     */
+    private HotSearch newHotSearch(Snapshot snapshot, int i) {
+        return newHotSearch(snapshot.names[i], (snapshot.flags[i] & Snapshot.SUPER_HOT) != 0,
+                snapshot.votes[i], snapshot.amounts[i]);
+    }
+
+
+    /**
+     * Append a hot search to a ranking list that is being restored in order.
+     * The caller must hold the lock
+     *
+     * @param pinned whether the hot search had been bought at its position
+     */
+    private void load(HotSearch hs, boolean pinned) {
+
+        Node node = ranking.load(hs, pinned);
+
+        if (trending != null)
+            trending.track(node);
+
+        String key = NameUtil.fold(hs.getName());
+        nameIndex.put(key, node);
+        prefixIndex.put(key, node);
+        bigramIndex.put(key, node);
+    }
+
+
+    /**
+     * Acquire the ranking lock and fold all pending votes into the ranking.
+     * The caller must release the lock afterwards
+     */
+    private void lockAndFold() {
+        lock.lock();
+        fold();
+    }
+
+
+    /**
+     * Fold all pending votes into the ranking, and increase the version if
+     * any hot search has received votes. The caller must hold the lock
+     */
+    private void fold() {
+        if (pendingVotes.drainTo(this::foldVotes) > 0)
+            version++;
+    }
+
+
+    /**
+     * Fold the current votes of a hot search into the ranking and the
+     * trending board. The caller must hold the lock. The rank is only looked
+     * up for a RankMoveEvent while a recording is running, or for a rank
+     * change while anyone subscribes to them
+     */
+    private void foldVotes(Node node) {
+
+        RankMoveEvent event = new RankMoveEvent();
+        boolean publish = rankChanges.hasSubscribers();
+        int oldIndex = (event.isEnabled() || publish) && !node.evicted ? ranking.indexOf(node) : -1;
+
+        event.begin();
+        ranking.vote(node);
+        event.end();
+
+        prefixIndex.update(node);
+
+        if (oldIndex >= 0) {
+
+            int newIndex = ranking.indexOf(node);
+
+            if (publish)
+                rankChanges.publish(RankDelta.voted(toRow(node), oldIndex + 1, newIndex + 1));
+
+            if (newIndex != oldIndex && event.shouldCommit()) {
+                event.name = node.entry.getName();
+                event.oldRank = oldIndex + 1;
+                event.newRank = newIndex + 1;
+                event.shifted = Math.abs(newIndex - oldIndex);
+                event.commit();
+            }
+        }
+
+        if (trending != null)
+            trending.record(node);
+    }
+
+
+    /**
+     * Do not let this class to be instantiated externally
+     */
+    private HotSearchService() {
+        init();
+    }
+
+
+    /**
+     * Create a shard of a partitioned board
+     *
+     * @param counterStore the store shared by all shards
+     */
+    HotSearchService(CounterStore counterStore) {
         init();
+        this.counterStore = counterStore;
     }
 
 
     /**
      * Simulates the process of connecting to a database.
-     * Create an empty list at startup to store hot searches
+     * Create an empty ranking at startup to store hot searches
      */
     private void init() {
-        hotSearches = new ArrayList<>();
+        ranking = new HotSearchRanking();
+        nameIndex = new ConcurrentHashMap<>();
+        prefixIndex = new PrefixIndex(ranking);
+        bigramIndex = new BigramIndex();
+        pendingVotes = new PendingVotes();
+        auctionHouse = new AuctionHouse();
+        counterStore = new ArrayCounterStore();
+        rankChanges = new RankChangePublisher(lock, this::getLeaderboard, RANK_CHANGE_EXECUTOR,
+                RANK_CHANGE_BUFFER_SIZE);
     }
 
 
@@ -0,0 +1,46 @@
+package com.twu.service;
+
+
+/**
+ * Utility methods for comparing names case insensitively
+ */
+class NameUtil {
+
+
+    /**
+     * Fold a name into a key that is equal for any two names that are equal
+     * according to String#equalsIgnoreCase, regardless of the default locale.
+     * Each char is folded the same way as String#equalsIgnoreCase compares it,
+     * and the name itself is returned if no char needs to be folded
+     *
+     * @param name the name to be folded
+     * @return the case-folded key of the name
+     */
+    static String fold(String name) {
+
+        char[] chars = null;
+
+        for (int i = 0; i < name.length(); i++) {
+
+            char c = name.charAt(i);
+            char folded = Character.toLowerCase(Character.toUpperCase(c));
+
+            if (folded == c)
+                continue;
+
+            if (chars == null)
+                chars = name.toCharArray();
+
+            chars[i] = folded;
+        }
+
+        return chars == null ? name : new String(chars);
+    }
+
+
+    /**
+     * Do not let this class to be instantiated
+     */
+    private NameUtil() {}
+
+}
@@ -0,0 +1,87 @@
+package com.twu.service;
+
+import com.twu.service.RankTree.Node;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.function.Consumer;
+
+
+/**
+ * The hot searches whose votes have changed but haven't been folded
+ * into the ranking yet.
+ *
+ * Voters only add to the striped vote counter of a hot search and mark
+ * its handle as pending here, which doesn't need the ranking lock. A
+ * handle is queued at most once no matter how many votes it receives
+ * before it is folded, so a hot search voted by many threads at the same
+ * time costs the ranking a single reorder
+ */
+class PendingVotes {
+
+
+    /**
+     * Atomically flips the pending flag of a handle
+     */
+    private static final AtomicIntegerFieldUpdater<Node> PENDING =
+            AtomicIntegerFieldUpdater.newUpdater(Node.class, "pending");
+
+
+    /**
+     * The handles marked as pending, in the order they were first marked
+     */
+    private final Queue<Node> queue = new ConcurrentLinkedQueue<>();
+
+
+    /**
+     * Mark the handle of a hot search as pending, unless it already is.
+     * Must be called after the votes have been added to the counter
+     *
+     * @param node the handle of the voted hot search
+     */
+    void mark(Node node) {
+        if (PENDING.compareAndSet(node, 0, 1))
+            queue.add(node);
+    }
+
+
+    /**
+     * Check whether any handle is waiting to be folded
+     *
+     * @return whether any handle is waiting to be folded
+     */
+    boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+
+    /**
+     * Fold the current votes of all pending hot searches that haven't been
+     * evicted. The caller must hold the lock of the ranking.
+     *
+     * The pending flag is cleared before the votes are read, so votes
+     * added while folding mark the handle again and are folded later
+     *
+     * @param fold folds the current votes of a hot search into the ranking
+     * @return the number of handles that have been folded
+     */
+    int drainTo(Consumer<Node> fold) {
+
+        int count = 0;
+        Node node;
+
+        while ((node = queue.poll()) != null) {
+
+            PENDING.set(node, 0);
+
+            if (!node.evicted) {
+                fold.accept(node);
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+}
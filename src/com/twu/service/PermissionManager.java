@@ -53,10 +53,10 @@ public class PermissionManager {
     private Feature[] grantAccess(Class userClass) {
 
         if (userClass == AdminUser.class)
-            return new Feature[] { SEE_HOT_SEARCHES, ADD_HOT_SEARCH, ADD_SUPER_HOT_SEARCH, EXIT };
+            return new Feature[] { SEE_HOT_SEARCHES, SEARCH_HOT_SEARCHES, ADD_HOT_SEARCH, ADD_SUPER_HOT_SEARCH, EXIT };
 
         if (userClass == RegularUser.class)
-            return new Feature[] { SEE_HOT_SEARCHES, ADD_HOT_SEARCH, VOTE_HOT_SEARCH, BUY_HOT_SEARCH, EXIT };
+            return new Feature[] { SEE_HOT_SEARCHES, SEARCH_HOT_SEARCHES, ADD_HOT_SEARCH, VOTE_HOT_SEARCH, BUY_HOT_SEARCH, EXIT };
 
         throw new IllegalArgumentException("user type not supported");
     }
@@ -87,6 +87,11 @@ public class PermissionManager {
          */
         SEE_HOT_SEARCHES,
 
+        /**
+         * Search for hot searches whose names contain a term
+         */
+        SEARCH_HOT_SEARCHES,
+
         /**
          * Add a hot search with a certain name that hasn't been added
          */
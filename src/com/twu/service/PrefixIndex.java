@@ -0,0 +1,439 @@
+package com.twu.service;
+
+import com.twu.service.RankTree.Node;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+
+/**
+ * The index of hot searches by the sorted case-folded keys of their names,
+ * which finds the hot searches whose names start with a prefix in the order
+ * of the ranking list.
+ *
+ * The keys are kept in a treap sorted by key, and every subtree keeps the
+ * hot search inside it that ranks first among the ones that haven't been
+ * bought, and the one that ranks first among the bought ones. Since a vote
+ * or a purchase moves a single hot search and keeps the relative order of
+ * all others, only the subtrees on the path of the moved hot search change,
+ * and they are updated in O(log n) time.
+ *
+ * The keys that start with a prefix are a range of the sorted keys, which
+ * is covered by O(log n) subtrees found with O(log n) comparisons of up to
+ * L chars, where L is the length of the prefix. The first k matches of
+ * either kind are then taken from those subtrees best first, descending
+ * O(log n) levels through a priority queue for each of them, and the two
+ * kinds are merged by their positions. So a query costs O(L log n + k log^2 n)
+ * time in the worst case, whatever the number of matches and wherever they
+ * are on the ranking list, and no name is read or folded on the way.
+ *
+ * It is not thread-safe, and must only be used under the ranking lock
+ */
+class PrefixIndex {
+
+
+    /**
+     * The source of the random priorities that keep the treap balanced
+     */
+    private static final Random PRIORITIES = new Random();
+
+
+    private final HotSearchRanking ranking;
+
+    private Key root;
+
+
+    /**
+     * The entry of a hot search in the index, which is a node of the treap
+     */
+    static class Key {
+
+
+        /**
+         * The case-folded name of the hot search
+         */
+        final String key;
+
+        final Node node;
+
+        /**
+         * The hot search in this subtree that ranks first among the ones
+         * that haven't been bought, or null if all of them have been bought
+         */
+        Node bestUnpaid;
+
+        /**
+         * The hot search in this subtree that ranks first among the bought
+         * ones, or null if none of them has been bought
+         */
+        Node bestPinned;
+
+        int priority;
+
+        Key left;
+
+        Key right;
+
+        Key parent;
+
+
+        Key(String key, Node node) {
+            this.key = key;
+            this.node = node;
+        }
+
+    }
+
+
+    /**
+     * A subtree of matching keys, or a single matching key, waiting in the
+     * priority queue of a query
+     */
+    private static class Candidate {
+
+
+        final Key key;
+
+        /**
+         * Whether the candidate stands for the whole subtree of the key, or
+         * only for the key itself
+         */
+        final boolean whole;
+
+        /**
+         * The hot search of the candidate that ranks first
+         */
+        final Node best;
+
+
+        Candidate(Key key, boolean whole, Node best) {
+            this.key = key;
+            this.whole = whole;
+            this.best = best;
+        }
+
+    }
+
+
+    /**
+     * The matching hot searches of one kind, bought or not, in the order of
+     * the ranking list
+     */
+    private class Matches {
+
+
+        private final boolean pinned;
+
+        private final PriorityQueue<Candidate> queue;
+
+
+        Matches(String prefix, boolean pinned) {
+
+            this.pinned = pinned;
+
+            queue = new PriorityQueue<>((a, b) -> a.best == b.best ? 0 : before(a.best, b.best) ? -1 : 1);
+
+            collect(prefix);
+        }
+
+
+        /**
+         * Take the next matching hot search
+         *
+         * @return the next matching hot search, or null if there are no more
+         */
+        Node next() {
+
+            Candidate candidate;
+
+            while ((candidate = queue.poll()) != null) {
+
+                if (!candidate.whole)
+                    return candidate.best;
+
+                offer(candidate.key, false);
+                offer(candidate.key.left, true);
+                offer(candidate.key.right, true);
+            }
+
+            return null;
+        }
+
+
+        /**
+         * Offer the subtrees and keys that cover the keys starting with the
+         * prefix. The keys on the left of a matching key only need to be
+         * checked against the prefix from below, and the ones on its right
+         * from above, since the matching keys are a range of the sorted keys
+         */
+        private void collect(String prefix) {
+
+            Key t = root;
+
+            while (t != null && !t.key.startsWith(prefix))
+                t = t.key.compareTo(prefix) < 0 ? t.right : t.left;
+
+            if (t == null)
+                return;
+
+            offer(t, false);
+
+            for (Key n = t.left; n != null; ) {
+                if (n.key.compareTo(prefix) >= 0) {
+                    offer(n, false);
+                    offer(n.right, true);
+                    n = n.left;
+                } else {
+                    n = n.right;
+                }
+            }
+
+            for (Key n = t.right; n != null; ) {
+                if (n.key.startsWith(prefix)) {
+                    offer(n, false);
+                    offer(n.left, true);
+                    n = n.right;
+                } else {
+                    n = n.left;
+                }
+            }
+        }
+
+
+        private void offer(Key key, boolean whole) {
+
+            if (key == null)
+                return;
+
+            Node best;
+
+            if (whole)
+                best = pinned ? key.bestPinned : key.bestUnpaid;
+            else
+                best = key.node.pinned == pinned ? key.node : null;
+
+            if (best != null)
+                queue.add(new Candidate(key, whole, best));
+        }
+
+
+        private boolean before(Node a, Node b) {
+            return pinned ? ranking.pinnedBefore(a, b) : HotSearchRanking.unpaidBefore(a, b);
+        }
+
+    }
+
+
+    /**
+     * @param ranking the ranking that orders the indexed hot searches
+     */
+    PrefixIndex(HotSearchRanking ranking) {
+        this.ranking = ranking;
+    }
+
+
+    /**
+     * Index a hot search by the case-folded key of its name, once it is in
+     * the ranking
+     */
+    void put(String key, Node node) {
+
+        remove(key);
+
+        Key entry = new Key(key, node);
+        entry.priority = PRIORITIES.nextInt();
+        pull(entry);
+
+        node.prefixKey = entry;
+
+        Key[] parts = split(root, key);
+
+        root = merge(merge(parts[0], entry), parts[1]);
+        root.parent = null;
+    }
+
+
+    /**
+     * Remove a hot search by the case-folded key of its name
+     */
+    void remove(String key) {
+
+        Key entry = root;
+
+        while (entry != null && !entry.key.equals(key))
+            entry = entry.key.compareTo(key) < 0 ? entry.right : entry.left;
+
+        if (entry == null)
+            return;
+
+        Key child = merge(entry.left, entry.right);
+        Key parent = entry.parent;
+
+        if (child != null)
+            child.parent = parent;
+
+        if (parent == null)
+            root = child;
+        else if (parent.left == entry)
+            parent.left = child;
+        else
+            parent.right = child;
+
+        for (Key n = parent; n != null; n = n.parent)
+            pull(n);
+
+        entry.node.prefixKey = null;
+    }
+
+
+    /**
+     * Update the index after a hot search has moved on the ranking list, or
+     * has been bought. Any hot search evicted by the same purchase must have
+     * been removed first
+     */
+    void update(Node node) {
+        for (Key n = node.prefixKey; n != null; n = n.parent)
+            pull(n);
+    }
+
+
+    /**
+     * Update the whole index after the ranking has reordered all hot
+     * searches, such as when the decay rate changes
+     */
+    void reorder() {
+        pullAll(root);
+    }
+
+
+    /**
+     * Find the hot searches whose keys start with a prefix
+     *
+     * @param prefix the case-folded prefix
+     * @param k the maximum number of hot searches to be found
+     * @return the first k matching hot searches in the order of the ranking
+     *         list, or all of them if there are fewer than k
+     */
+    List<Node> findTop(String prefix, int k) {
+
+        List<Node> top = new ArrayList<>(Math.min(k, 64));
+
+        if (k == 0)
+            return top;
+
+        Matches unpaid = new Matches(prefix, false);
+        Matches pinned = new Matches(prefix, true);
+
+        Node u = unpaid.next();
+        Node p = pinned.next();
+        int pinnedIndex = p == null ? -1 : ranking.indexOf(p);
+
+        while (top.size() < k && (u != null || p != null)) {
+
+            if (p == null || u != null && ranking.indexOf(u) < pinnedIndex) {
+                top.add(u);
+                u = unpaid.next();
+            } else {
+                top.add(p);
+                p = pinned.next();
+                pinnedIndex = p == null ? -1 : ranking.indexOf(p);
+            }
+        }
+
+        return top;
+    }
+
+
+    /**
+     * Recompute the best hot searches of a subtree from its children, and
+     * point the children back to the subtree
+     */
+    private void pull(Key n) {
+
+        n.bestUnpaid = n.node.pinned ? null : n.node;
+        n.bestPinned = n.node.pinned ? n.node : null;
+
+        if (n.left != null)
+            pullChild(n, n.left);
+
+        if (n.right != null)
+            pullChild(n, n.right);
+    }
+
+
+    private void pullChild(Key n, Key child) {
+
+        child.parent = n;
+
+        if (child.bestUnpaid != null
+                && (n.bestUnpaid == null || HotSearchRanking.unpaidBefore(child.bestUnpaid, n.bestUnpaid)))
+            n.bestUnpaid = child.bestUnpaid;
+
+        if (child.bestPinned != null
+                && (n.bestPinned == null || ranking.pinnedBefore(child.bestPinned, n.bestPinned)))
+            n.bestPinned = child.bestPinned;
+    }
+
+
+    private void pullAll(Key n) {
+
+        if (n == null)
+            return;
+
+        pullAll(n.left);
+        pullAll(n.right);
+        pull(n);
+    }
+
+
+    /**
+     * Split a treap into the keys before the given key and the rest
+     */
+    private Key[] split(Key n, String key) {
+
+        if (n == null)
+            return new Key[2];
+
+        Key[] parts;
+
+        if (n.key.compareTo(key) < 0) {
+            parts = split(n.right, key);
+            n.right = parts[0];
+            pull(n);
+            parts[0] = n;
+        } else {
+            parts = split(n.left, key);
+            n.left = parts[1];
+            pull(n);
+            parts[1] = n;
+        }
+
+        return parts;
+    }
+
+
+    /**
+     * Merge two treaps where all keys of the first are before the second
+     */
+    private Key merge(Key a, Key b) {
+
+        if (a == null)
+            return b;
+
+        if (b == null)
+            return a;
+
+        if (a.priority > b.priority) {
+            a.right = merge(a.right, b);
+            pull(a);
+            return a;
+        }
+
+        b.left = merge(a, b.left);
+        pull(b);
+        return b;
+    }
+
+}
@@ -0,0 +1,277 @@
+package com.twu.service;
+
+import com.twu.entity.Leaderboard;
+import com.twu.entity.RankDelta;
+
+import java.util.ArrayDeque;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Supplier;
+
+
+/**
+ * Publishes the changes to the ranking list of a HotSearchService to its
+ * subscribers.
+ *
+ * The changes are published under the ranking lock, in the order they are
+ * made, into a bounded buffer of every subscriber, and delivered to each
+ * subscriber on an executor as it requests them. A subscriber first gets a
+ * SNAPSHOT of the whole list. If it falls so far behind that its buffer
+ * overflows, the buffered changes are dropped, and it gets a fresh SNAPSHOT
+ * before the changes that follow it. The snapshot is taken under the
+ * ranking lock together with dropping the buffered changes, so no change is
+ * both in the snapshot and delivered after it, or in neither.
+ *
+ * Publishing costs nothing while there are no subscribers, since the
+ * service only computes the changes if hasSubscribers
+ */
+class RankChangePublisher implements Flow.Publisher<RankDelta> {
+
+
+    /**
+     * The ranking lock that changes are published under
+     */
+    private final Lock lock;
+
+    /**
+     * Takes a snapshot of the ranking list, called under the ranking lock
+     */
+    private final Supplier<Leaderboard> snapshot;
+
+    private final Executor executor;
+
+    /**
+     * The maximum number of changes buffered for a subscriber
+     */
+    private final int bufferSize;
+
+    private final Set<Subscription> subscriptions = new CopyOnWriteArraySet<>();
+
+
+    RankChangePublisher(Lock lock, Supplier<Leaderboard> snapshot, Executor executor, int bufferSize) {
+        this.lock = lock;
+        this.snapshot = snapshot;
+        this.executor = executor;
+        this.bufferSize = bufferSize;
+    }
+
+
+    /**
+     * Create an executor of daemon threads that are started as subscribers
+     * need them and stop after a minute idle, so that nothing runs while
+     * nobody subscribes
+     */
+    static Executor newExecutor() {
+
+        AtomicInteger index = new AtomicInteger();
+
+        ThreadFactory factory = r -> {
+            Thread thread = new Thread(r, "rank-changes-" + index.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+
+        return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), factory);
+    }
+
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super RankDelta> subscriber) {
+
+        Subscription subscription = new Subscription(subscriber);
+
+        subscriptions.add(subscription);
+        subscriber.onSubscribe(subscription);
+    }
+
+
+    boolean hasSubscribers() {
+        return !subscriptions.isEmpty();
+    }
+
+
+    /**
+     * Publish a change to every subscriber. The caller must hold the lock
+     */
+    void publish(RankDelta delta) {
+        for (Subscription subscription : subscriptions)
+            subscription.offer(delta);
+    }
+
+
+    /**
+     * Drop the buffered changes of every subscriber and send a fresh
+     * snapshot instead, after a change that isn't expressed as a delta,
+     * such as reordering the whole list. The caller must hold the lock
+     */
+    void resync() {
+        for (Subscription subscription : subscriptions)
+            subscription.resync();
+    }
+
+
+    private class Subscription implements Flow.Subscription {
+
+
+        private final Flow.Subscriber<? super RankDelta> subscriber;
+
+        private final ArrayDeque<RankDelta> buffer = new ArrayDeque<>();
+
+        /**
+         * The number of changes requested and not delivered yet
+         */
+        private long demand;
+
+        /**
+         * Whether a snapshot is to be delivered before the buffered changes
+         */
+        private boolean stale = true;
+
+        /**
+         * Whether a task delivering to the subscriber is running or queued
+         */
+        private boolean draining;
+
+        private boolean cancelled;
+
+
+        Subscription(Flow.Subscriber<? super RankDelta> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+
+        @Override
+        public void request(long n) {
+
+            if (n <= 0) {
+                cancel();
+                subscriber.onError(new IllegalArgumentException("the number of requested changes must be positive"));
+                return;
+            }
+
+            synchronized (this) {
+                demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                schedule();
+            }
+        }
+
+
+        @Override
+        public void cancel() {
+
+            synchronized (this) {
+                cancelled = true;
+                buffer.clear();
+            }
+
+            subscriptions.remove(this);
+        }
+
+
+        synchronized void offer(RankDelta delta) {
+
+            if (cancelled)
+                return;
+
+            if (buffer.size() >= bufferSize) {
+                resync();
+                return;
+            }
+
+            buffer.add(delta);
+            schedule();
+        }
+
+
+        synchronized void resync() {
+            buffer.clear();
+            stale = true;
+            schedule();
+        }
+
+
+        /**
+         * Start delivering if there is something to deliver and demand for
+         * it. The caller must hold the monitor
+         */
+        private void schedule() {
+
+            if (draining || cancelled || demand == 0 || !stale && buffer.isEmpty())
+                return;
+
+            draining = true;
+            executor.execute(this::drain);
+        }
+
+
+        /**
+         * Deliver changes while there are any and they are requested
+         */
+        private void drain() {
+
+            while (true) {
+
+                RankDelta next;
+
+                synchronized (this) {
+
+                    if (cancelled || demand == 0 || !stale && buffer.isEmpty()) {
+                        draining = false;
+                        return;
+                    }
+
+                    next = stale ? null : buffer.poll();
+                }
+
+                if (next == null)
+                    next = takeSnapshot();
+
+                synchronized (this) {
+                    demand--;
+                }
+
+                try {
+                    subscriber.onNext(next);
+                } catch (RuntimeException e) {
+                    cancel();
+                    subscriber.onError(e);
+                    return;
+                }
+            }
+        }
+
+
+        /**
+         * Take a snapshot and drop the buffered changes under the ranking
+         * lock, so that the changes published afterwards follow it
+         */
+        private RankDelta takeSnapshot() {
+
+            lock.lock();
+            try {
+
+                Leaderboard board = snapshot.get();
+
+                synchronized (this) {
+                    buffer.clear();
+                    stale = false;
+                }
+
+                return RankDelta.snapshot(board);
+
+            } finally {
+                lock.unlock();
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,33 @@
+package com.twu.service;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+
+/**
+ * A JFR event for a hot search moving to a different rank after its votes
+ * have been folded into the ranking, lasting as long as the reorder
+ */
+@Name("com.twu.RankMove")
+@Label("Rank Move")
+@Category({ "Hot Search", "Ranking" })
+@Description("A hot search moved to a different rank")
+class RankMoveEvent extends jdk.jfr.Event {
+
+
+    @Label("Hot Search")
+    String name;
+
+    @Label("Old Rank")
+    int oldRank;
+
+    @Label("New Rank")
+    int newRank;
+
+    @Label("Entries Shifted")
+    @Description("The number of hot searches that moved by one rank to make room")
+    int shifted;
+
+}
@@ -0,0 +1,403 @@
+package com.twu.service;
+
+import com.twu.entity.HotSearch;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Random;
+import java.util.function.Consumer;
+
+
+/**
+ * A sequence of ranking nodes backed by a treap with implicit keys.
+ *
+ * The position of a node is given by the sizes of the subtrees on its
+ * left, so nodes can be inserted at, removed from and looked up by any
+ * position in O(log n). Every node also carries an integer weight, and
+ * each subtree keeps the sum of the weights inside it so that prefix
+ * sums can be computed in O(log n) as well. Parent pointers allow the
+ * position of a node to be found from the node itself
+ */
+class RankTree {
+
+
+    /**
+     * The source of the random priorities that keep the treap balanced
+     */
+    private static final Random PRIORITIES = new Random();
+
+
+    /**
+     * The root of the treap, or null if the sequence is empty
+     */
+    Node root;
+
+
+    /**
+     * Get the number of nodes in the sequence
+     *
+     * @return the number of nodes in the sequence
+     */
+    int size() {
+        return size(root);
+    }
+
+
+    /**
+     * Insert a detached node at the given position. The nodes at and
+     * after the position will step back by one
+     *
+     * @param index the 0-based position to insert the node at
+     * @param node the node to be inserted, which must not be in any tree
+     */
+    void insertAt(int index, Node node) {
+
+        node.left = null;
+        node.right = null;
+        node.parent = null;
+        node.priority = PRIORITIES.nextInt();
+        pull(node);
+
+        Node[] parts = split(root, index);
+
+        root = merge(merge(parts[0], node), parts[1]);
+        root.parent = null;
+    }
+
+
+    /**
+     * Remove a node from the sequence. The nodes after it will step
+     * up by one
+     *
+     * @param node the node to be removed, which must be in this tree
+     */
+    void remove(Node node) {
+
+        Node child = merge(node.left, node.right);
+        Node parent = node.parent;
+
+        if (child != null)
+            child.parent = parent;
+
+        if (parent == null)
+            root = child;
+        else if (parent.left == node)
+            parent.left = child;
+        else
+            parent.right = child;
+
+        for (Node n = parent; n != null; n = n.parent)
+            pull(n);
+
+        node.left = null;
+        node.right = null;
+        node.parent = null;
+    }
+
+
+    /**
+     * Get the node at the given position
+     *
+     * @param index the 0-based position of the node
+     * @return the node at the given position
+     */
+    Node get(int index) {
+
+        if (index < 0 || index >= size())
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+
+        Node n = root;
+
+        while (true) {
+
+            int leftSize = size(n.left);
+
+            if (index == leftSize)
+                return n;
+
+            if (index < leftSize) {
+                n = n.left;
+            } else {
+                index -= leftSize + 1;
+                n = n.right;
+            }
+        }
+    }
+
+
+    /**
+     * Get the node after the given node in the sequence, in amortized O(1)
+     *
+     * @param node the node, which must be in this tree
+     * @return the next node, or null if the given node is the last one
+     */
+    Node next(Node node) {
+
+        if (node.right != null) {
+            Node n = node.right;
+            while (n.left != null)
+                n = n.left;
+            return n;
+        }
+
+        Node n = node;
+
+        while (n.parent != null && n.parent.right == n)
+            n = n.parent;
+
+        return n.parent;
+    }
+
+
+    /**
+     * Get the node before the given node in the sequence, in amortized O(1)
+     *
+     * @param node the node, which must be in this tree
+     * @return the previous node, or null if the given node is the first one
+     */
+    Node previous(Node node) {
+
+        if (node.left != null) {
+            Node n = node.left;
+            while (n.right != null)
+                n = n.right;
+            return n;
+        }
+
+        Node n = node;
+
+        while (n.parent != null && n.parent.left == n)
+            n = n.parent;
+
+        return n.parent;
+    }
+
+
+    /**
+     * Get the position of a node in the sequence
+     *
+     * @param node the node, which must be in this tree
+     * @return the 0-based position of the node
+     */
+    int indexOf(Node node) {
+
+        int index = size(node.left);
+
+        for (Node n = node; n.parent != null; n = n.parent)
+            if (n.parent.right == n) index += size(n.parent.left) + 1;
+
+        return index;
+    }
+
+
+    /**
+     * Get the sum of the weights of all nodes from the start of the
+     * sequence up to and including the given node
+     *
+     * @param node the node, which must be in this tree
+     * @return the inclusive prefix sum of weights up to the node
+     */
+    int prefixWeight(Node node) {
+
+        int prefix = sum(node.left) + node.weight;
+
+        for (Node n = node; n.parent != null; n = n.parent)
+            if (n.parent.right == n) prefix += sum(n.parent.left) + n.parent.weight;
+
+        return prefix;
+    }
+
+
+    /**
+     * Change the weight of a node and update the sums of its ancestors
+     *
+     * @param node the node, which must be in this tree
+     * @param weight the new weight of the node
+     */
+    void setWeight(Node node, int weight) {
+
+        node.weight = weight;
+
+        for (Node n = node; n != null; n = n.parent)
+            pull(n);
+    }
+
+
+    /**
+     * Visit every node in the order of the sequence
+     *
+     * @param action the action to be performed on each node
+     */
+    void forEach(Consumer<Node> action) {
+
+        Deque<Node> stack = new ArrayDeque<>();
+        Node n = root;
+
+        while (n != null || !stack.isEmpty()) {
+
+            while (n != null) {
+                stack.push(n);
+                n = n.left;
+            }
+
+            n = stack.pop();
+            action.accept(n);
+            n = n.right;
+        }
+    }
+
+
+    static int size(Node n) {
+        return n == null ? 0 : n.size;
+    }
+
+
+    static int sum(Node n) {
+        return n == null ? 0 : n.sum;
+    }
+
+
+    /**
+     * Split a subtree into the first count nodes and the rest
+     *
+     * @return an array of the two resulting subtrees, either may be null
+     */
+    private static Node[] split(Node n, int count) {
+
+        if (n == null)
+            return new Node[2];
+
+        if (size(n.left) >= count) {
+            Node[] parts = split(n.left, count);
+            n.left = parts[1];
+            pull(n);
+            parts[1] = n;
+            return parts;
+        }
+
+        Node[] parts = split(n.right, count - size(n.left) - 1);
+        n.right = parts[0];
+        pull(n);
+        parts[0] = n;
+        return parts;
+    }
+
+
+    /**
+     * Concatenate two subtrees, keeping the heap order of the priorities
+     *
+     * @return the root of the concatenated subtree
+     */
+    private static Node merge(Node a, Node b) {
+
+        if (a == null) return b;
+        if (b == null) return a;
+
+        if (a.priority > b.priority) {
+            a.right = merge(a.right, b);
+            pull(a);
+            return a;
+        }
+
+        b.left = merge(a, b.left);
+        pull(b);
+        return b;
+    }
+
+
+    /**
+     * Recompute the size and the weight sum of a node from its children,
+     * and point the children back to the node
+     */
+    private static void pull(Node n) {
+
+        n.size = 1 + size(n.left) + size(n.right);
+        n.sum = n.weight + sum(n.left) + sum(n.right);
+
+        if (n.left != null) n.left.parent = n;
+        if (n.right != null) n.right.parent = n;
+    }
+
+
+    /**
+     * A node of the treap, which also serves as the handle of a hot search
+     * inside the ranking
+     */
+    static class Node {
+
+
+        /**
+         * The hot search held by this node
+         */
+        final HotSearch entry;
+
+        /**
+         * The score of the hot search, used as the primary sort key among hot
+         * searches that haven't been bought, see HotSearchRanking
+         */
+        double score = Double.NEGATIVE_INFINITY;
+
+        /**
+         * The votes of the hot search that have been counted into the score
+         */
+        int scoredVotes;
+
+        /**
+         * The logical time when the hot search was last placed in the ranking,
+         * used to order hot searches with the same votes
+         */
+        long stamp;
+
+        /**
+         * The votes of the hot search within the trending window, or null if
+         * trending is disabled
+         */
+        TrendingBoard.Counter trend;
+
+        /**
+         * The entry of the hot search in the prefix index, or null if it
+         * isn't indexed
+         */
+        PrefixIndex.Key prefixKey;
+
+        /**
+         * Whether the hot search has been bought and is pinned at its position
+         */
+        boolean pinned;
+
+        /**
+         * Whether the hot search has been evicted from the ranking by a purchase
+         */
+        boolean evicted;
+
+        /**
+         * Whether the votes of the hot search are waiting to be folded into
+         * the ranking, see PendingVotes
+         */
+        volatile int pending;
+
+        /**
+         * The weight of this node, see RankTree
+         */
+        int weight;
+
+        int priority;
+
+        int size;
+
+        int sum;
+
+        Node left;
+
+        Node right;
+
+        Node parent;
+
+
+        Node(HotSearch entry) {
+            this.entry = entry;
+        }
+
+    }
+
+}
@@ -0,0 +1,112 @@
+package com.twu.service;
+
+import com.twu.service.RankTree.Node;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Predicate;
+
+
+/**
+ * Utility methods for putting the hot searches found by an index in the
+ * order of the ranking list. The caller must hold the ranking lock.
+ *
+ * There are two ways to find the first k of m matching hot searches:
+ *
+ *   few matches: sort all of them by their current positions
+ *   many matches: walk the ranking list from the top and keep the matches,
+ *   which meets k of them after about k * n / m hot searches
+ *
+ * Both cost about the same when m is sqrt(k * n), which is the threshold
+ * between them. A walk that hasn't met k matches within a few times as many
+ * hot searches, because the matches are bunched up down the list, gives up,
+ * so that no query costs much more than sorting its matches. Either way a
+ * query may cost O(m log m) for m matches, which is why the PrefixIndex
+ * keeps the order of the ranking list in its own tree instead
+ */
+class RankUtil {
+
+
+    /**
+     * The number of hot searches read from the ranking list at a time when
+     * walking it from the top
+     */
+    private static final int WALK_BATCH = 64;
+
+
+    /**
+     * How many times the threshold the walk may read from the ranking list
+     * before it gives up
+     */
+    private static final int WALK_FACTOR = 4;
+
+
+    /**
+     * Get the number of matches above which walking the ranking list is
+     * expected to be cheaper than sorting the matches
+     */
+    static long threshold(int k, HotSearchRanking ranking) {
+        return (long) Math.ceil(Math.sqrt((double) k * ranking.size()));
+    }
+
+
+    /**
+     * Walk the ranking list from the top and keep the first k hot searches
+     * whose case-folded names match. The case-folded names are read from the
+     * entries of the prefix index, so no name is decoded or folded
+     *
+     * @param threshold the threshold of the query
+     * @return the hot searches found, or null if k of them haven't been
+     *         found within a few times the threshold
+     */
+    static List<Node> walk(Predicate<String> matches, int k, HotSearchRanking ranking, long threshold) {
+
+        List<Node> top = new ArrayList<>(k);
+
+        for (int offset = 0; offset < ranking.size() && top.size() < k; offset += WALK_BATCH) {
+
+            if (offset >= WALK_FACTOR * threshold)
+                return null;
+
+            for (Node node : ranking.range(offset, WALK_BATCH)) {
+                if (top.size() < k && matches.test(node.prefixKey.key))
+                    top.add(node);
+            }
+        }
+
+        return top;
+    }
+
+
+    /**
+     * Sort hot searches by their current positions and keep the first k
+     */
+    static List<Node> sort(List<Node> nodes, int k, HotSearchRanking ranking) {
+
+        int[] positions = new int[nodes.size()];
+        Integer[] order = new Integer[nodes.size()];
+
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = ranking.indexOf(nodes.get(i));
+            order[i] = i;
+        }
+
+        Arrays.sort(order, Comparator.comparingInt(i -> positions[i]));
+
+        List<Node> top = new ArrayList<>(Math.min(k, order.length));
+
+        for (int i = 0; i < order.length && i < k; i++)
+            top.add(nodes.get(order[i]));
+
+        return top;
+    }
+
+
+    /**
+     * Do not let this class to be instantiated
+     */
+    private RankUtil() {}
+
+}
@@ -0,0 +1,265 @@
+package com.twu.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+
+/**
+ * A Replica follows a primary through its ReplicationServer, and applies
+ * the shipped snapshots and records of the log to the HotSearchService and
+ * UserService of this process, which then serve reads such as findAll and
+ * findRange while the primary takes the writes.
+ *
+ * The records are applied in the order of their sequence numbers by a single
+ * thread, so the replica always shows a state the primary has been in. A
+ * shipped snapshot replaces everything the replica holds. If the connection
+ * is lost, the replica reconnects and continues after the last record it has
+ * applied.
+ *
+ * The services must not be written to by anything else while following a
+ * primary, and no write-ahead log must be used on them
+ */
+public class Replica implements Closeable {
+
+
+    /**
+     * The time between two attempts to connect to the primary
+     */
+    private static final long RECONNECT_MILLIS = 1000;
+
+
+    private final int port;
+
+    /**
+     * The directory that shipped snapshots are received into
+     */
+    private final Path directory;
+
+    private final Thread applier;
+
+    private volatile Socket socket;
+
+    private volatile boolean running = true;
+
+
+    /**
+     * The sequence number of the last record that has been applied
+     */
+    private volatile long applied;
+
+    /**
+     * The sequence number of the last durable record on the primary, as
+     * of the last frame received from it
+     */
+    private volatile long primarySequence;
+
+
+    /**
+     * Start following a primary on a loopback port
+     *
+     * @param port the port of the ReplicationServer of the primary
+     * @param directory the directory to receive shipped snapshots into
+     */
+    public Replica(int port, Path directory) throws IOException {
+
+        this.port = port;
+        this.directory = Files.createDirectories(directory);
+
+        applier = new Thread(this::run, "replica-applier");
+        applier.setDaemon(true);
+        applier.start();
+    }
+
+
+    /**
+     * Get the sequence number of the last record that has been applied
+     */
+    public long getAppliedSequence() {
+        return applied;
+    }
+
+
+    /**
+     * Get the number of records the replica is behind the primary, as of
+     * the last frame received from it, which is at most a heartbeat ago
+     * while connected
+     */
+    public long getLag() {
+        return Math.max(0, primarySequence - applied);
+    }
+
+
+    public boolean isConnected() {
+        return socket != null;
+    }
+
+
+    /**
+     * Stop following the primary
+     */
+    @Override
+    public void close() throws IOException {
+
+        running = false;
+
+        Socket socket = this.socket;
+
+        if (socket != null)
+            socket.close();
+
+        applier.interrupt();
+
+        try {
+            applier.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    private void run() {
+
+        while (running) {
+
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+
+                socket.setTcpNoDelay(true);
+                this.socket = socket;
+
+                follow(new DataInputStream(new BufferedInputStream(socket.getInputStream())),
+                        new DataOutputStream(new BufferedOutputStream(socket.getOutputStream())));
+
+            } catch (EOFException e) {
+                // the primary has closed the connection
+            } catch (IOException e) {
+                if (running)
+                    System.err.println("Replication from port " + port + " stopped: " + e);
+            } finally {
+                socket = null;
+            }
+
+            try {
+                if (running)
+                    Thread.sleep(RECONNECT_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+
+    /**
+     * Apply the frames shipped over a connection until it is closed
+     */
+    private void follow(DataInputStream in, DataOutputStream out) throws IOException {
+
+        out.writeLong(applied);
+        out.flush();
+
+        while (running) {
+
+            byte kind = in.readByte();
+
+            switch (kind) {
+
+                case ReplicationServer.SNAPSHOT:
+                    long sequence = in.readLong();
+                    receiveSnapshot(in, sequence, in.readLong());
+                    break;
+
+                case ReplicationServer.RECORDS:
+                    primarySequence = in.readLong();
+                    byte[] records = new byte[in.readInt()];
+                    in.readFully(records);
+                    applyRecords(records);
+                    break;
+
+                case ReplicationServer.HEARTBEAT:
+                    primarySequence = in.readLong();
+                    break;
+
+                default:
+                    throw new IOException("unknown frame: " + kind);
+            }
+
+            out.writeLong(applied);
+            out.flush();
+        }
+    }
+
+
+    /**
+     * Receive a snapshot into a file, and replace the state of the services
+     * with it
+     */
+    private void receiveSnapshot(DataInputStream in, long sequence, long length) throws IOException {
+
+        Path file = directory.resolve("replica.snap");
+
+        try (OutputStream out = Files.newOutputStream(file)) {
+
+            byte[] buffer = new byte[1 << 16];
+
+            for (long copied = 0; copied < length; ) {
+                int n = (int) Math.min(buffer.length, length - copied);
+                in.readFully(buffer, 0, n);
+                out.write(buffer, 0, n);
+                copied += n;
+            }
+        }
+
+        Snapshot snapshot = Snapshot.read(file);
+
+        if (snapshot == null || snapshot.sequence != sequence)
+            throw new IOException("the shipped snapshot " + sequence + " is corrupted");
+
+        HotSearchService hotSearchService = HotSearchService.getInstance();
+        UserService userService = UserService.getInstance();
+
+        hotSearchService.replace(snapshot);
+        userService.replace(snapshot);
+
+        applied = sequence;
+        primarySequence = Math.max(primarySequence, sequence);
+
+        Files.delete(file);
+    }
+
+
+    /**
+     * Apply the shipped records that follow the last applied one
+     */
+    private void applyRecords(byte[] records) throws IOException {
+
+        WriteAheadLog.Reader reader = new WriteAheadLog.Reader(new ByteArrayInputStream(records));
+
+        WriteAheadLog.Record record;
+
+        while ((record = reader.next()) != null) {
+
+            if (record.sequence <= applied)
+                continue;
+
+            if (record.sequence != applied + 1)
+                throw new IOException("expected record " + (applied + 1) + " but got " + record.sequence);
+
+            Checkpointer.replay(record);
+            applied = record.sequence;
+        }
+
+        if (reader.position() != records.length)
+            throw new IOException("the shipped records are corrupted after record " + applied);
+    }
+
+}
@@ -0,0 +1,400 @@
+package com.twu.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * The ReplicationServer ships the write-ahead log of the primary to read-only
+ * Replica processes on the same host over a loopback socket, so that reads
+ * of the leaderboard can be spread across several JVMs.
+ *
+ * A replica connects and sends the sequence number of the last record it has
+ * applied. A sender thread then tails the segments of the log and ships the
+ * bytes of the records as they are in the files, so the records keep their
+ * checksums and their order. Only records that are durable on the primary
+ * are shipped, so a replica never gets ahead of what the primary recovers
+ * after a crash. If the segments holding the records a replica needs have
+ * been deleted after a checkpoint, which is always the case for an empty
+ * replica once the first checkpoints have been taken, the latest snapshot is
+ * shipped first and the records after it follow.
+ *
+ * The stream consists of frames, each starting with a byte of its kind:
+ *
+ *   SNAPSHOT   long sequence, long length, the bytes of a snapshot file
+ *   RECORDS    long durable sequence, int length, the bytes of records
+ *   HEARTBEAT  long durable sequence, sent when there is nothing to ship
+ *
+ * The replica answers every frame with the sequence number of the last
+ * record it has applied, from which the lag of every replica is reported
+ */
+public class ReplicationServer implements Closeable {
+
+
+    static final byte SNAPSHOT = 'S';
+
+    static final byte RECORDS = 'R';
+
+    static final byte HEARTBEAT = 'H';
+
+
+    /**
+     * The time between two heartbeats when there is nothing to ship
+     */
+    private static final long HEARTBEAT_MILLIS = 100;
+
+    /**
+     * The maximum number of bytes of records shipped in a single frame
+     */
+    private static final int MAX_FRAME_SIZE = 1 << 20;
+
+
+    private final WriteAheadLog log;
+
+    private final Checkpointer checkpointer;
+
+    private final ServerSocket server;
+
+    private final Thread acceptor;
+
+    private final Set<Sender> senders = ConcurrentHashMap.newKeySet();
+
+    private volatile boolean running = true;
+
+
+    /**
+     * Start accepting replicas on a loopback port
+     *
+     * @param log the write-ahead log to ship, which the services append to
+     * @param checkpointer the checkpointer that writes the snapshots to
+     *                     ship to replicas that have fallen behind
+     * @param port the port to listen on, or 0 for any free port
+     */
+    public ReplicationServer(WriteAheadLog log, Checkpointer checkpointer, int port) throws IOException {
+
+        this.log = log;
+        this.checkpointer = checkpointer;
+
+        server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+
+        acceptor = new Thread(this::accept, "replication-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+
+    /**
+     * Get the port that replicas connect to
+     */
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+
+    /**
+     * Get the lag of every connected replica
+     *
+     * @return a map from the address of every connected replica to the
+     *         number of durable records it hasn't acknowledged yet
+     */
+    public Map<String, Long> getReplicaLags() {
+
+        long durable = log.durableSequence();
+
+        Map<String, Long> lags = new LinkedHashMap<>();
+
+        for (Sender sender : senders)
+            lags.put(sender.socket.getRemoteSocketAddress().toString(), Math.max(0, durable - sender.acknowledged));
+
+        return Collections.unmodifiableMap(lags);
+    }
+
+
+    /**
+     * Stop accepting replicas and disconnect the connected ones
+     */
+    @Override
+    public void close() throws IOException {
+
+        running = false;
+        server.close();
+
+        for (Sender sender : senders)
+            sender.socket.close();
+
+        try {
+            acceptor.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    private void accept() {
+
+        while (running) {
+
+            Socket socket;
+
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                if (running)
+                    System.err.println("Failed to accept a replica: " + e);
+                continue;
+            }
+
+            Sender sender = new Sender(socket);
+            senders.add(sender);
+
+            Thread thread = new Thread(sender, "replication-sender-" + socket.getPort());
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+
+    /**
+     * Ships the log to a single replica
+     */
+    private class Sender implements Runnable {
+
+
+        private final Socket socket;
+
+        /**
+         * The sequence number of the last record shipped to the replica
+         */
+        private long shipped;
+
+        /**
+         * The sequence number of the last record the replica has applied
+         */
+        private volatile long acknowledged;
+
+        /**
+         * The segment that is being tailed, or null if it has to be found
+         */
+        private Path segment;
+
+        /**
+         * The position in the segment right after the last shipped record
+         */
+        private long position;
+
+
+        Sender(Socket socket) {
+            this.socket = socket;
+        }
+
+
+        @Override
+        public void run() {
+
+            try (Socket socket = this.socket) {
+
+                socket.setTcpNoDelay(true);
+
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+                shipped = in.readLong();
+                acknowledged = shipped;
+
+                while (running) {
+
+                    ship(out);
+
+                    while (in.available() >= Long.BYTES)
+                        acknowledged = in.readLong();
+                }
+
+            } catch (EOFException e) {
+                // the replica has disconnected
+            } catch (IOException e) {
+                if (running)
+                    System.err.println("Replication to " + socket.getRemoteSocketAddress() + " stopped: " + e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                senders.remove(this);
+            }
+        }
+
+
+        /**
+         * Ship a snapshot, a frame of records or a heartbeat, whichever the
+         * replica needs next
+         */
+        private void ship(DataOutputStream out) throws IOException, InterruptedException {
+
+            long durable = log.durableSequence();
+
+            if (segment == null && !seek(durable)) {
+                shipSnapshot(out);
+                return;
+            }
+
+            long start = position;
+            long end = position;
+            long last = shipped;
+
+            try (WriteAheadLog.Reader reader = new WriteAheadLog.Reader(segment, position)) {
+
+                WriteAheadLog.Record record;
+
+                while (end - start < MAX_FRAME_SIZE && (record = reader.next()) != null && record.sequence <= durable) {
+                    end = reader.position();
+                    last = record.sequence;
+                }
+
+            } catch (NoSuchFileException e) {
+                segment = null;
+                return;
+            }
+
+            if (end > start) {
+
+                out.writeByte(RECORDS);
+                out.writeLong(durable);
+                out.writeInt((int) (end - start));
+                out.write(read(segment, start, end));
+                out.flush();
+
+                position = end;
+                shipped = last;
+
+            } else if (shipped < durable) {
+                // the records after the last shipped one are in the next segment
+                segment = null;
+            } else {
+                out.writeByte(HEARTBEAT);
+                out.writeLong(durable);
+                out.flush();
+
+                log.awaitDurable(shipped, HEARTBEAT_MILLIS);
+            }
+        }
+
+
+        /**
+         * Find the segment holding the record after the last shipped one, and
+         * the position of that record in it
+         *
+         * @return false if the replica needs a snapshot instead, because the
+         *         record has been deleted after a checkpoint, or the replica
+         *         is ahead of the log
+         */
+        private boolean seek(long durable) throws IOException {
+
+            if (shipped > durable)
+                return false;
+
+            List<Path> segments = WriteAheadLog.segments(log.getDirectory());
+
+            for (int i = segments.size() - 1; i >= 0; i--) {
+
+                if (WriteAheadLog.firstSequence(segments.get(i)) > shipped + 1)
+                    continue;
+
+                position = 0;
+
+                try (WriteAheadLog.Reader reader = new WriteAheadLog.Reader(segments.get(i))) {
+
+                    WriteAheadLog.Record record;
+
+                    while ((record = reader.next()) != null && record.sequence <= shipped)
+                        position = reader.position();
+
+                } catch (NoSuchFileException e) {
+                    return false;
+                }
+
+                segment = segments.get(i);
+                return true;
+            }
+
+            return false;
+        }
+
+
+        /**
+         * Ship the latest snapshot, and continue with the records after it
+         */
+        private void shipSnapshot(DataOutputStream out) throws IOException {
+
+            Path snapshot = checkpointer.latestSnapshot();
+
+            if (snapshot == null)
+                throw new IOException("the records after " + shipped + " are neither in the log nor in a snapshot");
+
+            long sequence = Checkpointer.sequenceOf(snapshot);
+
+            try (InputStream file = Files.newInputStream(snapshot)) {
+
+                long length = Files.size(snapshot);
+
+                out.writeByte(SNAPSHOT);
+                out.writeLong(sequence);
+                out.writeLong(length);
+
+                byte[] buffer = new byte[1 << 16];
+
+                for (long copied = 0; copied < length; ) {
+
+                    int n = file.read(buffer, 0, (int) Math.min(buffer.length, length - copied));
+
+                    if (n < 0)
+                        throw new EOFException("the snapshot has been truncated");
+
+                    out.write(buffer, 0, n);
+                    copied += n;
+                }
+
+                out.flush();
+            }
+
+            shipped = sequence;
+        }
+
+    }
+
+
+    /**
+     * Read a range of bytes of a file
+     */
+    private static byte[] read(Path file, long start, long end) throws IOException {
+
+        ByteBuffer bytes = ByteBuffer.allocate((int) (end - start));
+
+        try (FileChannel channel = FileChannel.open(file)) {
+            while (bytes.hasRemaining()) {
+                if (channel.read(bytes, start + bytes.position()) < 0)
+                    throw new EOFException("the segment has been truncated");
+            }
+        }
+
+        return bytes.array();
+    }
+
+}
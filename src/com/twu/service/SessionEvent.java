@@ -0,0 +1,26 @@
+package com.twu.service;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+
+/**
+ * A JFR event for a session created or destroyed by the SessionManager
+ */
+@Name("com.twu.Session")
+@Label("Session")
+@Category({ "Hot Search", "Session" })
+@Description("A session created or destroyed")
+class SessionEvent extends jdk.jfr.Event {
+
+
+    @Label("Username")
+    String username;
+
+    @Label("Created")
+    @Description("true if the session was created, false if it was destroyed")
+    boolean created;
+
+}
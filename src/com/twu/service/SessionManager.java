@@ -2,14 +2,15 @@ package com.twu.service;
 
 import com.twu.entity.User;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.function.Predicate;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 /**
  * The SessionManager is a singleton that manages the lifecycle
- * of sessions
+ * of sessions. The active sessions are kept by the case-folded
+ * usernames of their users, so that sessions of many clients of
+ * a server can be created and checked concurrently
  */
 public class SessionManager {
 
@@ -21,9 +22,9 @@ public class SessionManager {
 
 
     /**
-     * The currently active session
+     * The currently active sessions by the case-folded usernames of their users
      */
-    private List<Session> activeSessions;
+    private Map<String, Session> activeSessions;
 
 
     /**
@@ -33,7 +34,7 @@ public class SessionManager {
      * @return whether a session with the user has already been established
      */
     public boolean exists(User user) {
-        return activeSessions.stream().anyMatch(match(user));
+        return activeSessions.containsKey(NameUtil.fold(user.getUsername()));
     }
 
 
@@ -48,15 +49,14 @@ public class SessionManager {
      */
     public Session createSession(User user) {
 
-        Session activeSession = activeSessions.stream().filter(match(user)).collect(StreamUtil.limitOne());
+        Session activeSession = activeSessions.put(NameUtil.fold(user.getUsername()), new Session(user));
 
         if (activeSession != null) {
-            activeSessions.remove(activeSession);
             activeSession.destroy();
+            commit(user, false);
         }
 
-        Session session = new Session(user);
-        activeSessions.add(session);
+        commit(user, true);
 
         return new Session(user);
     }
@@ -68,29 +68,32 @@ public class SessionManager {
      */
     public void destroySession(Session session) {
 
-        Session activeSession = null;
+        if (session == null || session.getUser() == null)
+            return;
 
-        if (session != null && session.getUser() != null) {
-            User user = session.getUser();
-            activeSession = activeSessions.stream().filter(match(user)).collect(StreamUtil.limitOne());
-        }
+        User user = session.getUser();
+        Session activeSession = activeSessions.remove(NameUtil.fold(user.getUsername()));
 
         if (activeSession != null) {
-            activeSessions.remove(activeSession);
             activeSession.destroy();
+            commit(user, false);
         }
     }
 
 
     /**
-     * Returns a predicate that checks whether the session matches the
-     * specified user by username, case insensitive
-     *
-     * @param user the specified user to be checked
-     * @return the predicate that checks whether the session matches the specified user
+     * Commit a SessionEvent for a session that has been created or destroyed
      */
-    private static Predicate<Session> match(User user) {
-        return u -> u.getUser().getUsername().equalsIgnoreCase(user.getUsername());
+    private static void commit(User user, boolean created) {
+
+        SessionEvent event = new SessionEvent();
+
+        if (!event.shouldCommit())
+            return;
+
+        event.username = user.getUsername();
+        event.created = created;
+        event.commit();
     }
 
 
@@ -103,10 +106,10 @@ public class SessionManager {
 
 
     /**
-     * Create an empty list at startup to store active sessions
+     * Create an empty map at startup to store active sessions
      */
     private void init() {
-        activeSessions = new ArrayList<>();
+        activeSessions = new ConcurrentHashMap<>();
     }
 
 
@@ -0,0 +1,41 @@
+package com.twu.service;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+
+/**
+ * A JFR event for a purchase of a rank settled by the auction house
+ */
+@Name("com.twu.Settlement")
+@Label("Auction Settlement")
+@Category({ "Hot Search", "Auction" })
+@Description("A bid for a rank settled against the ranking")
+class SettlementEvent extends jdk.jfr.Event {
+
+
+    @Label("Hot Search")
+    String name;
+
+    @Label("Rank")
+    int rank;
+
+    @Label("Old Price")
+    @Description("The amount of the hot search that held the rank")
+    int oldPrice;
+
+    @Label("New Price")
+    @Description("The amount of the buyer after the purchase")
+    int newPrice;
+
+    @Label("Evicted")
+    @Description("The hot search evicted from the ranking, if any")
+    String evicted;
+
+    @Label("Result")
+    @Description("1 if the rank was bought, 0 if the bid was too low")
+    int result;
+
+}
@@ -0,0 +1,309 @@
+package com.twu.service;
+
+import com.twu.entity.CounterStore;
+import com.twu.entity.HotSearch;
+import com.twu.entity.Leaderboard;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Function;
+
+
+/**
+ * A board of hot searches partitioned across shards by the hash of their
+ * case-folded names. Every shard is a HotSearchService of its own, with its
+ * own ranking, indexes, pending votes and lock, so mutations of hot searches
+ * in different shards never contend.
+ *
+ * The global ranking list is the merge of the ranking lists of the shards
+ * by hotness, and among hot searches that are as hot, the ones in lower
+ * shards rank higher. So the global top k is found by a k-way merge of the
+ * first k of every shard, and the global position of a hot search is its
+ * position in its shard plus the number of hot searches in every other
+ * shard that rank before it, counted in O(log n) time under the lock of
+ * that shard alone. No lock is ever held across shards, so a position is
+ * exact as long as the shards don't change while it's computed. In decay
+ * mode the hotness of every shard is read at a slightly different time, so
+ * hot searches that are as hot up to rounding may swap places.
+ *
+ * Positions can't be bought on a partitioned board, since a position on
+ * the global list isn't owned by any single shard
+ */
+class ShardedBoard {
+
+
+    private final HotSearchService[] shards;
+
+
+    /**
+     * The merged snapshot of the shards, whose version is the sum of the
+     * versions of the snapshots of the shards it was merged from
+     */
+    private volatile Leaderboard leaderboard = Leaderboard.EMPTY;
+
+
+    /**
+     * The position of a hot search in its shard together with its hotness
+     * at the same time
+     */
+    static class Position {
+
+
+        final int index;
+
+        final double hotness;
+
+
+        Position(int index, double hotness) {
+            this.index = index;
+            this.hotness = hotness;
+        }
+
+    }
+
+
+    /**
+     * A cursor over the ranking list of a shard while merging
+     */
+    private static class Cursor {
+
+
+        final int shard;
+
+        final List<Leaderboard.Row> rows;
+
+        int next;
+
+
+        Cursor(int shard, List<Leaderboard.Row> rows) {
+            this.shard = shard;
+            this.rows = rows;
+        }
+
+
+        Leaderboard.Row head() {
+            return rows.get(next);
+        }
+
+    }
+
+
+    /**
+     * @param count the number of shards
+     * @param counterStore the store shared by all shards to keep the counters
+     *                     of hot searches, which allocates slots without a
+     *                     lock, so adds to different shards don't contend
+     * @param decayRate the decay rate of the ranking of every shard
+     */
+    ShardedBoard(int count, CounterStore counterStore, double decayRate) {
+
+        shards = new HotSearchService[count];
+
+        for (int i = 0; i < count; i++) {
+            shards[i] = new HotSearchService(counterStore);
+            if (decayRate > 0)
+                shards[i].setDecayRate(decayRate);
+        }
+    }
+
+
+    /**
+     * Get the shard that a hot search belongs to by its name
+     */
+    HotSearchService shardOf(String name) {
+        return shards[indexOf(name)];
+    }
+
+
+    int getCount() {
+
+        int count = 0;
+
+        for (HotSearchService shard : shards)
+            count += shard.getCount();
+
+        return count;
+    }
+
+
+    List<HotSearch> findAll() {
+
+        List<Leaderboard.Row> rows = getLeaderboard().getRows();
+        List<HotSearch> hotSearches = new ArrayList<>(rows.size());
+
+        for (Leaderboard.Row row : rows) {
+
+            HotSearch hs = shardOf(row.getName()).findOneByName(row.getName());
+
+            if (hs != null)
+                hotSearches.add(hs);
+        }
+
+        return hotSearches;
+    }
+
+
+    /**
+     * Merge the snapshots of the shards, or return the last merged one if
+     * none of them has changed since
+     */
+    Leaderboard getLeaderboard() {
+
+        List<List<Leaderboard.Row>> lists = new ArrayList<>(shards.length);
+        long version = 0;
+
+        for (HotSearchService shard : shards) {
+            Leaderboard board = shard.getLeaderboard();
+            lists.add(board.getRows());
+            version += board.getVersion();
+        }
+
+        Leaderboard published = leaderboard;
+
+        if (published.getVersion() == version)
+            return published;
+
+        List<Leaderboard.Row> rows = merge(lists, 0, Integer.MAX_VALUE);
+
+        published = new Leaderboard(version, rows.toArray(new Leaderboard.Row[0]));
+        leaderboard = published;
+
+        return published;
+    }
+
+
+    List<Leaderboard.Row> findRange(int offset, int limit) {
+
+        int heads = (int) Math.min(Integer.MAX_VALUE, (long) offset + limit);
+
+        return merge(scatter(shard -> shard.findRange(0, heads)), offset, limit);
+    }
+
+
+    List<Leaderboard.Row> findByPrefix(String prefix, int k) {
+        return merge(scatter(shard -> shard.findByPrefix(prefix, k)), 0, k);
+    }
+
+
+    List<Leaderboard.Row> findContaining(String term, int k) {
+        return merge(scatter(shard -> shard.findContaining(term, k)), 0, k);
+    }
+
+
+    List<Leaderboard.Row> findTrending(int n) {
+        return merge(scatter(shard -> shard.findTrending(n)), 0, n);
+    }
+
+
+    /**
+     * Get the global position of a hot search from its position in its
+     * shard and the number of hot searches in the other shards that rank
+     * before it
+     *
+     * @return the 0-based position, or -1 if the hot search doesn't exist
+     */
+    int getIndexByName(String name) {
+
+        int owner = indexOf(name);
+
+        Position position = shards[owner].findPosition(name);
+
+        if (position == null)
+            return -1;
+
+        int index = position.index;
+
+        for (int i = 0; i < shards.length; i++) {
+            if (i != owner)
+                index += shards[i].countHotter(position.hotness, i < owner);
+        }
+
+        return index;
+    }
+
+
+    void setDecayRate(double decayRate) {
+        for (HotSearchService shard : shards)
+            shard.setDecayRate(decayRate);
+    }
+
+
+    void enableTrending(long windowMillis, long bucketMillis) {
+        for (HotSearchService shard : shards)
+            shard.enableTrending(windowMillis, bucketMillis);
+    }
+
+
+    void disableTrending() {
+        for (HotSearchService shard : shards)
+            shard.disableTrending();
+    }
+
+
+    /**
+     * Run a query on every shard in turn
+     */
+    private List<List<Leaderboard.Row>> scatter(Function<HotSearchService, List<Leaderboard.Row>> query) {
+
+        List<List<Leaderboard.Row>> lists = new ArrayList<>(shards.length);
+
+        for (HotSearchService shard : shards)
+            lists.add(query.apply(shard));
+
+        return lists;
+    }
+
+
+    /**
+     * Merge the ranking lists of the shards by hotness, and among rows that
+     * are as hot, take the ones of lower shards first
+     *
+     * @param lists the rows of every shard in the order of its ranking list
+     * @param offset the number of merged rows to skip
+     * @param limit the maximum number of merged rows after them
+     * @return an immutable list of the merged rows
+     */
+    private static List<Leaderboard.Row> merge(List<List<Leaderboard.Row>> lists, int offset, int limit) {
+
+        PriorityQueue<Cursor> heads = new PriorityQueue<>(Math.max(1, lists.size()), (a, b) -> {
+            int c = Double.compare(b.head().getHotness(), a.head().getHotness());
+            return c != 0 ? c : Integer.compare(a.shard, b.shard);
+        });
+
+        for (int i = 0; i < lists.size(); i++) {
+            if (!lists.get(i).isEmpty())
+                heads.add(new Cursor(i, lists.get(i)));
+        }
+
+        List<Leaderboard.Row> merged = new ArrayList<>();
+        int skipped = 0;
+
+        while (!heads.isEmpty() && merged.size() < limit) {
+
+            Cursor cursor = heads.poll();
+
+            if (skipped < offset)
+                skipped++;
+            else
+                merged.add(cursor.head());
+
+            if (++cursor.next < cursor.rows.size())
+                heads.add(cursor);
+        }
+
+        return Collections.unmodifiableList(merged);
+    }
+
+
+    /**
+     * Get the index of the shard that a hot search belongs to by the spread
+     * hash of its case-folded name
+     */
+    private int indexOf(String name) {
+        int h = NameUtil.fold(name).hashCode();
+        return Math.floorMod(h ^ h >>> 16, shards.length);
+    }
+
+}
@@ -0,0 +1,191 @@
+package com.twu.service;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+
+/**
+ * A compact point-in-time copy of the hot searches and the regular users,
+ * which covers every record of the write-ahead log up to its sequence number.
+ *
+ * The file is laid out as:
+ *
+ *   int   magic number
+ *   long  the sequence number of the last covered record of the log
+ *   int   the number of hot searches, followed by each hot search in the
+ *         order of the ranking list: byte flags, int votes, int amount,
+ *         int length of the name and the UTF-8 bytes of the name
+ *   int   the number of regular users, followed by each regular user:
+ *         int remaining votes, int length of the username and the UTF-8
+ *         bytes of the username
+ *   int   the CRC32 of everything before it
+ *
+ * It is written to a temporary file which is renamed once it is complete,
+ * and read back by memory-mapping it
+ */
+class Snapshot {
+
+
+    private static final int MAGIC = 0x48534e50;
+
+    static final byte SUPER_HOT = 1;
+
+    static final byte PINNED = 2;
+
+
+    /**
+     * The sequence number of the last record of the log covered by the snapshot
+     */
+    long sequence;
+
+
+    String[] names = new String[0];
+
+    /**
+     * The flags of each hot search, a combination of SUPER_HOT and PINNED
+     */
+    byte[] flags = new byte[0];
+
+    int[] votes = new int[0];
+
+    int[] amounts = new int[0];
+
+
+    String[] usernames = new String[0];
+
+    /**
+     * The remaining votes of each regular user
+     */
+    int[] balances = new int[0];
+
+
+    /**
+     * Write the snapshot to a file, replacing it atomically if it exists
+     *
+     * @param file the file to be written
+     */
+    void write(Path file) throws IOException {
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        CRC32 crc = new CRC32();
+
+        try (FileOutputStream fileOut = new FileOutputStream(temp.toFile())) {
+
+            DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(fileOut), crc));
+
+            out.writeInt(MAGIC);
+            out.writeLong(sequence);
+
+            out.writeInt(names.length);
+
+            for (int i = 0; i < names.length; i++) {
+                out.writeByte(flags[i]);
+                out.writeInt(votes[i]);
+                out.writeInt(amounts[i]);
+                writeString(out, names[i]);
+            }
+
+            out.writeInt(usernames.length);
+
+            for (int i = 0; i < usernames.length; i++) {
+                out.writeInt(balances[i]);
+                writeString(out, usernames[i]);
+            }
+
+            out.flush();
+
+            out.writeInt((int) crc.getValue());
+            out.flush();
+
+            fileOut.getChannel().force(true);
+        }
+
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+
+    /**
+     * Read a snapshot by memory-mapping its file
+     *
+     * @param file the file to be read
+     * @return the snapshot, or null if the file is incomplete or corrupted
+     */
+    static Snapshot read(Path file) throws IOException {
+
+        MappedByteBuffer buffer;
+
+        try (FileChannel channel = FileChannel.open(file)) {
+
+            if (channel.size() < Integer.BYTES * 4 + Long.BYTES)
+                return null;
+
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        int end = buffer.capacity() - Integer.BYTES;
+
+        CRC32 crc = new CRC32();
+        ByteBuffer content = buffer.duplicate();
+        content.limit(end);
+        crc.update(content);
+
+        if ((int) crc.getValue() != buffer.getInt(end) || buffer.getInt() != MAGIC)
+            return null;
+
+        Snapshot snapshot = new Snapshot();
+
+        snapshot.sequence = buffer.getLong();
+
+        int count = buffer.getInt();
+
+        snapshot.names = new String[count];
+        snapshot.flags = new byte[count];
+        snapshot.votes = new int[count];
+        snapshot.amounts = new int[count];
+
+        for (int i = 0; i < count; i++) {
+            snapshot.flags[i] = buffer.get();
+            snapshot.votes[i] = buffer.getInt();
+            snapshot.amounts[i] = buffer.getInt();
+            snapshot.names[i] = readString(buffer);
+        }
+
+        count = buffer.getInt();
+
+        snapshot.usernames = new String[count];
+        snapshot.balances = new int[count];
+
+        for (int i = 0; i < count; i++) {
+            snapshot.balances[i] = buffer.getInt();
+            snapshot.usernames[i] = readString(buffer);
+        }
+
+        return snapshot;
+    }
+
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,268 @@
+package com.twu.service;
+
+import com.twu.service.RankTree.Node;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+
+
+/**
+ * The TrendingBoard ranks hot searches by the votes they have received
+ * within a sliding time window, such as the last 10 minutes.
+ *
+ * The window is divided into a fixed number of buckets of equal length, and
+ * every hot search has a ring of per-bucket vote counts plus the sum of the
+ * ring, so the memory used per hot search is constant. The board keeps, for
+ * each bucket in the ring, the hot searches that received votes in it. When
+ * the window moves past a bucket, only those hot searches have the expired
+ * count subtracted and are reordered, so the history is never scanned again.
+ *
+ * The caller must hold the lock of the ranking
+ */
+class TrendingBoard {
+
+
+    /**
+     * Orders counters from the most votes in the window to the fewest,
+     * and then by the order in which they were created
+     */
+    private static final Comparator<Counter> MOST_VOTES_FIRST =
+            Comparator.comparingInt((Counter c) -> -c.sum).thenComparingLong(c -> c.sequence);
+
+
+    /**
+     * The length of each bucket in milliseconds
+     */
+    private final long bucketMillis;
+
+
+    /**
+     * The number of buckets in the window
+     */
+    private final int bucketCount;
+
+
+    /**
+     * For each bucket in the ring, the counters that have received votes in it
+     */
+    private final List<List<Counter>> touched;
+
+
+    /**
+     * The counters with votes in the window, from the most votes to the fewest
+     */
+    private final TreeSet<Counter> board = new TreeSet<>(MOST_VOTES_FIRST);
+
+
+    /**
+     * The absolute number of the current bucket, i.e. the time divided by the
+     * bucket length
+     */
+    private long currentBucket;
+
+
+    private long sequence;
+
+
+    /**
+     * @param windowMillis the length of the window in milliseconds
+     * @param bucketMillis the length of each bucket in milliseconds, the window
+     *                     is rounded up to a whole number of buckets
+     */
+    TrendingBoard(long windowMillis, long bucketMillis) {
+
+        if (bucketMillis <= 0 || windowMillis < bucketMillis)
+            throw new IllegalArgumentException("invalid window or bucket length");
+
+        this.bucketMillis = bucketMillis;
+        this.bucketCount = (int) ((windowMillis + bucketMillis - 1) / bucketMillis);
+
+        touched = new ArrayList<>(bucketCount);
+        for (int i = 0; i < bucketCount; i++)
+            touched.add(new ArrayList<>());
+
+        currentBucket = System.currentTimeMillis() / bucketMillis;
+    }
+
+
+    /**
+     * Start counting the votes of a hot search. Only votes received from now
+     * on count towards the window
+     *
+     * @param node the handle of the hot search
+     */
+    void track(Node node) {
+        node.trend = new Counter(node, bucketCount, ++sequence);
+    }
+
+
+    /**
+     * Count the votes that a hot search has received since it was last
+     * recorded into the current bucket
+     *
+     * @param node the handle of the voted hot search, which must be tracked
+     */
+    void record(Node node) {
+
+        advance();
+
+        Counter counter = node.trend;
+
+        int votes = node.entry.getVote();
+        int delta = votes - counter.recordedVotes;
+
+        counter.recordedVotes = votes;
+
+        if (delta <= 0)
+            return;
+
+        int slot = (int) (currentBucket % bucketCount);
+
+        if (counter.buckets[slot] == 0)
+            touched.get(slot).add(counter);
+
+        if (counter.sum > 0)
+            board.remove(counter);
+
+        counter.buckets[slot] += delta;
+        counter.sum += delta;
+
+        board.add(counter);
+    }
+
+
+    /**
+     * Remove a hot search that has been evicted from the ranking
+     *
+     * @param node the handle of the evicted hot search
+     */
+    void remove(Node node) {
+
+        Counter counter = node.trend;
+
+        if (counter == null)
+            return;
+
+        if (counter.sum > 0)
+            board.remove(counter);
+
+        counter.removed = true;
+    }
+
+
+    /**
+     * Find the hot searches with the most votes in the window, in O(k) time
+     * after the window has been moved to the current time
+     *
+     * @param n the maximum number of hot searches to be found
+     * @return the handles of the hot searches with the most votes in the window
+     */
+    List<Node> top(int n) {
+
+        advance();
+
+        List<Node> nodes = new ArrayList<>(Math.min(n, board.size()));
+        Iterator<Counter> it = board.iterator();
+
+        while (nodes.size() < n && it.hasNext())
+            nodes.add(it.next().node);
+
+        return nodes;
+    }
+
+
+    /**
+     * Get the votes that a hot search has received within the window
+     *
+     * @param node the handle of the hot search
+     * @return the votes received within the window
+     */
+    int windowVotes(Node node) {
+        return node.trend == null ? 0 : node.trend.sum;
+    }
+
+
+    /**
+     * Move the window to the current time, expiring the buckets that have
+     * fallen out of it one by one. Once every bucket in the ring has been
+     * expired, the rest of the gap is skipped
+     */
+    private void advance() {
+
+        long nowBucket = System.currentTimeMillis() / bucketMillis;
+
+        for (int steps = 0; currentBucket < nowBucket && steps < bucketCount; steps++) {
+            currentBucket++;
+            expire((int) (currentBucket % bucketCount));
+        }
+
+        if (currentBucket < nowBucket)
+            currentBucket = nowBucket;
+    }
+
+
+    /**
+     * Subtract the counts of an expired bucket from the counters that have
+     * received votes in it, so that the bucket can be reused
+     */
+    private void expire(int slot) {
+
+        List<Counter> counters = touched.get(slot);
+
+        for (Counter counter : counters) {
+
+            int expired = counter.buckets[slot];
+            counter.buckets[slot] = 0;
+
+            if (counter.removed)
+                continue;
+
+            board.remove(counter);
+            counter.sum -= expired;
+
+            if (counter.sum > 0)
+                board.add(counter);
+        }
+
+        counters.clear();
+    }
+
+
+    /**
+     * The ring of per-bucket vote counts of a hot search
+     */
+    static class Counter {
+
+
+        final Node node;
+
+        final int[] buckets;
+
+        final long sequence;
+
+        /**
+         * The sum of the vote counts in the ring
+         */
+        int sum;
+
+        /**
+         * The votes of the hot search that have been recorded into the ring
+         */
+        int recordedVotes;
+
+        boolean removed;
+
+
+        Counter(Node node, int bucketCount, long sequence) {
+            this.node = node;
+            this.buckets = new int[bucketCount];
+            this.sequence = sequence;
+            this.recordedVotes = node.entry.getVote();
+        }
+
+    }
+
+}
@@ -6,6 +6,7 @@ import com.twu.entity.User;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.Predicate;
 
 
@@ -29,9 +30,22 @@ public class UserService {
     private List<AdminUser> adminUsers;
 
     /**
-     * The list of regular users
+     * The list of regular users, replaced as a whole when a snapshot
+     * replaces them
      */
-    private List<RegularUser> regularUsers;
+    private volatile List<RegularUser> regularUsers;
+
+    /**
+     * Serializes registrations with each other and with the replacement
+     * of the list, which a lock on the list itself can't do
+     */
+    private final Object registrationLock = new Object();
+
+
+    /**
+     * The log that mutations are appended to, or null if they aren't logged
+     */
+    private volatile WriteAheadLog log;
 
 
     /**
@@ -71,7 +85,9 @@ public class UserService {
 
 
     /**
-     * Register a new regular user with the specified username
+     * Register a new regular user with the specified username. The
+     * username is checked and registered atomically, so that concurrent
+     * requests can't register it twice
      *
      * @param username the new regular user's username
      * @return the newly created regular user, or null if one
@@ -79,24 +95,34 @@ public class UserService {
      */
     public RegularUser addRegularUser(String username) {
 
-        User existing = getExisting(username);
+        WriteAheadLog log = this.log;
+        RegularUser newUser;
+        long sequence = 0;
 
-        if (existing == null) {
+        synchronized (registrationLock) {
 
-            RegularUser newUser = new RegularUser(username);
-            regularUsers.add(newUser);
+            if (getExisting(username) != null)
+                return null;
 
-            return newUser;
+            newUser = new RegularUser(username);
+            regularUsers.add(newUser);
 
-        } else {
-            return null;
+            if (log != null)
+                sequence = log.logAddRegularUser(username);
         }
+
+        if (log != null)
+            log.await(sequence);
+
+        return newUser;
     }
 
 
     /**
      * Subtract a certain amount of votes from the remaining
-     * votes of the regular user identified by the username
+     * votes of the regular user identified by the username.
+     * The balance is checked and updated atomically, so that
+     * concurrent requests of the same user can't overdraw it
      *
      * @param username the specified username to identify a
      *                 regular user
@@ -117,15 +143,148 @@ public class UserService {
         if (existing == null)
             return false;
 
-        if (existing.getVotes() < votes)
-            return false;
+        WriteAheadLog log = this.log;
+        long sequence = 0;
+
+        synchronized (existing) {
 
-        existing.useVotes(votes);
+            if (existing.getVotes() < votes)
+                return false;
+
+            existing.useVotes(votes);
+
+            if (log != null)
+                sequence = log.logUseVotes(existing.getUsername(), votes, existing.getVotes());
+        }
+
+        if (log != null)
+            log.await(sequence);
 
         return true;
     }
 
 
+    /**
+     * Append every following registration and use of votes to a
+     * write-ahead log, and wait for it to be durable as required by the
+     * fsync policy of the log before returning
+     *
+     * @param log the log to append mutations to, or null to stop logging
+     * @see HotSearchService#useWriteAheadLog(WriteAheadLog)
+     */
+    public void useWriteAheadLog(WriteAheadLog log) {
+        this.log = log;
+    }
+
+
+    /**
+     * Copy all regular users and their remaining votes into a snapshot.
+     * Must be called after the hot searches have been copied, so that every
+     * record of the log up to the sequence number of the snapshot is in the
+     * copy, and the records after it are idempotent
+     *
+     * @param snapshot the snapshot to copy the regular users into
+     */
+    void capture(Snapshot snapshot) {
+
+        RegularUser[] users = regularUsers.toArray(new RegularUser[0]);
+
+        snapshot.usernames = new String[users.length];
+        snapshot.balances = new int[users.length];
+
+        for (int i = 0; i < users.length; i++) {
+            synchronized (users[i]) {
+                snapshot.usernames[i] = users[i].getUsername();
+                snapshot.balances[i] = users[i].getVotes();
+            }
+        }
+    }
+
+
+    /**
+     * Restore the regular users from a snapshot
+     *
+     * @param snapshot the snapshot to restore the regular users from
+     */
+    void restore(Snapshot snapshot) {
+        synchronized (registrationLock) {
+            regularUsers.addAll(toRegularUsers(snapshot));
+        }
+    }
+
+
+    /**
+     * Create the regular users of a snapshot, with their remaining votes
+     */
+    private static List<RegularUser> toRegularUsers(Snapshot snapshot) {
+
+        List<RegularUser> users = new ArrayList<>(snapshot.usernames.length);
+
+        for (int i = 0; i < snapshot.usernames.length; i++) {
+            RegularUser user = new RegularUser(snapshot.usernames[i]);
+            user.useVotes(user.getVotes() - snapshot.balances[i]);
+            users.add(user);
+        }
+
+        return users;
+    }
+
+
+    /**
+     * Replace all regular users with the ones in a snapshot, so that a
+     * replica that has fallen behind can catch up with a snapshot shipped
+     * from the primary. The new list is built first and then swapped in, so
+     * readers never see it empty or partly restored
+     *
+     * @param snapshot the snapshot to replace the regular users with
+     */
+    void replace(Snapshot snapshot) {
+
+        List<RegularUser> users = new CopyOnWriteArrayList<>(toRegularUsers(snapshot));
+
+        synchronized (registrationLock) {
+            regularUsers = users;
+        }
+    }
+
+
+    /**
+     * Remove all regular users
+     */
+    void clear() {
+        synchronized (registrationLock) {
+            regularUsers.clear();
+        }
+    }
+
+
+    /**
+     * Apply a record of the log to the regular users during recovery,
+     * before any log is used. Records that have already been applied
+     * change nothing
+     *
+     * @param record a record of a regular user mutation
+     */
+    void replay(WriteAheadLog.Record record) {
+
+        switch (record.type) {
+
+            case WriteAheadLog.ADD_REGULAR_USER:
+                addRegularUser(record.name);
+                break;
+
+            case WriteAheadLog.USE_VOTES:
+                RegularUser user = findOneRegularUserByUsername(record.name);
+                if (user != null && user.getVotes() > record.second)
+                    useVotes(record.name, user.getVotes() - record.second);
+                break;
+
+            default:
+                throw new IllegalArgumentException("not a regular user record: " + record.type);
+        }
+    }
+
+
     /**
      * Check whether a username is already used by one of the admin users
      * or the regular users, case insensitive
@@ -171,7 +330,7 @@ public class UserService {
      */
     private void init() {
         adminUsers = new ArrayList<AdminUser>() {{ add(new AdminUser("admin", "admin")); }};
-        regularUsers = new ArrayList<>();
+        regularUsers = new CopyOnWriteArrayList<>();
     }
 
 
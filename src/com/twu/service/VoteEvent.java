@@ -0,0 +1,31 @@
+package com.twu.service;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+
+/**
+ * A JFR event for votes applied to a hot search, lasting from counting the
+ * votes until they have been folded into the ranking, or left pending for
+ * whoever holds the ranking lock next
+ */
+@Name("com.twu.Vote")
+@Label("Vote")
+@Category({ "Hot Search", "Ranking" })
+@Description("Votes applied to a hot search")
+class VoteEvent extends jdk.jfr.Event {
+
+
+    @Label("Hot Search")
+    String name;
+
+    @Label("Votes")
+    int votes;
+
+    @Label("Total Votes")
+    @Description("The votes of the hot search right after the votes were counted")
+    int total;
+
+}
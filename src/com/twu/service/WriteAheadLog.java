@@ -0,0 +1,872 @@
+package com.twu.service;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+
+/**
+ * The WriteAheadLog is a durable, append-only binary log of the mutations
+ * of hot searches and regular users.
+ *
+ * Each record is laid out as:
+ *
+ *   int   the length of the body
+ *   body  long sequence, byte type, int length of the name, the UTF-8
+ *         bytes of the name, 0 to 2 int arguments depending on the type,
+ *         and for a BUY the length and UTF-8 bytes of the name of the hot
+ *         search that held the bought position
+ *   int   the CRC32 of the body
+ *
+ * Appending a record only copies it into an in-memory buffer under a short
+ * lock, so it never costs a syscall. The buffer is written to the file in
+ * one sequential write and forced to the disk according to the fsync policy.
+ * A torn record at the end of the file, left by a crash in the middle of a
+ * write, is detected by its checksum and truncated when the log is opened.
+ *
+ * The log is split into segment files in a directory, each named after the
+ * sequence number of its first record. A new segment is started when the
+ * current one grows too large or a checkpoint is taken, so that segments
+ * covered by a snapshot can be deleted as a whole
+ */
+public class WriteAheadLog implements Closeable {
+
+
+    /**
+     * When the appended records are forced to the disk
+     */
+    public enum FsyncPolicy {
+
+        /**
+         * Every mutation writes and forces the log before it returns.
+         * Mutations running at the same time share a single force
+         */
+        EVERY_WRITE,
+
+        /**
+         * A background thread writes and forces whatever has been appended
+         * as soon as the previous force has finished, and every mutation
+         * waits for the force that covers it. Under load, many mutations
+         * are committed together by a single force
+         */
+        GROUP_COMMIT,
+
+        /**
+         * A background thread writes and forces the log periodically, and
+         * mutations never wait. A crash loses at most the last period
+         */
+        PERIODIC
+    }
+
+
+    static final byte ADD_HOT_SEARCH = 1;
+
+    static final byte ADD_SUPER_HOT_SEARCH = 2;
+
+    static final byte VOTE = 3;
+
+    static final byte BUY = 4;
+
+    static final byte ADD_REGULAR_USER = 5;
+
+    static final byte USE_VOTES = 6;
+
+
+    /**
+     * The largest body of a record that is considered valid when reading
+     */
+    private static final int MAX_BODY_SIZE = 1 << 24;
+
+    private static final int INITIAL_BUFFER_SIZE = 1 << 16;
+
+    /**
+     * The size after which a new segment is started
+     */
+    private static final long SEGMENT_SIZE = 64L << 20;
+
+    private static final String SEGMENT_SUFFIX = ".log";
+
+
+    private final Path directory;
+
+    /**
+     * The current segment. Guarded by the flush lock
+     */
+    private FileChannel channel;
+
+    private final FsyncPolicy policy;
+
+    private final long periodMillis;
+
+
+    /**
+     * Guards the buffers and the sequence numbers
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Signalled when a record is appended, or the log is being closed
+     */
+    private final Condition appended = lock.newCondition();
+
+    /**
+     * Signalled when the durable sequence advances, or the log fails
+     */
+    private final Condition flushed = lock.newCondition();
+
+
+    /**
+     * Serializes writes to the files
+     */
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+
+    private final CRC32 crc = new CRC32();
+
+
+    /**
+     * The buffer that records are appended to
+     */
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+    /**
+     * The buffer that takes over once the current one is being written
+     */
+    private ByteBuffer spare = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+
+    /**
+     * The sequence number of the last appended record
+     */
+    private long lastSequence;
+
+    /**
+     * The sequence number of the last record that has been forced to the disk
+     */
+    private volatile long durableSequence;
+
+
+    /**
+     * The error that stopped the log from being written, if any
+     */
+    private volatile IOException failure;
+
+
+    private volatile boolean running = true;
+
+
+    /**
+     * The background thread that writes the log, or null if every mutation
+     * writes the log by itself
+     */
+    private final Thread flusher;
+
+
+    /**
+     * Open a log whose records are forced to the disk by every write or
+     * by group commit
+     *
+     * @see WriteAheadLog#WriteAheadLog(Path, FsyncPolicy, long)
+     */
+    public WriteAheadLog(Path directory, FsyncPolicy policy) throws IOException {
+        this(directory, policy, 0);
+    }
+
+
+    /**
+     * Open a log, creating the directory if it doesn't exist. The records
+     * that are already in the log are kept, and any torn record at the end
+     * of the last segment is truncated
+     *
+     * @param directory the directory of the segments of the log
+     * @param policy when the appended records are forced to the disk
+     * @param periodMillis the time between two forces of the periodic policy
+     * @throws IOException if the log can't be opened
+     */
+    public WriteAheadLog(Path directory, FsyncPolicy policy, long periodMillis) throws IOException {
+
+        if (policy == FsyncPolicy.PERIODIC && periodMillis <= 0)
+            throw new IllegalArgumentException("period must be positive");
+
+        this.directory = directory;
+        this.policy = policy;
+        this.periodMillis = periodMillis;
+
+        Files.createDirectories(directory);
+
+        List<Path> segments = segments(directory);
+
+        if (segments.isEmpty()) {
+            openSegment(1);
+        } else {
+
+            Path last = segments.get(segments.size() - 1);
+
+            lastSequence = firstSequence(last) - 1;
+
+            channel = FileChannel.open(last, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+            try (Reader reader = new Reader(last)) {
+
+                Record record;
+
+                while ((record = reader.next()) != null)
+                    lastSequence = record.sequence;
+
+                channel.truncate(reader.position());
+                channel.position(reader.position());
+            }
+        }
+
+        durableSequence = lastSequence;
+
+        if (policy == FsyncPolicy.EVERY_WRITE) {
+            flusher = null;
+        } else {
+            flusher = new Thread(this::run, "wal-flusher");
+            flusher.setDaemon(true);
+            flusher.start();
+        }
+    }
+
+
+    /**
+     * Append the creation of a hot search
+     *
+     * @return the sequence number of the record
+     */
+    long logAdd(String name, boolean superHot) {
+        return append(superHot ? ADD_SUPER_HOT_SEARCH : ADD_HOT_SEARCH, name, 0, 0, 0, null);
+    }
+
+
+    /**
+     * Append votes added to a hot search. Since votes only ever increase,
+     * replaying the record only has to raise the votes to the total, so it
+     * can be replayed on top of a state that already includes it
+     *
+     * @param votes the number of votes added
+     * @param total the votes of the hot search right after they were added
+     * @return the sequence number of the record
+     */
+    long logVote(String name, int votes, int total) {
+        return append(VOTE, name, 2, votes, total, null);
+    }
+
+
+    /**
+     * Append a settled purchase of a position by a hot search. The hot
+     * search that held the position is logged by name, so that replaying
+     * the record evicts the same one even if hot searches with the same
+     * votes have come back in a different order
+     *
+     * @param index the 0-based position that has been bought
+     * @param amount the amount charged in the purchase
+     * @param holder the name of the hot search that held the position,
+     *               which is the buyer itself if it bought its own position
+     * @return the sequence number of the record
+     */
+    long logBuy(String name, int index, int amount, String holder) {
+        return append(BUY, name, 2, index, amount, holder);
+    }
+
+
+    /**
+     * Append the registration of a regular user
+     *
+     * @return the sequence number of the record
+     */
+    long logAddRegularUser(String username) {
+        return append(ADD_REGULAR_USER, username, 0, 0, 0, null);
+    }
+
+
+    /**
+     * Append votes used by a regular user. Like votes added to a hot search,
+     * replaying the record only has to lower the balance to what is left
+     *
+     * @param votes the number of votes used
+     * @param remaining the remaining votes of the user right after they were used
+     * @return the sequence number of the record
+     */
+    long logUseVotes(String username, int votes, int remaining) {
+        return append(USE_VOTES, username, 2, votes, remaining, null);
+    }
+
+
+    /**
+     * Get the sequence number of the last appended record
+     */
+    long lastSequence() {
+        lock.lock();
+        try {
+            return lastSequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Get the sequence number of the last record that has been written to
+     * the file and forced to the disk
+     */
+    long durableSequence() {
+        return durableSequence;
+    }
+
+
+    /**
+     * Wait until a record after the given sequence number is durable, the
+     * timeout elapses, or the log fails
+     *
+     * @param sequence the sequence number to wait past
+     * @param timeoutMillis the maximum time to wait
+     */
+    void awaitDurable(long sequence, long timeoutMillis) throws InterruptedException {
+
+        long nanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+        lock.lock();
+        try {
+            while (durableSequence <= sequence && failure == null && nanos > 0)
+                nanos = flushed.awaitNanos(nanos);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Get the directory of the segments of the log
+     */
+    Path getDirectory() {
+        return directory;
+    }
+
+
+    /**
+     * Write what has been appended and start a new segment, unless the
+     * current one is empty
+     */
+    void roll() throws IOException {
+        flushLock.lock();
+        try {
+            flush();
+
+            if (channel.position() > 0) {
+                channel.close();
+                openSegment(durableSequence + 1);
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+
+    /**
+     * Delete the segments that only hold records up to the given sequence
+     * number, which are no longer needed for recovery
+     *
+     * @param sequence the sequence number of the last record that is covered
+     */
+    void discardUpTo(long sequence) throws IOException {
+        flushLock.lock();
+        try {
+            List<Path> segments = segments(directory);
+
+            for (int i = 0; i + 1 < segments.size() && firstSequence(segments.get(i + 1)) <= sequence + 1; i++)
+                Files.delete(segments.get(i));
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+
+    /**
+     * Wait until a record is durable, as required by the fsync policy.
+     * Must not be called while holding a lock that other mutations need
+     *
+     * @param sequence the sequence number of the record
+     * @throws UncheckedIOException if the log can't be written
+     */
+    void await(long sequence) {
+
+        if (policy == FsyncPolicy.PERIODIC || durableSequence >= sequence)
+            return;
+
+        if (policy == FsyncPolicy.EVERY_WRITE) {
+            try {
+                flush();
+            } catch (IOException e) {
+                // flush has already failed the log
+            }
+        } else {
+            lock.lock();
+            try {
+                while (durableSequence < sequence && failure == null)
+                    flushed.awaitUninterruptibly();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        if (durableSequence < sequence)
+            throw new UncheckedIOException("failed to write the log", failure);
+    }
+
+
+    /**
+     * Write and force the records that have been appended, stop the
+     * background thread and close the file
+     */
+    @Override
+    public void close() throws IOException {
+
+        lock.lock();
+        try {
+            running = false;
+            appended.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        if (flusher != null) {
+            try {
+                flusher.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+
+    /**
+     * Append a record to the buffer
+     *
+     * @param argCount the number of int arguments, from 0 to 2
+     * @param other the second name of the record, or null if it has none
+     * @return the sequence number of the record
+     */
+    private long append(byte type, String name, int argCount, int first, int second, String other) {
+
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        byte[] otherBytes = other == null ? null : other.getBytes(StandardCharsets.UTF_8);
+
+        int bodyLength = Long.BYTES + 1 + Integer.BYTES + bytes.length + argCount * Integer.BYTES
+                + (otherBytes == null ? 0 : Integer.BYTES + otherBytes.length);
+
+        lock.lock();
+        try {
+
+            if (!running)
+                throw new IllegalStateException("the log has been closed");
+
+            if (failure != null)
+                throw new UncheckedIOException("the log has failed", failure);
+
+            ensureCapacity(Integer.BYTES + bodyLength + Integer.BYTES);
+
+            long sequence = ++lastSequence;
+
+            buffer.putInt(bodyLength);
+
+            int start = buffer.position();
+
+            buffer.putLong(sequence).put(type).putInt(bytes.length).put(bytes);
+
+            if (argCount > 0)
+                buffer.putInt(first);
+
+            if (argCount > 1)
+                buffer.putInt(second);
+
+            if (otherBytes != null)
+                buffer.putInt(otherBytes.length).put(otherBytes);
+
+            crc.reset();
+            crc.update(buffer.array(), start, bodyLength);
+            buffer.putInt((int) crc.getValue());
+
+            if (policy == FsyncPolicy.GROUP_COMMIT)
+                appended.signal();
+
+            return sequence;
+
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Grow the buffer if it can't hold the given number of bytes.
+     * The caller must hold the lock
+     */
+    private void ensureCapacity(int bytes) {
+
+        if (buffer.remaining() >= bytes)
+            return;
+
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+
+        buffer.flip();
+        larger.put(buffer);
+
+        buffer = larger;
+    }
+
+
+    /**
+     * Write the appended records to the file in one sequential write, and
+     * force them to the disk. Records appended in the meantime go to the
+     * spare buffer. If the file can't be written, the batch may be torn in
+     * it, so the log fails for good and rejects whatever comes next
+     */
+    private void flush() throws IOException {
+
+        flushLock.lock();
+        try {
+
+            ByteBuffer batch;
+            long sequence;
+
+            lock.lock();
+            try {
+
+                if (failure != null)
+                    throw failure;
+
+                if (durableSequence == lastSequence)
+                    return;
+
+                batch = buffer;
+                buffer = spare;
+                sequence = lastSequence;
+
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+
+                batch.flip();
+
+                while (batch.hasRemaining())
+                    channel.write(batch);
+
+                channel.force(false);
+
+                if (channel.position() >= SEGMENT_SIZE) {
+                    channel.close();
+                    openSegment(sequence + 1);
+                }
+
+            } catch (IOException e) {
+                failed(e);
+                throw e;
+            } finally {
+                batch.clear();
+
+                lock.lock();
+                try {
+                    spare = batch;
+                } finally {
+                    lock.unlock();
+                }
+            }
+
+            lock.lock();
+            try {
+                durableSequence = sequence;
+                flushed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+
+    /**
+     * Create a segment and make it the current one. The caller must hold
+     * the flush lock, or be the constructor
+     *
+     * @param firstSequence the sequence number of the first record to be
+     *                      written to the segment
+     */
+    private void openSegment(long firstSequence) throws IOException {
+        channel = FileChannel.open(directory.resolve(String.format("%020d", firstSequence) + SEGMENT_SUFFIX),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+
+    /**
+     * List the segments of a log in the order of their records
+     *
+     * @param directory the directory of the segments of the log
+     * @return the paths of the segments, or an empty list if the directory doesn't exist
+     */
+    static List<Path> segments(Path directory) throws IOException {
+
+        if (!Files.isDirectory(directory))
+            return Collections.emptyList();
+
+        List<Path> segments = new ArrayList<>();
+
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(f -> f.getFileName().toString().endsWith(SEGMENT_SUFFIX)).forEach(segments::add);
+        }
+
+        Collections.sort(segments);
+
+        return segments;
+    }
+
+
+    /**
+     * Get the sequence number of the first record of a segment from its name
+     */
+    static long firstSequence(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+
+    /**
+     * Write the log in the background, as soon as records are appended for
+     * group commit, or once every period for the periodic policy
+     */
+    private void run() {
+
+        while (running) {
+
+            lock.lock();
+            try {
+
+                if (policy == FsyncPolicy.GROUP_COMMIT) {
+                    while (running && durableSequence == lastSequence)
+                        appended.awaitUninterruptibly();
+                } else if (running) {
+                    appended.await(periodMillis, TimeUnit.MILLISECONDS);
+                }
+
+            } catch (InterruptedException e) {
+                running = false;
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                flush();
+            } catch (IOException e) {
+                failed(e);
+                return;
+            }
+        }
+    }
+
+
+    /**
+     * Stop the log after an error, and wake up whoever waits for it
+     */
+    private void failed(IOException e) {
+        lock.lock();
+        try {
+            failure = e;
+            flushed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * A record read back from the log
+     */
+    static class Record {
+
+
+        final long sequence;
+
+        final byte type;
+
+        /**
+         * The name of the hot search, or the username of the regular user
+         */
+        final String name;
+
+        final int first;
+
+        final int second;
+
+        /**
+         * The name of the hot search that held the bought position of a BUY,
+         * or null if the record has no second name, as in logs written
+         * before it was added
+         */
+        final String holder;
+
+
+        Record(long sequence, byte type, String name, int first, int second, String holder) {
+            this.sequence = sequence;
+            this.type = type;
+            this.name = name;
+            this.first = first;
+            this.second = second;
+            this.holder = holder;
+        }
+
+    }
+
+
+    /**
+     * Reads the records of a log file, or of records shipped from one, in
+     * order, and stops at the end or at the first record that is torn or
+     * corrupted
+     */
+    static class Reader implements Closeable {
+
+
+        private final DataInputStream in;
+
+        private final CRC32 crc = new CRC32();
+
+        /**
+         * The position in the file right after the last valid record
+         */
+        private long position;
+
+
+        Reader(Path file) throws IOException {
+            this(file, 0);
+        }
+
+
+        /**
+         * Read the records of a log file from a position right after a
+         * valid record
+         */
+        Reader(Path file, long position) throws IOException {
+            this(Channels.newInputStream(FileChannel.open(file).position(position)));
+            this.position = position;
+        }
+
+
+        /**
+         * Read records laid out as in a log file from a stream
+         */
+        Reader(InputStream in) {
+            this.in = new DataInputStream(new BufferedInputStream(in));
+        }
+
+
+        /**
+         * Read the next record
+         *
+         * @return the next record, or null if there are no more valid records
+         */
+        Record next() throws IOException {
+
+            byte[] body;
+            int checksum;
+
+            try {
+
+                int bodyLength = in.readInt();
+
+                if (bodyLength < Long.BYTES + 1 + Integer.BYTES || bodyLength > MAX_BODY_SIZE)
+                    return null;
+
+                body = new byte[bodyLength];
+                in.readFully(body);
+
+                checksum = in.readInt();
+
+            } catch (EOFException e) {
+                return null;
+            }
+
+            crc.reset();
+            crc.update(body);
+
+            if ((int) crc.getValue() != checksum)
+                return null;
+
+            ByteBuffer bytes = ByteBuffer.wrap(body);
+
+            long sequence = bytes.getLong();
+            byte type = bytes.get();
+            int nameLength = bytes.getInt();
+
+            if (nameLength < 0 || nameLength > bytes.remaining())
+                return null;
+
+            String name = new String(body, bytes.position(), nameLength, StandardCharsets.UTF_8);
+            bytes.position(bytes.position() + nameLength);
+
+            int first = bytes.remaining() >= Integer.BYTES ? bytes.getInt() : 0;
+            int second = bytes.remaining() >= Integer.BYTES ? bytes.getInt() : 0;
+
+            String holder = null;
+
+            if (bytes.remaining() >= Integer.BYTES) {
+
+                int holderLength = bytes.getInt();
+
+                if (holderLength < 0 || holderLength > bytes.remaining())
+                    return null;
+
+                holder = new String(body, bytes.position(), holderLength, StandardCharsets.UTF_8);
+            }
+
+            position += Integer.BYTES + body.length + Integer.BYTES;
+
+            return new Record(sequence, type, name, first, second, holder);
+        }
+
+
+        /**
+         * Get the position in the file, or the number of bytes read from the
+         * stream, right after the last valid record
+         */
+        long position() {
+            return position;
+        }
+
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+    }
+
+}
@@ -0,0 +1,105 @@
+package com.twu.controller;
+
+import com.twu.entity.RegularUser;
+import com.twu.service.HotSearchService;
+import com.twu.service.UserService;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+class VoteBatcherTest {
+
+
+    @Test
+    void votesSubmittedDuringShutdownAreAllApplied() throws Exception {
+
+        HotSearchService hotSearchService = HotSearchService.getInstance();
+        UserService userService = UserService.getInstance();
+
+        String name = "batcher-shutdown";
+        hotSearchService.addHotSearch(name);
+
+        int threads = 8;
+        int votesPerUser = 10;
+        List<RegularUser> users = new ArrayList<>();
+
+        for (int i = 0; i < threads * 20; i++)
+            users.add(userService.addRegularUser("batcher-user-" + i));
+
+        VoteBatcher batcher = new VoteBatcher(hotSearchService, userService, 16, 1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<List<CompletableFuture<Boolean>>>> submitters = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++) {
+
+            List<RegularUser> mine = users.subList(t * 20, (t + 1) * 20);
+
+            submitters.add(executor.submit(() -> {
+
+                start.await();
+
+                List<CompletableFuture<Boolean>> results = new ArrayList<>();
+
+                for (RegularUser user : mine)
+                    for (int v = 0; v < votesPerUser; v++)
+                        results.add(batcher.submit(name, user, 1));
+
+                return results;
+            }));
+        }
+
+        start.countDown();
+        Thread.sleep(5);
+        batcher.shutdown();
+
+        int applied = 0;
+
+        for (Future<List<CompletableFuture<Boolean>>> submitter : submitters) {
+            for (CompletableFuture<Boolean> result : submitter.get()) {
+                assertTrue(result.get(10, TimeUnit.SECONDS));
+                applied++;
+            }
+        }
+
+        executor.shutdown();
+
+        assertEquals(users.size() * votesPerUser, applied);
+        assertEquals(applied, hotSearchService.findOneByName(name).getVote());
+
+        for (RegularUser user : users)
+            assertEquals(0, user.getVotes());
+    }
+
+
+    @Test
+    void voteSubmittedAfterShutdownIsAppliedDirectly() throws Exception {
+
+        HotSearchService hotSearchService = HotSearchService.getInstance();
+        UserService userService = UserService.getInstance();
+
+        String name = "batcher-late";
+        hotSearchService.addHotSearch(name);
+        RegularUser user = userService.addRegularUser("batcher-late-user");
+
+        VoteBatcher batcher = new VoteBatcher(hotSearchService, userService, 16, 1);
+        batcher.shutdown();
+
+        assertTrue(batcher.submit(name, user, 3).get(1, TimeUnit.SECONDS));
+        assertEquals(3, hotSearchService.findOneByName(name).getVote());
+        assertEquals(7, user.getVotes());
+    }
+
+}
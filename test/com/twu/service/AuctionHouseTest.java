@@ -0,0 +1,161 @@
+package com.twu.service;
+
+import com.twu.entity.ArrayCounterStore;
+import com.twu.entity.CounterStore;
+import com.twu.entity.HotSearch;
+import com.twu.entity.StripedCounterStore;
+import com.twu.service.RankTree.Node;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+class AuctionHouseTest {
+
+
+    @Test
+    void higherBidIsSettledFirst() {
+
+        CounterStore store = new ArrayCounterStore();
+        AuctionHouse auctionHouse = new AuctionHouse();
+
+        AuctionHouse.Bid low = auctionHouse.place(new Node(new HotSearch("low", store)), 0, 5);
+        AuctionHouse.Bid high = auctionHouse.place(new Node(new HotSearch("high", store)), 0, 9);
+
+        List<AuctionHouse.Bid> order = new ArrayList<>();
+
+        auctionHouse.settleAll((node, index, amount) -> {
+            order.add(node.entry.getName().equals("high") ? high : low);
+            return order.size() == 1 ? 1 : 0;
+        });
+
+        assertEquals(List.of(high, low), order);
+        assertEquals(1, high.getResult());
+        assertEquals(0, low.getResult());
+    }
+
+
+    @Test
+    void concurrentBidsAreSettledExactlyOnce() throws Exception {
+
+        CounterStore store = new ArrayCounterStore();
+        AuctionHouse auctionHouse = new AuctionHouse();
+        Object rankingLock = new Object();
+        AtomicInteger settled = new AtomicInteger();
+        AtomicBoolean bidding = new AtomicBoolean(true);
+
+        AuctionHouse.Settlement settlement = (node, index, amount) -> {
+            settled.incrementAndGet();
+            return 1;
+        };
+
+        int threads = 8;
+        int bidsPerThread = 5000;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads + 1);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<List<AuctionHouse.Bid>>> futures = new ArrayList<>();
+
+        Future<?> settler = executor.submit(() -> {
+            while (bidding.get()) {
+                synchronized (rankingLock) {
+                    auctionHouse.settleAll(settlement);
+                }
+            }
+        });
+
+        for (int t = 0; t < threads; t++) {
+
+            Node node = new Node(new HotSearch("hs" + t, store));
+
+            futures.add(executor.submit(() -> {
+
+                start.await();
+
+                List<AuctionHouse.Bid> bids = new ArrayList<>();
+
+                for (int i = 0; i < bidsPerThread; i++)
+                    bids.add(auctionHouse.place(node, i % 2, 1 + i));
+
+                return bids;
+            }));
+        }
+
+        start.countDown();
+
+        List<AuctionHouse.Bid> bids = new ArrayList<>();
+
+        for (Future<List<AuctionHouse.Bid>> future : futures)
+            bids.addAll(future.get());
+
+        bidding.set(false);
+        settler.get();
+
+        synchronized (rankingLock) {
+            auctionHouse.settleAll(settlement);
+        }
+
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(threads * bidsPerThread, settled.get());
+
+        for (AuctionHouse.Bid bid : bids)
+            assertEquals(1, bid.getResult());
+    }
+
+
+    @Test
+    void concurrentPurchasesOfTheSameRankAreAllSettled() throws Exception {
+
+        HotSearchService service = new HotSearchService(new StripedCounterStore());
+        int buyers = 16;
+
+        for (int i = 0; i < buyers + 1; i++)
+            service.addHotSearch("hs" + i);
+
+        ExecutorService executor = Executors.newFixedThreadPool(buyers);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Integer>> results = new ArrayList<>();
+
+        for (int i = 0; i < buyers; i++) {
+
+            String name = "hs" + (i + 1);
+            int amount = 10 + i;
+
+            results.add(executor.submit(() -> {
+                start.await();
+                return service.buyHotSearch(name, 1, amount);
+            }));
+        }
+
+        start.countDown();
+
+        int won = 0;
+
+        for (Future<Integer> result : results) {
+            int code = result.get();
+            assertNotEquals(AuctionHouse.UNSETTLED, code);
+            if (code == 1)
+                won++;
+        }
+
+        executor.shutdown();
+
+        assertTrue(won >= 1);
+        assertEquals("hs" + buyers, service.getLeaderboard().getRows().get(0).getName());
+    }
+
+}
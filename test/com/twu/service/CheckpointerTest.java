@@ -0,0 +1,169 @@
+package com.twu.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static com.twu.service.WriteAheadLogTest.describe;
+import static com.twu.service.WriteAheadLogTest.runRandomOperations;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+class CheckpointerTest {
+
+
+    @TempDir
+    Path directory;
+
+    private final HotSearchService hotSearchService = HotSearchService.getInstance();
+
+
+    @BeforeEach
+    void clearServices() {
+        hotSearchService.clear();
+        UserService.getInstance().clear();
+    }
+
+
+    @AfterEach
+    void detachLog() {
+        detach();
+    }
+
+
+    @Test
+    void snapshotAndLogTailRecoverTheLiveBoard() throws IOException {
+
+        Random random = new Random(7);
+        List<String> live;
+
+        try (WriteAheadLog log = open(); Checkpointer checkpointer = new Checkpointer(directory, log)) {
+
+            checkpointer.recover();
+
+            runRandomOperations(hotSearchService, random, 1500);
+            checkpointer.checkpoint();
+            runRandomOperations(hotSearchService, random, 1500);
+            checkpointer.checkpoint();
+            runRandomOperations(hotSearchService, random, 1500);
+
+            live = describe(hotSearchService.getLeaderboard());
+            detach();
+        }
+
+        assertEquals(live, recover());
+    }
+
+
+    @Test
+    void concurrentVotesAndPurchasesRecoverTheLiveBoard() throws Exception {
+
+        int threads = 4;
+        List<String> live;
+
+        try (WriteAheadLog log = open(); Checkpointer checkpointer = new Checkpointer(directory, log)) {
+
+            checkpointer.recover();
+
+            for (int i = 0; i < 50; i++)
+                hotSearchService.addHotSearch("hs" + i);
+
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+
+            for (int t = 0; t < threads; t++) {
+
+                Random random = new Random(t);
+
+                futures.add(executor.submit(() -> {
+
+                    start.await();
+
+                    for (int i = 0; i < 2000; i++) {
+
+                        String name = "hs" + random.nextInt(50);
+
+                        if (random.nextInt(20) == 0)
+                            hotSearchService.buyHotSearch(name, 1 + random.nextInt(10), 1 + random.nextInt(30));
+                        else
+                            hotSearchService.voteHotSearch(name, 1 + random.nextInt(2));
+                    }
+
+                    return null;
+                }));
+            }
+
+            start.countDown();
+            checkpointer.checkpoint();
+
+            for (Future<?> future : futures)
+                future.get();
+
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+            live = describe(hotSearchService.getLeaderboard());
+            detach();
+        }
+
+        // votes race for the log, so hot searches with the same votes may
+        // be folded in another order, but nothing else may differ
+        List<String> recovered = recover();
+
+        Collections.sort(live);
+        Collections.sort(recovered);
+
+        assertEquals(live, recovered);
+    }
+
+
+    private WriteAheadLog open() throws IOException {
+        return new WriteAheadLog(directory.resolve("log"), WriteAheadLog.FsyncPolicy.GROUP_COMMIT);
+    }
+
+
+    /**
+     * Clear the services and recover them from the snapshots and the log
+     *
+     * @return the recovered board
+     */
+    private List<String> recover() throws IOException {
+
+        hotSearchService.clear();
+        UserService.getInstance().clear();
+
+        try (WriteAheadLog log = open(); Checkpointer checkpointer = new Checkpointer(directory, log)) {
+
+            checkpointer.recover();
+
+            List<String> recovered = describe(hotSearchService.getLeaderboard());
+            detach();
+
+            return recovered;
+        }
+    }
+
+
+    private void detach() {
+        hotSearchService.useWriteAheadLog(null);
+        UserService.getInstance().useWriteAheadLog(null);
+        hotSearchService.clear();
+        UserService.getInstance().clear();
+    }
+
+}
@@ -0,0 +1,250 @@
+package com.twu.service;
+
+import com.twu.entity.ArrayCounterStore;
+import com.twu.entity.CounterStore;
+import com.twu.entity.HotSearch;
+import com.twu.service.RankTree.Node;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+
+/**
+ * Checks the treap-backed ranking against a naive list that spells out the
+ * ordering rules of the ranking one list operation at a time
+ */
+class HotSearchRankingTest {
+
+
+    @Test
+    void randomOperationsMatchNaiveList() {
+        for (long seed = 1; seed <= 20; seed++)
+            runRandomOperations(new Random(seed), 2000);
+    }
+
+
+    @Test
+    void buyingTheNextPositionEvictsItsOccupant() {
+
+        CounterStore store = new ArrayCounterStore();
+        HotSearchRanking ranking = new HotSearchRanking();
+
+        Node a = ranking.add(vote(new HotSearch("a", store), 3));
+        Node b = ranking.add(vote(new HotSearch("b", store), 2));
+        Node c = ranking.add(vote(new HotSearch("c", store), 1));
+
+        HotSearch evicted = ranking.pin(a, 1);
+
+        assertSame(b.entry, evicted);
+        assertEquals(List.of(a, c), ranking.toList());
+        assertEquals(0, ranking.indexOf(a));
+    }
+
+
+    @Test
+    void boughtHotSearchKeepsItsPositionWhenOthersOvertake() {
+
+        CounterStore store = new ArrayCounterStore();
+        HotSearchRanking ranking = new HotSearchRanking();
+
+        Node a = ranking.add(vote(new HotSearch("a", store), 3));
+        Node b = ranking.add(vote(new HotSearch("b", store), 2));
+        Node c = ranking.add(vote(new HotSearch("c", store), 1));
+
+        ranking.pin(b, 1);
+
+        c.entry.addVotes(10);
+        ranking.vote(c);
+
+        assertEquals(List.of(c, b, a), ranking.toList());
+    }
+
+
+    private static void runRandomOperations(Random random, int operations) {
+
+        CounterStore store = new ArrayCounterStore();
+        HotSearchRanking ranking = new HotSearchRanking();
+        NaiveRanking naive = new NaiveRanking();
+        Map<HotSearch, Node> nodes = new HashMap<>();
+        List<HotSearch> live = new ArrayList<>();
+
+        for (int i = 0; i < operations; i++) {
+
+            int op = random.nextInt(10);
+
+            if (live.size() < 3 || op < 3) {
+
+                HotSearch hs = vote(new HotSearch("hs" + i, store), random.nextInt(5));
+
+                nodes.put(hs, ranking.add(hs));
+                naive.add(hs);
+                live.add(hs);
+
+            } else if (op < 9) {
+
+                HotSearch hs = live.get(random.nextInt(live.size()));
+
+                hs.addVotes(1 + random.nextInt(4));
+                ranking.vote(nodes.get(hs));
+                naive.vote(hs);
+
+            } else {
+
+                HotSearch hs = live.get(random.nextInt(live.size()));
+                int index = random.nextInt(live.size());
+
+                HotSearch evicted = ranking.pin(nodes.get(hs), index);
+
+                assertSame(naive.pin(hs, index), evicted);
+
+                if (evicted != null)
+                    live.remove(evicted);
+            }
+
+            assertMatches(naive, ranking, nodes, random);
+        }
+    }
+
+
+    private static void assertMatches(NaiveRanking naive, HotSearchRanking ranking, Map<HotSearch, Node> nodes,
+                                      Random random) {
+
+        List<HotSearch> actual = new ArrayList<>();
+
+        for (Node node : ranking.toList())
+            actual.add(node.entry);
+
+        assertEquals(naive.list, actual);
+        assertEquals(naive.list.size(), ranking.size());
+
+        int index = random.nextInt(naive.list.size());
+        HotSearch hs = naive.list.get(index);
+
+        assertSame(hs, ranking.get(index).entry);
+        assertEquals(index, ranking.indexOf(nodes.get(hs)));
+
+        int limit = 1 + random.nextInt(10);
+        List<HotSearch> range = new ArrayList<>();
+
+        for (Node node : ranking.range(index, limit))
+            range.add(node.entry);
+
+        assertEquals(naive.list.subList(index, Math.min(naive.list.size(), index + limit)), range);
+    }
+
+
+    private static HotSearch vote(HotSearch hs, int votes) {
+        hs.addVotes(votes);
+        return hs;
+    }
+
+
+    /**
+     * The ranking list kept in a plain list. Bought hot searches keep their
+     * positions, and the others fill the remaining positions by votes, where
+     * a hot search that has just been placed goes after all the ones with
+     * the same votes.
+     *
+     * This is the intended behaviour of the original ArrayList service, not
+     * a copy of it. Buying moves the hot searches the same way it did. But
+     * the original appended every new hot search at the end whatever its
+     * votes, and a vote moved a hot search in front of the first unpaid one
+     * with fewer votes anywhere on the list, so a vote for a hot search that
+     * was already ahead of all of those moved it down a position
+     */
+    private static class NaiveRanking {
+
+
+        final List<HotSearch> list = new ArrayList<>();
+
+        final List<HotSearch> pinned = new ArrayList<>();
+
+
+        void add(HotSearch hs) {
+            List<HotSearch> unpaid = unpaid();
+            unpaid.add(insertionPoint(unpaid, hs), hs);
+            fill(unpaid);
+        }
+
+
+        void vote(HotSearch hs) {
+
+            if (pinned.contains(hs))
+                return;
+
+            List<HotSearch> unpaid = unpaid();
+            unpaid.remove(hs);
+            unpaid.add(insertionPoint(unpaid, hs), hs);
+            fill(unpaid);
+        }
+
+
+        HotSearch pin(HotSearch hs, int index) {
+
+            HotSearch existing = list.get(index);
+
+            if (!pinned.contains(hs))
+                pinned.add(hs);
+
+            if (existing == hs)
+                return null;
+
+            int oldIndex = list.indexOf(hs);
+
+            list.remove(oldIndex);
+            list.set(oldIndex < index ? index - 1 : index, hs);
+            pinned.remove(existing);
+
+            return existing;
+        }
+
+
+        private List<HotSearch> unpaid() {
+
+            List<HotSearch> unpaid = new ArrayList<>();
+
+            for (HotSearch hs : list)
+                if (!pinned.contains(hs))
+                    unpaid.add(hs);
+
+            return unpaid;
+        }
+
+
+        private static int insertionPoint(List<HotSearch> unpaid, HotSearch hs) {
+
+            int i = 0;
+
+            while (i < unpaid.size() && unpaid.get(i).getVote() >= hs.getVote())
+                i++;
+
+            return i;
+        }
+
+
+        /**
+         * Put the hot searches that haven't been bought back into the
+         * positions that aren't held by bought ones, in order
+         */
+        private void fill(List<HotSearch> unpaid) {
+
+            int next = 0;
+
+            for (int i = 0; i < list.size(); i++)
+                if (!pinned.contains(list.get(i)))
+                    list.set(i, unpaid.get(next++));
+
+            while (next < unpaid.size())
+                list.add(unpaid.get(next++));
+        }
+
+    }
+
+}
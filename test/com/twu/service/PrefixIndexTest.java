@@ -0,0 +1,108 @@
+package com.twu.service;
+
+import com.twu.entity.ArrayCounterStore;
+import com.twu.entity.Leaderboard;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+
+/**
+ * Checks the prefix index against filtering the whole ranking list while
+ * hot searches are added, voted, bought and evicted, and the decay rate
+ * changes
+ */
+class PrefixIndexTest {
+
+
+    private static final String LETTERS = "abAB";
+
+
+    @Test
+    void findByPrefixMatchesFilteredRankingList() {
+        for (long seed = 1; seed <= 10; seed++)
+            runRandomOperations(new Random(seed), 1500);
+    }
+
+
+    private static void runRandomOperations(Random random, int operations) {
+
+        HotSearchService service = new HotSearchService(new ArrayCounterStore());
+        List<String> names = new ArrayList<>();
+
+        for (int i = 0; i < operations; i++) {
+
+            int op = random.nextInt(20);
+
+            if (names.size() < 3 || op < 5) {
+
+                String name = randomName(random, 1 + random.nextInt(5));
+
+                if (!service.exists(name)) {
+                    service.addHotSearch(name);
+                    names.add(name);
+                }
+
+            } else if (op < 17) {
+
+                service.voteHotSearch(names.get(random.nextInt(names.size())), 1 + random.nextInt(4));
+
+            } else if (op < 19) {
+
+                String name = names.get(random.nextInt(names.size()));
+
+                service.buyHotSearch(name, 1 + random.nextInt(service.getCount()), 1 + random.nextInt(20));
+                names.removeIf(n -> !service.exists(n));
+
+            } else {
+                service.setDecayRate(random.nextBoolean() ? 0 : 1e-3);
+            }
+
+            String prefix = randomName(random, random.nextInt(3));
+            int k = random.nextInt(8);
+
+            assertEquals(expected(service, prefix, k), actual(service, prefix, k), "prefix " + prefix + ", k " + k);
+        }
+    }
+
+
+    private static List<String> expected(HotSearchService service, String prefix, int k) {
+
+        String key = NameUtil.fold(prefix);
+        List<String> names = new ArrayList<>();
+
+        for (Leaderboard.Row row : service.getLeaderboard().getRows()) {
+            if (names.size() < k && NameUtil.fold(row.getName()).startsWith(key))
+                names.add(row.getName());
+        }
+
+        return names;
+    }
+
+
+    private static List<String> actual(HotSearchService service, String prefix, int k) {
+
+        List<String> names = new ArrayList<>();
+
+        for (Leaderboard.Row row : service.findByPrefix(prefix, k))
+            names.add(row.getName());
+
+        return names;
+    }
+
+
+    private static String randomName(Random random, int length) {
+
+        StringBuilder name = new StringBuilder();
+
+        for (int i = 0; i < length; i++)
+            name.append(LETTERS.charAt(random.nextInt(LETTERS.length())));
+
+        return name.toString();
+    }
+
+}
@@ -0,0 +1,218 @@
+package com.twu.service;
+
+import com.twu.entity.ArrayCounterStore;
+import com.twu.entity.Leaderboard;
+import com.twu.entity.RankDelta;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.twu.service.WriteAheadLogTest.describe;
+import static com.twu.service.WriteAheadLogTest.runRandomOperations;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+class RankChangePublisherTest {
+
+
+    @Test
+    void subscriberThatFallsBehindGetsASnapshotAndThenTheNewChanges() throws InterruptedException {
+
+        ReentrantLock lock = new ReentrantLock();
+        AtomicInteger snapshots = new AtomicInteger();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        RankChangePublisher publisher = new RankChangePublisher(lock, () -> {
+            snapshots.incrementAndGet();
+            return new Leaderboard(snapshots.get(), new Leaderboard.Row[0]);
+        }, executor, 4);
+
+        QueueSubscriber subscriber = new QueueSubscriber();
+        publisher.subscribe(subscriber);
+
+        subscriber.subscription.request(1);
+        assertEquals(RankDelta.Type.SNAPSHOT, subscriber.take().getType());
+
+        // nothing is requested, so the buffer of 4 overflows
+        lock.lock();
+        try {
+            for (int i = 0; i < 10; i++)
+                publisher.publish(RankDelta.added(row("old" + i), 1));
+        } finally {
+            lock.unlock();
+        }
+
+        subscriber.subscription.request(3);
+
+        RankDelta resync = subscriber.take();
+        assertEquals(RankDelta.Type.SNAPSHOT, resync.getType());
+        assertEquals(2, resync.getSnapshot().getVersion());
+
+        lock.lock();
+        try {
+            publisher.publish(RankDelta.added(row("new0"), 1));
+            publisher.publish(RankDelta.added(row("new1"), 2));
+        } finally {
+            lock.unlock();
+        }
+
+        assertEquals("new0", subscriber.take().getRow().getName());
+        assertEquals("new1", subscriber.take().getRow().getName());
+        assertNull(subscriber.deltas.poll(100, TimeUnit.MILLISECONDS));
+
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+
+    @Test
+    void slowSubscriberResynchronizesToTheLiveBoard() throws InterruptedException {
+
+        HotSearchService service = new HotSearchService(new ArrayCounterStore());
+        MirrorSubscriber mirror = new MirrorSubscriber();
+
+        service.getRankChanges().subscribe(mirror);
+
+        // hold up the first change long enough for the buffer to overflow
+        runRandomOperations(service, new Random(3), 5000);
+        mirror.release.countDown();
+
+        List<String> live = describe(service.getLeaderboard());
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+
+        while (!live.equals(mirror.describe()) && System.nanoTime() < deadline)
+            Thread.sleep(10);
+
+        assertEquals(live, mirror.describe());
+        assertTrue(mirror.snapshots.get() >= 2, "the subscriber should have been resynchronized");
+    }
+
+
+    private static Leaderboard.Row row(String name) {
+        return new Leaderboard.Row(name, 0, 0, false, 0, false);
+    }
+
+
+    /**
+     * Queues the changes, and requests only what the test asks for
+     */
+    private static class QueueSubscriber implements Flow.Subscriber<RankDelta> {
+
+
+        final BlockingQueue<RankDelta> deltas = new LinkedBlockingQueue<>();
+
+        volatile Flow.Subscription subscription;
+
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+
+        @Override
+        public void onNext(RankDelta delta) {
+            deltas.add(delta);
+        }
+
+
+        @Override
+        public void onError(Throwable throwable) {
+        }
+
+
+        @Override
+        public void onComplete() {
+        }
+
+
+        RankDelta take() throws InterruptedException {
+            RankDelta delta = deltas.poll(10, TimeUnit.SECONDS);
+            assertTrue(delta != null, "no change was delivered");
+            return delta;
+        }
+
+    }
+
+
+    /**
+     * Keeps a copy of the ranking list by applying every change to it, one
+     * change at a time, and blocks on the first change after the initial
+     * snapshot until released
+     */
+    private static class MirrorSubscriber implements Flow.Subscriber<RankDelta> {
+
+
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final AtomicInteger snapshots = new AtomicInteger();
+
+        private final List<Leaderboard.Row> rows = new ArrayList<>();
+
+        private Flow.Subscription subscription;
+
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(1);
+        }
+
+
+        @Override
+        public void onNext(RankDelta delta) {
+
+            if (delta.getType() == RankDelta.Type.SNAPSHOT)
+                snapshots.incrementAndGet();
+            else
+                awaitRelease();
+
+            synchronized (rows) {
+                delta.applyTo(rows);
+            }
+
+            subscription.request(1);
+        }
+
+
+        @Override
+        public void onError(Throwable throwable) {
+        }
+
+
+        @Override
+        public void onComplete() {
+        }
+
+
+        List<String> describe() {
+            synchronized (rows) {
+                return WriteAheadLogTest.describe(new Leaderboard(0, rows.toArray(new Leaderboard.Row[0])));
+            }
+        }
+
+
+        private void awaitRelease() {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+    }
+
+}
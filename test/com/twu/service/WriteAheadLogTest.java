@@ -0,0 +1,184 @@
+package com.twu.service;
+
+import com.twu.entity.Leaderboard;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+
+class WriteAheadLogTest {
+
+
+    @TempDir
+    Path directory;
+
+    private final HotSearchService hotSearchService = HotSearchService.getInstance();
+
+
+    @BeforeEach
+    void clearServices() {
+        hotSearchService.clear();
+        UserService.getInstance().clear();
+    }
+
+
+    @AfterEach
+    void detachLog() {
+        hotSearchService.useWriteAheadLog(null);
+        hotSearchService.clear();
+        UserService.getInstance().clear();
+    }
+
+
+    @Test
+    void recordsAreReadBackInOrder() throws IOException {
+
+        try (WriteAheadLog log = new WriteAheadLog(directory, WriteAheadLog.FsyncPolicy.EVERY_WRITE)) {
+            log.await(log.logAdd("热搜", true));
+            log.await(log.logVote("热搜", 3, 6));
+            log.await(log.logBuy("热搜", 4, 20, "other"));
+        }
+
+        List<WriteAheadLog.Record> records = readAll();
+
+        assertEquals(3, records.size());
+
+        assertEquals(WriteAheadLog.ADD_SUPER_HOT_SEARCH, records.get(0).type);
+        assertEquals("热搜", records.get(0).name);
+        assertNull(records.get(0).holder);
+
+        assertEquals(WriteAheadLog.VOTE, records.get(1).type);
+        assertEquals(3, records.get(1).first);
+        assertEquals(6, records.get(1).second);
+
+        assertEquals(WriteAheadLog.BUY, records.get(2).type);
+        assertEquals(4, records.get(2).first);
+        assertEquals(20, records.get(2).second);
+        assertEquals("other", records.get(2).holder);
+        assertEquals(3, records.get(2).sequence);
+    }
+
+
+    @Test
+    void replayedPurchaseEvictsTheSameHotSearch() throws IOException {
+
+        try (WriteAheadLog log = new WriteAheadLog(directory, WriteAheadLog.FsyncPolicy.EVERY_WRITE)) {
+
+            hotSearchService.useWriteAheadLog(log);
+
+            hotSearchService.addHotSearch("x");
+            hotSearchService.addHotSearch("y");
+            hotSearchService.addHotSearch("z");
+
+            // y reaches 3 votes after x, so it ranks below x
+            hotSearchService.voteHotSearch("y", 1);
+            hotSearchService.voteHotSearch("x", 3);
+            hotSearchService.voteHotSearch("y", 2);
+
+            hotSearchService.buyHotSearch("z", 1, 5);
+
+            hotSearchService.useWriteAheadLog(null);
+        }
+
+        assertRecoversTo(describe(hotSearchService.getLeaderboard()));
+    }
+
+
+    @Test
+    void randomOperationsRecoverTheLiveBoard() throws IOException {
+
+        Random random = new Random(42);
+
+        try (WriteAheadLog log = new WriteAheadLog(directory, WriteAheadLog.FsyncPolicy.EVERY_WRITE)) {
+
+            hotSearchService.useWriteAheadLog(log);
+            runRandomOperations(hotSearchService, random, 3000);
+            hotSearchService.useWriteAheadLog(null);
+        }
+
+        assertRecoversTo(describe(hotSearchService.getLeaderboard()));
+    }
+
+
+    /**
+     * Add, vote and buy hot searches at random, with few votes at a time so
+     * that many hot searches have the same votes. Names that are still on
+     * the board aren't added again, so that the operations can be run more
+     * than once on the same board
+     */
+    static void runRandomOperations(HotSearchService service, Random random, int operations) {
+
+        int added = 0;
+
+        for (int i = 0; i < operations; i++) {
+
+            int op = random.nextInt(10);
+
+            if (added < 5 || op < 2) {
+                String name = "hs" + added++;
+                if (service.findOneByName(name) == null)
+                    service.addHotSearch(name);
+            } else if (op < 9) {
+                service.voteHotSearch("hs" + random.nextInt(added), 1 + random.nextInt(2));
+            } else {
+                int rank = 1 + random.nextInt(service.getCount());
+                service.buyHotSearch("hs" + random.nextInt(added), rank, 1 + random.nextInt(30));
+            }
+        }
+    }
+
+
+    /**
+     * Describe every row of a board by its name, votes, amount and whether
+     * it has been bought, in order
+     */
+    static List<String> describe(Leaderboard board) {
+
+        List<String> rows = new ArrayList<>();
+
+        for (Leaderboard.Row row : board.getRows())
+            rows.add(row.getName() + " " + row.getVote() + " " + row.getAmount() + (row.isPinned() ? " pinned" : ""));
+
+        return rows;
+    }
+
+
+    private void assertRecoversTo(List<String> live) throws IOException {
+
+        hotSearchService.clear();
+
+        for (WriteAheadLog.Record record : readAll())
+            Checkpointer.replay(record);
+
+        assertEquals(live, describe(hotSearchService.getLeaderboard()));
+    }
+
+
+    private List<WriteAheadLog.Record> readAll() throws IOException {
+
+        List<WriteAheadLog.Record> records = new ArrayList<>();
+
+        for (Path segment : WriteAheadLog.segments(directory)) {
+            try (WriteAheadLog.Reader reader = new WriteAheadLog.Reader(segment)) {
+
+                WriteAheadLog.Record record;
+
+                while ((record = reader.next()) != null)
+                    records.add(record);
+            }
+        }
+
+        return records;
+    }
+
+}